@@ -61,14 +61,20 @@ class FlumeEvent implements Event, Writable {
 
   private Map<String, String> headers;
   private byte[] body;
+  // set instead of body when the event came with a buffer-backed body
+  private ByteBuffer bodyBuffer;
 
   private FlumeEvent() {
-    this(null, null);
+    this(null, (byte[]) null);
   }
   FlumeEvent(Map<String, String> headers, byte[] body) {
     this.headers = headers;
     this.body = body;
   }
+  FlumeEvent(Map<String, String> headers, ByteBuffer bodyBuffer) {
+    this.headers = headers;
+    this.bodyBuffer = bodyBuffer;
+  }
 
   @Override
   public Map<String, String> getHeaders() {
@@ -82,12 +88,28 @@ class FlumeEvent implements Event, Writable {
 
   @Override
   public byte[] getBody() {
+    if (body == null && bodyBuffer != null) {
+      body = new byte[bodyBuffer.remaining()];
+      bodyBuffer.duplicate().get(body);
+    }
     return body;
   }
 
   @Override
   public void setBody(byte[] body) {
     this.body = body;
+    this.bodyBuffer = null;
+  }
+
+  /**
+   * @return the body, without copying it if it was given as a buffer, or
+   * {@code null} if there is no body
+   */
+  ByteBuffer getBodyBuffer() {
+    if (bodyBuffer != null) {
+      return bodyBuffer.duplicate();
+    }
+    return body == null ? null : ByteBuffer.wrap(body);
   }
 
 
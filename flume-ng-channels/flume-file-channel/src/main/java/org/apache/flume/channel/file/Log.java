@@ -31,6 +31,7 @@ import org.apache.flume.Event;
 import org.apache.flume.annotations.InterfaceAudience;
 import org.apache.flume.annotations.InterfaceStability;
 import org.apache.flume.channel.file.encryption.KeyProvider;
+import org.apache.flume.event.BufferBackedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -597,8 +598,13 @@ public class Log {
   FlumeEventPointer put(long transactionID, Event event)
       throws IOException {
     Preconditions.checkState(open, "Log is closed");
-    FlumeEvent flumeEvent = new FlumeEvent(
-        event.getHeaders(), event.getBody());
+    FlumeEvent flumeEvent;
+    if (event instanceof BufferBackedEvent) {
+      flumeEvent = new FlumeEvent(event.getHeaders(),
+          ((BufferBackedEvent) event).getBodyBuffer());
+    } else {
+      flumeEvent = new FlumeEvent(event.getHeaders(), event.getBody());
+    }
     Put put = new Put(transactionID, WriteOrderOracle.next(), flumeEvent);
     ByteBuffer buffer = TransactionEventRecord.toByteBuffer(put);
     int logFileIndex = nextLogWriter(transactionID);
@@ -23,6 +23,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
@@ -86,10 +87,20 @@ class Put extends TransactionEventRecord {
             .setValue(value).build());
       }
     }
-    eventBuilder.setBody(ByteString.copyFrom(event.getBody()));
+    ByteBuffer body = event.getBodyBuffer();
+    if (body.hasArray()) {
+      // copy straight from a buffer-backed body into the protobuf
+      byte[] array = body.array();
+      int offset = body.arrayOffset() + body.position();
+      int length = body.remaining();
+      eventBuilder.setBody(ByteString.copyFrom(array, offset, length));
+      putBuilder.setChecksum(calculateChecksum(array, offset, length));
+    } else {
+      eventBuilder.setBody(ByteString.copyFrom(event.getBody()));
+      putBuilder.setChecksum(calculateChecksum(event.getBody()));
+    }
     ProtosFactory.FlumeEvent protoEvent = eventBuilder.build();
     putBuilder.setEvent(protoEvent);
-    putBuilder.setChecksum(calculateChecksum(event.getBody()));
     putBuilder.build().writeDelimitedTo(out);
   }
   @Override
@@ -116,8 +127,12 @@ class Put extends TransactionEventRecord {
   }
 
   protected long calculateChecksum(byte[] body) {
+    return calculateChecksum(body, 0, body.length);
+  }
+
+  private long calculateChecksum(byte[] body, int offset, int length) {
     checksum.reset();
-    checksum.update(body, 0, body.length);
+    checksum.update(body, offset, length);
     return checksum.getValue();
   }
 
@@ -28,6 +28,8 @@ import java.util.Map;
 
 import junit.framework.Assert;
 
+import com.google.common.base.Charsets;
+
 import org.junit.Test;
 
 public class TestTransactionEventRecordV3 {
@@ -85,6 +87,20 @@ public class TestTransactionEventRecordV3 {
     Assert.assertTrue(Arrays.equals(in.getEvent().getBody(), out.getEvent().getBody()));
   }
   @Test
+  public void testPutSerializationBufferBody() throws IOException,
+    CorruptEventException {
+    ByteBuffer slice = ByteBuffer.wrap("xxbodyxx".getBytes(Charsets.UTF_8));
+    slice.position(2);
+    slice.limit(6);
+    Put in = new Put(System.currentTimeMillis(),
+        WriteOrderOracle.next(),
+        new FlumeEvent(null, slice.slice()));
+    Put out = (Put)TransactionEventRecord.fromByteArray(toByteArray(in));
+    Assert.assertEquals("body",
+        new String(out.getEvent().getBody(), Charsets.UTF_8));
+    Assert.assertTrue(Arrays.equals(in.getEvent().getBody(), out.getEvent().getBody()));
+  }
+  @Test
   public void testTakeSerialization() throws IOException,
     CorruptEventException {
     Take in = new Take(System.currentTimeMillis(),
@@ -35,6 +35,7 @@ import org.apache.flume.interceptor.Interceptor;
 import org.apache.flume.interceptor.InterceptorChain;
 import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
+import org.apache.flume.instrumentation.InterceptorCounter;
 import org.apache.flume.interceptor.InterceptorBuilderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,8 +56,40 @@ public class ChannelProcessor implements Configurable {
   private static final Logger LOG = LoggerFactory.getLogger(
       ChannelProcessor.class);
 
+  /**
+   * Whether consecutive stateless interceptors are run in a single pass over
+   * each batch, see {@link InterceptorChain}.
+   */
+  public static final String CONFIG_INTERCEPTORS_FUSED =
+      "interceptorChain.fused";
+  public static final boolean DEFAULT_INTERCEPTORS_FUSED = false;
+
+  /**
+   * Number of threads stateless interceptors are run on for large batches.
+   * The default of one keeps all interceptors on the source thread.
+   */
+  public static final String CONFIG_INTERCEPTORS_PARALLELISM =
+      "interceptorChain.parallelism";
+  public static final int DEFAULT_INTERCEPTORS_PARALLELISM = 1;
+
+  /**
+   * Minimum batch size split across the interceptor threads.
+   */
+  public static final String CONFIG_INTERCEPTORS_PARALLEL_THRESHOLD =
+      "interceptorChain.parallelThreshold";
+  public static final int DEFAULT_INTERCEPTORS_PARALLEL_THRESHOLD = 1000;
+
+  /**
+   * Set by the channel processor in the context of each interceptor, to the
+   * interceptor name qualified with the source name. Interceptors that
+   * register counters of their own derive the counter names from it, so that
+   * two instances never share a JMX name.
+   */
+  public static final String CONFIG_INTERCEPTOR_NAME = "interceptorName";
+
   private final ChannelSelector selector;
   private final InterceptorChain interceptorChain;
+  private String name;
 
   public ChannelProcessor(ChannelSelector selector) {
     this.selector = selector;
@@ -71,6 +104,18 @@ public class ChannelProcessor implements Configurable {
     interceptorChain.close();
   }
 
+  /**
+   * Sets the name of the owning source, used to qualify the names of the
+   * interceptor counters. Must be called before {@link #configure(Context)}.
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
   /**
    * The Context of the associated Source is passed.
    * @param context
@@ -84,6 +129,15 @@ public class ChannelProcessor implements Configurable {
   private void configureInterceptors(Context context) {
 
     List<Interceptor> interceptors = Lists.newLinkedList();
+    List<InterceptorCounter> counters = Lists.newLinkedList();
+
+    interceptorChain.setFused(context.getBoolean(CONFIG_INTERCEPTORS_FUSED,
+        DEFAULT_INTERCEPTORS_FUSED));
+    interceptorChain.setParallelism(context.getInteger(
+        CONFIG_INTERCEPTORS_PARALLELISM, DEFAULT_INTERCEPTORS_PARALLELISM));
+    interceptorChain.setParallelThreshold(context.getInteger(
+        CONFIG_INTERCEPTORS_PARALLEL_THRESHOLD,
+        DEFAULT_INTERCEPTORS_PARALLEL_THRESHOLD));
 
     String interceptorListStr = context.getString("interceptors", "");
     if (interceptorListStr.isEmpty()) {
@@ -105,10 +159,14 @@ public class ChannelProcessor implements Configurable {
         throw new FlumeException("Interceptor.Type not specified for " +
           interceptorName);
       }
+      String qualifiedName = name == null ? interceptorName
+          : name + "." + interceptorName;
+      interceptorContext.put(CONFIG_INTERCEPTOR_NAME, qualifiedName);
       try {
         Interceptor.Builder builder = factory.newInstance(type);
         builder.configure(interceptorContext);
         interceptors.add(builder.build());
+        counters.add(new InterceptorCounter(qualifiedName));
       } catch (ClassNotFoundException e) {
         LOG.error("Builder class not found. Exception follows.", e);
         throw new FlumeException("Interceptor.Builder not found.", e);
@@ -121,7 +179,7 @@ public class ChannelProcessor implements Configurable {
       }
     }
 
-    interceptorChain.setInterceptors(interceptors);
+    interceptorChain.setInterceptors(interceptors, counters);
   }
 
   public ChannelSelector getSelector() {
@@ -143,8 +201,55 @@ public class ChannelProcessor implements Configurable {
   public void processEventBatch(List<Event> events) {
     Preconditions.checkNotNull(events, "Event list must not be null");
 
-    events = interceptorChain.intercept(events);
+    boolean delivered = false;
+    Map<Channel, List<Event>> optChannelQueue;
+    try {
+      events = interceptorChain.intercept(events);
+      optChannelQueue = putRequired(events);
+      delivered = true;
+    } finally {
+      // interceptors may only remember events the channels accepted
+      if (delivered) {
+        interceptorChain.afterCommit();
+      } else {
+        interceptorChain.afterRollback();
+      }
+    }
+
+    // Process optional channels
+    for (Channel optChannel : optChannelQueue.keySet()) {
+      Transaction tx = optChannel.getTransaction();
+      Preconditions.checkNotNull(tx, "Transaction object must not be null");
+      try {
+        tx.begin();
+
+        List<Event> batch = optChannelQueue.get(optChannel);
+
+        for (Event event : batch ) {
+          optChannel.put(event);
+        }
+
+        tx.commit();
+      } catch (Throwable t) {
+        tx.rollback();
+        LOG.error("Unable to put batch on optional channel: " + optChannel, t);
+        if (t instanceof Error) {
+          throw (Error) t;
+        }
+      } finally {
+        if (tx != null) {
+          tx.close();
+        }
+      }
+    }
+  }
 
+  /**
+   * Puts the events into their required channels, one transaction per
+   * channel.
+   * @return the events to put into each optional channel
+   */
+  private Map<Channel, List<Event>> putRequired(List<Event> events) {
     Map<Channel, List<Event>> reqChannelQueue =
         new LinkedHashMap<Channel, List<Event>>();
 
@@ -207,32 +312,7 @@ public class ChannelProcessor implements Configurable {
       }
     }
 
-    // Process optional channels
-    for (Channel optChannel : optChannelQueue.keySet()) {
-      Transaction tx = optChannel.getTransaction();
-      Preconditions.checkNotNull(tx, "Transaction object must not be null");
-      try {
-        tx.begin();
-
-        List<Event> batch = optChannelQueue.get(optChannel);
-
-        for (Event event : batch ) {
-          optChannel.put(event);
-        }
-
-        tx.commit();
-      } catch (Throwable t) {
-        tx.rollback();
-        LOG.error("Unable to put batch on optional channel: " + optChannel, t);
-        if (t instanceof Error) {
-          throw (Error) t;
-        }
-      } finally {
-        if (tx != null) {
-          tx.close();
-        }
-      }
-    }
+    return optChannelQueue;
   }
 
   /**
@@ -248,32 +328,40 @@ public class ChannelProcessor implements Configurable {
    * @throws ChannelException when a write to a required channel fails.
    */
   public void processEvent(Event event) {
-
-    event = interceptorChain.intercept(event);
+    boolean delivered = false;
+    try {
+      event = interceptorChain.intercept(event);
+      if (event != null) {
+        putRequired(event);
+      }
+      delivered = true;
+    } finally {
+      if (delivered) {
+        interceptorChain.afterCommit();
+      } else {
+        interceptorChain.afterRollback();
+      }
+    }
     if (event == null) {
       return;
     }
 
-    // Process required channels
-    List<Channel> requiredChannels = selector.getRequiredChannels(event);
-    for (Channel reqChannel : requiredChannels) {
-      Transaction tx = reqChannel.getTransaction();
-      Preconditions.checkNotNull(tx, "Transaction object must not be null");
+    // Process optional channels
+    List<Channel> optionalChannels = selector.getOptionalChannels(event);
+    for (Channel optChannel : optionalChannels) {
+      Transaction tx = null;
       try {
+        tx = optChannel.getTransaction();
         tx.begin();
 
-        reqChannel.put(event);
+        optChannel.put(event);
 
         tx.commit();
       } catch (Throwable t) {
         tx.rollback();
+        LOG.error("Unable to put event on optional channel: " + optChannel, t);
         if (t instanceof Error) {
-          LOG.error("Error while writing to required channel: " +
-              reqChannel, t);
           throw (Error) t;
-        } else {
-          throw new ChannelException("Unable to put event on required " +
-              "channel: " + reqChannel, t);
         }
       } finally {
         if (tx != null) {
@@ -281,23 +369,31 @@ public class ChannelProcessor implements Configurable {
         }
       }
     }
+  }
 
-    // Process optional channels
-    List<Channel> optionalChannels = selector.getOptionalChannels(event);
-    for (Channel optChannel : optionalChannels) {
-      Transaction tx = null;
+  /**
+   * Puts the event into each of its required channels.
+   */
+  private void putRequired(Event event) {
+    List<Channel> requiredChannels = selector.getRequiredChannels(event);
+    for (Channel reqChannel : requiredChannels) {
+      Transaction tx = reqChannel.getTransaction();
+      Preconditions.checkNotNull(tx, "Transaction object must not be null");
       try {
-        tx = optChannel.getTransaction();
         tx.begin();
 
-        optChannel.put(event);
+        reqChannel.put(event);
 
         tx.commit();
       } catch (Throwable t) {
         tx.rollback();
-        LOG.error("Unable to put event on optional channel: " + optChannel, t);
         if (t instanceof Error) {
+          LOG.error("Error while writing to required channel: " +
+              reqChannel, t);
           throw (Error) t;
+        } else {
+          throw new ChannelException("Unable to put event on required " +
+              "channel: " + reqChannel, t);
         }
       } finally {
         if (tx != null) {
@@ -25,6 +25,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.flume.Context;
@@ -75,6 +76,8 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       .getLogger(ReliableSpoolingFileEventReader.class);
 
   static final String metaFileName = ".flumespool-main.meta";
+  static final String inPlaceMetaFileName = ".flumespool-main.pos";
+  static final String indexFileSuffix = ".index";
 
   private final File spoolDirectory;
   private final String completedSuffix;
@@ -82,10 +85,26 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
   private final Context deserializerContext;
   private final Pattern ignorePattern;
   private final File metaFile;
+  /** Name of the meta file of reader 0, which the others derive theirs from */
+  private final String baseMetaFileName;
+  private final int readerCount;
   private final boolean annotateFileName;
   private final String fileNameHeader;
   private final String deletePolicy;
   private final Charset inputCharset;
+  private final TrackerType trackerType;
+  private final long trackerSyncInterval;
+  private final long mmapThreshold;
+  private final String compression;
+  private final long compressionCheckpointInterval;
+  private final Set<String> claimedFiles;
+  private final FileFilter candidateFilter;
+  private final SpoolDirectoryIndex index;
+  /**
+   * File the meta file tracked when this reader was built, claimed until it
+   * has been resumed; null once resumed or if there was none.
+   */
+  private String trackedPath;
 
   private Optional<FileInfo> currentFile = Optional.absent();
   /** Always contains the last file from which lines have been read. **/
@@ -99,7 +118,11 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       String completedSuffix, String ignorePattern, String trackerDirPath,
       boolean annotateFileName, String fileNameHeader,
       String deserializerType, Context deserializerContext,
-      String deletePolicy, String inputCharset) throws IOException {
+      String deletePolicy, String inputCharset, String trackerType,
+      long trackerSyncInterval, long mmapThreshold, String compression,
+      long compressionCheckpointInterval, int readerId, int readerCount,
+      Set<String> claimedFiles, boolean incrementalDiscovery,
+      long fullRescanInterval) throws IOException {
 
     // Sanity checks
     Preconditions.checkNotNull(spoolDirectory);
@@ -110,6 +133,11 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     Preconditions.checkNotNull(deserializerContext);
     Preconditions.checkNotNull(deletePolicy);
     Preconditions.checkNotNull(inputCharset);
+    Preconditions.checkNotNull(trackerType);
+    Preconditions.checkNotNull(compression);
+    Preconditions.checkNotNull(claimedFiles);
+    Preconditions.checkArgument(readerId >= 0 && readerId < readerCount,
+        "readerId must be between 0 and readerCount - 1");
 
     // validate delete policy
     if (!deletePolicy.equalsIgnoreCase(DeletePolicy.NEVER.name()) &&
@@ -153,6 +181,24 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     this.ignorePattern = Pattern.compile(ignorePattern);
     this.deletePolicy = deletePolicy;
     this.inputCharset = Charset.forName(inputCharset);
+    this.trackerType = TrackerType.valueOf(trackerType.toUpperCase());
+    this.trackerSyncInterval = trackerSyncInterval;
+    this.mmapThreshold = mmapThreshold;
+    this.compression = compression.toLowerCase();
+    this.compressionCheckpointInterval = compressionCheckpointInterval;
+    this.claimedFiles = claimedFiles;
+    if (!this.compression.equals("none") && !this.compression.equals("auto")) {
+      // fail fast on unknown codecs
+      CompressedFileInputStream.Codec.valueOf(this.compression.toUpperCase());
+    }
+
+    this.candidateFilter = newCandidateFilter();
+    if (incrementalDiscovery) {
+      this.index = new SpoolDirectoryIndex(spoolDirectory, candidateFilter,
+          fullRescanInterval);
+    } else {
+      this.index = null;
+    }
 
     File trackerDirectory = new File(trackerDirPath);
 
@@ -175,7 +221,26 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
           trackerDirectory);
     }
 
-    this.metaFile = new File(trackerDirectory, metaFileName);
+    this.baseMetaFileName = this.trackerType == TrackerType.INPLACE ?
+        inPlaceMetaFileName : metaFileName;
+    this.readerCount = readerCount;
+    this.metaFile = new File(trackerDirectory, readerMetaFileName(
+        baseMetaFileName, readerId));
+    if (!metaFile.exists()) {
+      adoptOrphanMetaFile();
+    }
+
+    // claim the half-read file before any reader sharing the directory
+    // starts, so that none of them picks it up from the beginning
+    String path = readTrackedPath();
+    if (path != null) {
+      if (claimedFiles.add(path)) {
+        this.trackedPath = path;
+      } else {
+        logger.warn("File {} tracked by {} is already claimed by another " +
+            "reader", path, metaFile);
+      }
+    }
   }
 
   /** Return the filename which generated the data from the last successful
@@ -245,8 +310,13 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
 
   @Override
   public void close() throws IOException {
+    if (trackedPath != null) {
+      claimedFiles.remove(trackedPath);
+      trackedPath = null;
+    }
     if (currentFile.isPresent()) {
       currentFile.get().getDeserializer().close();
+      claimedFiles.remove(currentFile.get().getFile().getPath());
       currentFile = Optional.absent();
     }
   }
@@ -295,6 +365,10 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       throw new IllegalArgumentException("Unsupported delete policy: " +
           deletePolicy);
     }
+    if (index != null) {
+      index.remove(fileToRoll);
+    }
+    claimedFiles.remove(currentFile.get().getFile().getPath());
   }
 
   /**
@@ -378,74 +452,275 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
   /**
    * Find and open the oldest file in the chosen directory. If two or more
    * files are equally old, the file name with lower lexicographical value is
-   * returned. If the directory is empty, this will return an absent option.
+   * returned. The file the meta file tracked when this reader was built,
+   * claimed by it since, is resumed before any other. Files claimed by
+   * other readers sharing the directory are skipped. With incremental
+   * discovery the candidates come from the {@link SpoolDirectoryIndex}
+   * rather than a fresh listing. If the directory is empty, this will
+   * return an absent option.
    */
   private Optional<FileInfo> getNextFile() {
-    /* Filter to exclude finished or hidden files */
-    FileFilter filter = new FileFilter() {
+    if (trackedPath != null) {
+      File trackedFile = new File(trackedPath);
+      trackedPath = null;
+      if (trackedFile.exists() && candidateFilter.accept(trackedFile)) {
+        return openClaimedFile(trackedFile);
+      }
+      claimedFiles.remove(trackedFile.getPath());
+    }
+
+    Iterable<File> candidateFiles;
+    if (index != null) {
+      index.refresh();
+      candidateFiles = index.files();
+    } else {
+      candidateFiles = listCandidateFiles();
+    }
+
+    for (File nextFile : candidateFiles) {
+      // another reader may have claimed it since we listed the directory
+      if (claimedFiles.add(nextFile.getPath())) {
+        return openClaimedFile(nextFile);
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Filter to exclude finished or hidden files. The name checks come first
+   * so that most rejected names cost no stat call.
+   */
+  private FileFilter newCandidateFilter() {
+    return new FileFilter() {
       public boolean accept(File candidate) {
         String fileName = candidate.getName();
-        if ((candidate.isDirectory()) ||
-            (fileName.endsWith(completedSuffix)) ||
+        if ((fileName.endsWith(completedSuffix)) ||
             (fileName.startsWith(".")) ||
-            ignorePattern.matcher(fileName).matches()) {
+            ignorePattern.matcher(fileName).matches() ||
+            (candidate.isDirectory())) {
           return false;
         }
         return true;
       }
     };
-    List<File> candidateFiles = Arrays.asList(spoolDirectory.listFiles(filter));
-    if (candidateFiles.isEmpty()) {
-      return Optional.absent();
-    } else {
-      Collections.sort(candidateFiles, new Comparator<File>() {
-        public int compare(File a, File b) {
-          int timeComparison = new Long(a.lastModified()).compareTo(
-              new Long(b.lastModified()));
-          if (timeComparison != 0) {
-            return timeComparison;
-          }
-          else {
-            return a.getName().compareTo(b.getName());
-          }
+  }
+
+  /**
+   * Open a file this reader has just claimed, dropping the claim if the
+   * file cannot be opened.
+   */
+  private Optional<FileInfo> openClaimedFile(File nextFile) {
+    Optional<FileInfo> fileInfo = openFile(nextFile);
+    if (!fileInfo.isPresent()) {
+      claimedFiles.remove(nextFile.getPath());
+      if (index != null && !nextFile.exists()) {
+        index.remove(nextFile);
+      }
+    }
+    return fileInfo;
+  }
+
+  /**
+   * @return the unclaimed candidate files in the spooling directory, oldest
+   * first
+   */
+  private List<File> listCandidateFiles() {
+    List<File> candidateFiles = new ArrayList<File>();
+    File[] files = spoolDirectory.listFiles(candidateFilter);
+    if (files == null) {
+      return candidateFiles;
+    }
+    for (File file : files) {
+      if (!claimedFiles.contains(file.getPath())) {
+        candidateFiles.add(file);
+      }
+    }
+
+    Collections.sort(candidateFiles, new Comparator<File>() {
+      public int compare(File a, File b) {
+        int timeComparison = new Long(a.lastModified()).compareTo(
+            new Long(b.lastModified()));
+        if (timeComparison != 0) {
+          return timeComparison;
+        }
+        else {
+          return a.getName().compareTo(b.getName());
         }
-      });
-      File nextFile = candidateFiles.get(0);
+      }
+    });
+
+    return candidateFiles;
+  }
+
+  private Optional<FileInfo> openFile(File nextFile) {
+    try {
+      // roll the meta file, if needed
+      String nextPath = nextFile.getPath();
+      PositionTracker tracker = openTracker(nextPath);
+      if (!tracker.getTarget().equals(nextPath)) {
+        tracker.close();
+        deleteMetaFile();
+        tracker = openTracker(nextPath);
+      }
+
+      // sanity check
+      Preconditions.checkState(tracker.getTarget().equals(nextPath),
+          "Tracker target %s does not equal expected filename %s",
+          tracker.getTarget(), nextPath);
+
+      ResettableInputStream in;
+      CompressedFileInputStream.Codec codec = getCodec(nextFile);
+      if (codec != null) {
+        in = new CompressedFileInputStream(nextFile, tracker, codec,
+            inputCharset, getIndexFile(), compressionCheckpointInterval);
+      } else if (mmapThreshold >= 0 && nextFile.length() >= mmapThreshold) {
+        in = new MappedFileInputStream(nextFile, tracker,
+            MappedFileInputStream.DEFAULT_REGION_SIZE, inputCharset);
+      } else {
+        in = new ResettableFileInputStream(nextFile, tracker,
+            ResettableFileInputStream.DEFAULT_BUF_SIZE, inputCharset);
+      }
+      EventDeserializer deserializer = EventDeserializerFactory.getInstance
+          (deserializerType, deserializerContext, in);
+
+      return Optional.of(new FileInfo(nextFile, deserializer));
+    } catch (FileNotFoundException e) {
+      // File could have been deleted in the interim
+      logger.warn("Could not find file: " + nextFile, e);
+      return Optional.absent();
+    } catch (IOException e) {
+      logger.error("Exception opening file: " + nextFile, e);
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * @return the path of the file the meta file holds a position for, or
+   * {@code null} if there is no meta file
+   */
+  private String readTrackedPath() {
+    if (!metaFile.exists()) {
+      return null;
+    }
+    try {
+      // the target stored in an existing meta file wins over the one given
+      PositionTracker tracker = openTracker("");
       try {
-        // roll the meta file, if needed
-        String nextPath = nextFile.getPath();
-        PositionTracker tracker =
-            DurablePositionTracker.getInstance(metaFile, nextPath);
-        if (!tracker.getTarget().equals(nextPath)) {
-          tracker.close();
-          deleteMetaFile();
-          tracker = DurablePositionTracker.getInstance(metaFile, nextPath);
+        return tracker.getTarget();
+      } finally {
+        tracker.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to read meta file " + metaFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Take over the meta file of a reader id at or above the reader count, left
+   * behind when there were more readers, so that the file it tracks is
+   * resumed rather than read again from its start. The rename is the claim,
+   * so that no two readers adopt the same meta file.
+   */
+  private void adoptOrphanMetaFile() throws IOException {
+    for (File orphan : getOrphanMetaFiles()) {
+      if (orphan.renameTo(metaFile)) {
+        File orphanIndex = new File(orphan.getPath() + indexFileSuffix);
+        if (orphanIndex.exists() && !orphanIndex.renameTo(getIndexFile())) {
+          throw new IOException("Unable to move index file " + orphanIndex +
+              " to " + getIndexFile());
         }
+        logger.info("Adopted meta file {} as {}", orphan, metaFile);
+        return;
+      }
+    }
+  }
 
-        // sanity check
-        Preconditions.checkState(tracker.getTarget().equals(nextPath),
-            "Tracker target %s does not equal expected filename %s",
-            tracker.getTarget(), nextPath);
-
-        ResettableInputStream in =
-            new ResettableFileInputStream(nextFile, tracker,
-                ResettableFileInputStream.DEFAULT_BUF_SIZE, inputCharset);
-        EventDeserializer deserializer = EventDeserializerFactory.getInstance
-            (deserializerType, deserializerContext, in);
-
-        return Optional.of(new FileInfo(nextFile, deserializer));
-      } catch (FileNotFoundException e) {
-        // File could have been deleted in the interim
-        logger.warn("Could not find file: " + nextFile, e);
-        return Optional.absent();
-      } catch (IOException e) {
-        logger.error("Exception opening file: " + nextFile, e);
-        return Optional.absent();
+  /**
+   * @return the meta files of reader ids at or above the reader count, left
+   * behind when there were more readers, lowest id first. Their files would
+   * be read again from the start, so no reader may start while any is left.
+   */
+  public List<File> getOrphanMetaFiles() {
+    SortedMap<Integer, File> orphans = new TreeMap<Integer, File>();
+    String[] names = metaFile.getParentFile().list();
+    if (names != null) {
+      for (String name : names) {
+        int id = readerIdOf(baseMetaFileName, name);
+        if (id >= readerCount) {
+          orphans.put(id, new File(metaFile.getParentFile(), name));
+        }
       }
     }
+    return new ArrayList<File>(orphans.values());
+  }
+
+  /**
+   * @return the id of the reader the meta file name belongs to, or -1 if it
+   * is not the name of a meta file
+   */
+  static int readerIdOf(String fileName, String name) {
+    if (name.equals(fileName)) {
+      return 0;
+    }
+    int dot = fileName.lastIndexOf('.');
+    String prefix = fileName.substring(0, dot) + "-";
+    String suffix = fileName.substring(dot);
+    if (!name.startsWith(prefix) || !name.endsWith(suffix) ||
+        name.length() <= prefix.length() + suffix.length()) {
+      return -1;
+    }
+    try {
+      int id = Integer.parseInt(name.substring(prefix.length(),
+          name.length() - suffix.length()));
+      return id > 0 ? id : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Each reader sharing a tracker directory gets its own meta file; the
+   * first one keeps the historical name.
+   */
+  static String readerMetaFileName(String fileName, int readerId) {
+    if (readerId == 0) {
+      return fileName;
+    }
+    int dot = fileName.lastIndexOf('.');
+    return fileName.substring(0, dot) + "-" + readerId +
+        fileName.substring(dot);
+  }
+
+  private PositionTracker openTracker(String target) throws IOException {
+    if (trackerType == TrackerType.INPLACE) {
+      return new InPlacePositionTracker(metaFile, target,
+          trackerSyncInterval);
+    } else {
+      return DurablePositionTracker.getInstance(metaFile, target);
+    }
+  }
+
+  private CompressedFileInputStream.Codec getCodec(File file) {
+    if (compression.equals("none")) {
+      return null;
+    } else if (compression.equals("auto")) {
+      return CompressedFileInputStream.Codec.forFileName(file.getName());
+    } else {
+      return CompressedFileInputStream.Codec.valueOf(
+          compression.toUpperCase());
+    }
+  }
+
+  private File getIndexFile() {
+    return new File(metaFile.getPath() + indexFileSuffix);
   }
 
   private void deleteMetaFile() throws IOException {
+    File indexFile = getIndexFile();
+    if (indexFile.exists() && !indexFile.delete()) {
+      throw new IOException("Unable to delete old index file " + indexFile);
+    }
     if (metaFile.exists() && !metaFile.delete()) {
       throw new IOException("Unable to delete old meta file " + metaFile);
     }
@@ -479,6 +754,13 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
     DELAY
   }
 
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  static enum TrackerType {
+    AVRO,
+    INPLACE
+  }
+
   /**
    * Special builder class for ReliableSpoolingFileEventReader
    */
@@ -501,6 +783,25 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
         SpoolDirectorySourceConfigurationConstants.DEFAULT_DELETE_POLICY;
     private String inputCharset =
         SpoolDirectorySourceConfigurationConstants.DEFAULT_INPUT_CHARSET;
+    private String trackerType =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_TRACKER_TYPE;
+    private long trackerSyncInterval =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_TRACKER_SYNC_INTERVAL;
+    private long mmapThreshold =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_MMAP_THRESHOLD;
+    private String compression =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_COMPRESSION;
+    private long compressionCheckpointInterval =
+        SpoolDirectorySourceConfigurationConstants
+            .DEFAULT_COMPRESSION_CHECKPOINT_INTERVAL;
+    private int readerId = 0;
+    private int readerCount = 1;
+    private Set<String> claimedFiles =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private boolean incrementalDiscovery =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_INCREMENTAL_DISCOVERY;
+    private long fullRescanInterval =
+        SpoolDirectorySourceConfigurationConstants.DEFAULT_FULL_RESCAN_INTERVAL;
 
     public Builder spoolDirectory(File directory) {
       this.spoolDirectory = directory;
@@ -552,10 +853,80 @@ public class ReliableSpoolingFileEventReader implements ReliableEventReader {
       return this;
     }
 
+    public Builder trackerType(String trackerType) {
+      this.trackerType = trackerType;
+      return this;
+    }
+
+    public Builder trackerSyncInterval(long trackerSyncInterval) {
+      this.trackerSyncInterval = trackerSyncInterval;
+      return this;
+    }
+
+    public Builder mmapThreshold(long mmapThreshold) {
+      this.mmapThreshold = mmapThreshold;
+      return this;
+    }
+
+    public Builder compression(String compression) {
+      this.compression = compression;
+      return this;
+    }
+
+    public Builder compressionCheckpointInterval(
+        long compressionCheckpointInterval) {
+      this.compressionCheckpointInterval = compressionCheckpointInterval;
+      return this;
+    }
+
+    /**
+     * Identifies this reader among readers sharing the spooling directory;
+     * each one keeps its own position tracker file.
+     */
+    public Builder readerId(int readerId) {
+      this.readerId = readerId;
+      return this;
+    }
+
+    /**
+     * Number of readers sharing the spooling directory. A reader without a
+     * meta file of its own adopts one left by a reader id at or above it.
+     */
+    public Builder readerCount(int readerCount) {
+      this.readerCount = readerCount;
+      return this;
+    }
+
+    /**
+     * Set of the files being read, shared by all readers of the spooling
+     * directory so that each file is read by only one of them.
+     */
+    public Builder claimedFiles(Set<String> claimedFiles) {
+      this.claimedFiles = claimedFiles;
+      return this;
+    }
+
+    /**
+     * Keep an index of the spooled files instead of listing and sorting the
+     * whole directory for every file.
+     */
+    public Builder incrementalDiscovery(boolean incrementalDiscovery) {
+      this.incrementalDiscovery = incrementalDiscovery;
+      return this;
+    }
+
+    public Builder fullRescanInterval(long fullRescanInterval) {
+      this.fullRescanInterval = fullRescanInterval;
+      return this;
+    }
+
     public ReliableSpoolingFileEventReader build() throws IOException {
       return new ReliableSpoolingFileEventReader(spoolDirectory, completedSuffix,
           ignorePattern, trackerDirPath, annotateFileName, fileNameHeader,
-          deserializerType, deserializerContext, deletePolicy, inputCharset);
+          deserializerType, deserializerContext, deletePolicy, inputCharset,
+          trackerType, trackerSyncInterval, mmapThreshold, compression,
+          compressionCheckpointInterval, readerId, readerCount, claimedFiles,
+          incrementalDiscovery, fullRescanInterval);
     }
   }
 
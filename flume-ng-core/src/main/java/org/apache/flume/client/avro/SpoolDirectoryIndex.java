@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.client.avro;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.flume.Clock;
+import org.apache.flume.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+
+/**
+ * Ordered, in-memory index of the files waiting in a spooling directory, so
+ * that the next file can be picked without listing, stat'ing and sorting
+ * the whole directory every time a file is finished.
+ * <p>
+ * Files are ordered by modification time, then name, as
+ * {@link ReliableSpoolingFileEventReader} has always picked them. The index
+ * is refreshed incrementally: if the directory's own modification time has
+ * not changed since the last refresh, no entries were added or removed and
+ * the directory is not read at all. Otherwise the directory is listed, but
+ * only new names are stat'ed and inserted, and vanished names are dropped.
+ * Names the filter rejected, such as completed or hidden files, are
+ * remembered and not checked again. Every {@code fullRescanInterval}
+ * milliseconds all entries are stat'ed and filtered again, as a safety net
+ * for changes the directory time does not reveal.
+ * <p>
+ * Not thread-safe; each reader keeps its own index.
+ */
+class SpoolDirectoryIndex {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(SpoolDirectoryIndex.class);
+
+  /**
+   * Coarsest directory timestamp resolution we expect (FAT has 2 seconds).
+   * A change within this window of the last refresh may not move the
+   * directory time, so the directory is listed anyway.
+   */
+  private static final long MTIME_RESOLUTION_MS = 2000L;
+
+  private final File directory;
+  private final FileFilter filter;
+  private final long fullRescanInterval;
+  private final Clock clock;
+
+  private final TreeSet<Entry> pending = new TreeSet<Entry>();
+  private final Map<String, Entry> byName = new HashMap<String, Entry>();
+  /** Listed names the filter rejected, until the next full rescan. */
+  private Set<String> rejected = new HashSet<String>();
+
+  private long lastDirModified = -1L;
+  private long lastRefresh = -1L;
+  private long lastFullRescan = -1L;
+
+  SpoolDirectoryIndex(File directory, FileFilter filter,
+      long fullRescanInterval) {
+    this(directory, filter, fullRescanInterval, new SystemClock());
+  }
+
+  @VisibleForTesting
+  SpoolDirectoryIndex(File directory, FileFilter filter,
+      long fullRescanInterval, Clock clock) {
+    this.directory = directory;
+    this.filter = filter;
+    this.fullRescanInterval = fullRescanInterval;
+    this.clock = clock;
+  }
+
+  /**
+   * Bring the index up to date with the directory.
+   */
+  void refresh() {
+    long now = clock.currentTimeMillis();
+    boolean full = lastFullRescan < 0 ||
+        now - lastFullRescan >= fullRescanInterval;
+    long dirModified = directory.lastModified();
+    if (!full && dirModified == lastDirModified &&
+        lastRefresh - dirModified > MTIME_RESOLUTION_MS) {
+      return;
+    }
+
+    String[] names = directory.list();
+    if (names == null) {
+      logger.warn("Unable to list spooling directory {}", directory);
+      return;
+    }
+
+    Set<String> listed = new HashSet<String>(names.length * 2);
+    Set<String> listedRejected = new HashSet<String>(rejected.size() * 2);
+    int added = 0;
+    for (String name : names) {
+      Entry existing = byName.get(name);
+      if (!full) {
+        if (existing != null) {
+          listed.add(name);
+          continue;
+        }
+        if (rejected.contains(name)) {
+          listedRejected.add(name);
+          continue;
+        }
+      }
+      File file = new File(directory, name);
+      if (!filter.accept(file)) {
+        if (existing != null) {
+          remove(existing);
+        }
+        listedRejected.add(name);
+        continue;
+      }
+      listed.add(name);
+      long lastModified = file.lastModified();
+      if (existing != null) {
+        if (existing.lastModified == lastModified) {
+          continue;
+        }
+        remove(existing);
+      }
+      Entry entry = new Entry(file, lastModified);
+      pending.add(entry);
+      byName.put(name, entry);
+      added++;
+    }
+
+    int removed = 0;
+    if (listed.size() < byName.size()) {
+      Iterator<Map.Entry<String, Entry>> it = byName.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Entry> e = it.next();
+        if (!listed.contains(e.getKey())) {
+          pending.remove(e.getValue());
+          it.remove();
+          removed++;
+        }
+      }
+    }
+
+    logger.debug("Refreshed index of {} (full={}): {} added, {} removed, " +
+        "{} pending", new Object[] { directory, full, added, removed,
+        pending.size() });
+
+    // vanished rejected names are forgotten as well
+    rejected = listedRejected;
+    lastDirModified = dirModified;
+    lastRefresh = now;
+    if (full) {
+      lastFullRescan = now;
+    }
+  }
+
+  /**
+   * @return pending files, oldest first
+   */
+  Iterable<File> files() {
+    return new Iterable<File>() {
+      @Override
+      public Iterator<File> iterator() {
+        return Iterators.transform(pending.iterator(),
+            new Function<Entry, File>() {
+              @Override
+              public File apply(Entry entry) {
+                return entry.file;
+              }
+            });
+      }
+    };
+  }
+
+  /**
+   * Drop a file that has been read and retired.
+   */
+  void remove(File file) {
+    Entry entry = byName.get(file.getName());
+    if (entry != null) {
+      remove(entry);
+    }
+  }
+
+  int size() {
+    return pending.size();
+  }
+
+  private void remove(Entry entry) {
+    pending.remove(entry);
+    byName.remove(entry.file.getName());
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    private final File file;
+    private final long lastModified;
+
+    Entry(File file, long lastModified) {
+      this.file = file;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if (lastModified != other.lastModified) {
+        return lastModified < other.lastModified ? -1 : 1;
+      }
+      return file.getName().compareTo(other.file.getName());
+    }
+  }
+
+}
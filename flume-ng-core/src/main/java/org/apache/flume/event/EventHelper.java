@@ -20,6 +20,9 @@
 package org.apache.flume.event;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import org.apache.commons.io.HexDump;
 import org.apache.flume.Event;
@@ -70,4 +73,21 @@ public class EventHelper {
     }
     return "{ headers:" + event.getHeaders() + " body:" + buffer + " }";
   }
+
+  /**
+   * Write the body of an event to a stream, straight from the backing array
+   * of a {@link BufferBackedEvent} rather than from a copy of it.
+   */
+  public static void writeBody(Event event, OutputStream out)
+      throws IOException {
+    if (event instanceof BufferBackedEvent) {
+      ByteBuffer body = ((BufferBackedEvent) event).getBodyBuffer();
+      if (body.hasArray()) {
+        out.write(body.array(), body.arrayOffset() + body.position(),
+            body.remaining());
+        return;
+      }
+    }
+    out.write(event.getBody());
+  }
 }
@@ -0,0 +1,478 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.input;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the reading progress of every file under a sync directory in a single
+ * append-only log, instead of a stats file next to each data file.
+ * <p>
+ * Each commit appends one record holding the path of the file relative to the
+ * sync directory, its committed position and whether it is completed. The log
+ * is replayed into memory when the store is opened, and a record torn by a
+ * crash is dropped. Once the log holds several times more records than there
+ * are files, it is compacted by writing a snapshot next to it and renaming
+ * the snapshot over it.
+ * <p>
+ * Every record carries a CRC32. On replay the log is cut at the first record
+ * that is incomplete or fails its checksum, so each file falls back to its
+ * last good position. Records are written to the OS on commit; how often
+ * they are forced to disk is set by {@code syncInterval} and
+ * {@code syncCommits}, and one fsync covers the commits of all files since
+ * the previous one.
+ */
+public class DirectorySyncCheckpointStore implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(
+      DirectorySyncCheckpointStore.class);
+  private static final int MAGIC = 0x46534350;
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+  private static final byte OP_POSITION = 1;
+  private static final byte OP_COMPLETED = 2;
+  /** Marks that the stats files were migrated, it names no file. */
+  private static final byte OP_MIGRATED = 3;
+  private static final int MIN_COMPACTION_RECORDS = 1024;
+  private static final int COMPACTION_RATIO = 4;
+
+  private final File directory;
+  /** Absolute path of the directory, ending with a separator. */
+  private final String directoryPrefix;
+  private final File file;
+  private final File snapshotFile;
+  private final Map<String, Long> positions = new HashMap<String, Long>();
+  private final Set<String> completed = new HashSet<String>();
+  private final ByteArrayOutputStream recordBuffer =
+      new ByteArrayOutputStream(256);
+  private final DataOutputStream record = new DataOutputStream(recordBuffer);
+  private FileOutputStream out;
+  private long records;
+  private boolean migrated;
+  private final CRC32 crc = new CRC32();
+  private final long syncInterval;
+  private final int syncCommits;
+  private int unsyncedCommits;
+  private long lastSync;
+  private long syncCount;
+
+  /**
+   * Open the store, replaying the log if it exists.
+   *
+   * @param directory the sync directory, which paths are relative to
+   * @param file      the log file
+   */
+  public DirectorySyncCheckpointStore(File directory, File file)
+      throws IOException {
+    this(directory, file, -1L, 0);
+  }
+
+  /**
+   * Open the store, replaying the log if it exists.
+   *
+   * @param directory    the sync directory, which paths are relative to
+   * @param file         the log file
+   * @param syncInterval milliseconds between fsyncs of the log while commits
+   *                     are pending. 0 syncs on every commit, a negative value
+   *                     leaves flushing to the OS unless {@code syncCommits}
+   *                     is set
+   * @param syncCommits  also fsync once this many commits are pending, 0 to
+   *                     sync on time only
+   */
+  public DirectorySyncCheckpointStore(File directory, File file,
+                                      long syncInterval, int syncCommits)
+      throws IOException {
+    Preconditions.checkNotNull(directory);
+    Preconditions.checkNotNull(file);
+    Preconditions.checkArgument(syncCommits >= 0,
+        "syncCommits must not be negative");
+    this.directory = directory;
+    String prefix = directory.getAbsolutePath();
+    this.directoryPrefix = prefix.endsWith(File.separator) ?
+        prefix : prefix + File.separator;
+    this.file = file;
+    this.snapshotFile = new File(file.getPath() + ".tmp");
+    this.syncInterval = syncInterval;
+    this.syncCommits = syncCommits;
+
+    long validLength = replay();
+    out = new FileOutputStream(file, true);
+    if (validLength < file.length()) {
+      logger.warn("checkpoint file '{}': dropping {} bytes of torn records",
+          file, file.length() - validLength);
+      out.getChannel().truncate(validLength);
+    }
+    if (validLength == 0) {
+      writeHeader(out);
+      out.flush();
+    }
+    lastSync = System.currentTimeMillis();
+  }
+
+  /**
+   * @return the key of a file, its path relative to the sync directory with
+   * '/' separators. Only the path is looked at, the disk is not.
+   */
+  public String keyOf(File dataFile) {
+    String path = dataFile.getAbsolutePath();
+    if (path.startsWith(directoryPrefix)) {
+      path = path.substring(directoryPrefix.length());
+    }
+    return File.separatorChar == '/' ?
+        path : path.replace(File.separatorChar, '/');
+  }
+
+  /** @return true if the file is the log itself or one of its snapshots */
+  public boolean isStoreFile(File f) {
+    File absolute = f.getAbsoluteFile();
+    return absolute.equals(file.getAbsoluteFile()) ||
+        absolute.equals(snapshotFile.getAbsoluteFile());
+  }
+
+  public synchronized boolean contains(String key) {
+    return positions.containsKey(key);
+  }
+
+  /** @return the committed position of the file, 0 if it is unknown */
+  public synchronized long getPosition(String key) {
+    Long position = positions.get(key);
+    return position == null ? 0 : position;
+  }
+
+  public synchronized boolean isCompleted(String key) {
+    return completed.contains(key);
+  }
+
+  public synchronized int size() {
+    return positions.size();
+  }
+
+  /**
+   * Record the committed position of a file with a single write. Nothing is
+   * written if neither the position nor the completion state changed.
+   */
+  public synchronized void commit(String key, long position,
+                                  boolean fileCompleted) throws IOException {
+    Long previous = positions.get(key);
+    if (previous != null && previous == position &&
+        fileCompleted == completed.contains(key)) {
+      return;
+    }
+    apply(fileCompleted ? OP_COMPLETED : OP_POSITION, key, position);
+
+    encodeRecord(fileCompleted ? OP_COMPLETED : OP_POSITION, key, position);
+    recordBuffer.writeTo(out);
+    records++;
+    unsyncedCommits++;
+
+    if (records > MIN_COMPACTION_RECORDS &&
+        records > COMPACTION_RATIO * (long) positions.size()) {
+      compact();
+    } else if (syncInterval == 0 ||
+        (syncCommits > 0 && unsyncedCommits >= syncCommits)) {
+      sync();
+    } else {
+      syncIfDue();
+    }
+  }
+
+  /**
+   * Force pending commits to disk if {@code syncInterval} has passed since
+   * the last fsync. Meant to be called on a timer, so that commits are synced
+   * even when no further commit comes.
+   */
+  public synchronized void syncIfDue() throws IOException {
+    if (syncInterval >= 0 && unsyncedCommits > 0 &&
+        System.currentTimeMillis() - lastSync >= syncInterval) {
+      sync();
+    }
+  }
+
+  /** Force pending commits to disk. */
+  public synchronized void sync() throws IOException {
+    if (unsyncedCommits == 0) {
+      return;
+    }
+    out.getFD().sync();
+    unsyncedCommits = 0;
+    lastSync = System.currentTimeMillis();
+    syncCount++;
+  }
+
+  /** @return the number of fsyncs of the log since it was opened */
+  public synchronized long getSyncCount() {
+    return syncCount;
+  }
+
+  /**
+   * Rewrite the log as one record per file. Completed files that have been
+   * removed from the sync directory are forgotten.
+   */
+  public synchronized void compact() throws IOException {
+    Iterator<String> it = completed.iterator();
+    while (it.hasNext()) {
+      String key = it.next();
+      if (!new File(directory, key).exists()) {
+        it.remove();
+        positions.remove(key);
+      }
+    }
+
+    FileOutputStream snapshotOut = new FileOutputStream(snapshotFile, false);
+    try {
+      DataOutputStream snapshot = new DataOutputStream(
+          new BufferedOutputStream(snapshotOut));
+      writeHeader(snapshot);
+      if (migrated) {
+        encodeRecord(OP_MIGRATED, "", 0);
+        recordBuffer.writeTo(snapshot);
+      }
+      for (Map.Entry<String, Long> entry : positions.entrySet()) {
+        String key = entry.getKey();
+        encodeRecord(completed.contains(key) ? OP_COMPLETED : OP_POSITION,
+            key, entry.getValue());
+        recordBuffer.writeTo(snapshot);
+      }
+      snapshot.flush();
+      snapshotOut.getFD().sync();
+    } finally {
+      snapshotOut.close();
+    }
+
+    out.close();
+    if (!snapshotFile.renameTo(file)) {
+      // renaming over an existing file fails on some platforms
+      if (!file.delete() || !snapshotFile.renameTo(file)) {
+        out = new FileOutputStream(file, true);
+        throw new IOException("cannot replace checkpoint file '" + file +
+            "' with '" + snapshotFile + "'");
+      }
+    }
+    out = new FileOutputStream(file, true);
+    records = positions.size() + (migrated ? 1 : 0);
+    // the snapshot was synced before it replaced the log
+    unsyncedCommits = 0;
+    lastSync = System.currentTimeMillis();
+    logger.debug("checkpoint file '{}': compacted to {} records", file,
+        records);
+  }
+
+  /**
+   * Import the stats files left by {@link ResumableFileLineReader}s that
+   * kept their progress next to each data file, and delete them once the
+   * store holds their positions. Files already known to the store keep their
+   * stored position. The log records that the migration is done, so the
+   * directory tree is only walked the first time.
+   *
+   * @return the number of stats files imported
+   */
+  public synchronized int migrateStatsFiles(String statsFilePrefix,
+                                            String statsFileSuffix,
+                                            String finishedStatsFileSuffix)
+      throws IOException {
+    if (migrated) {
+      return 0;
+    }
+    List<File> imported = Lists.newArrayList();
+    Iterator<File> files = FileUtils.iterateFiles(directory,
+        TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE);
+    while (files.hasNext()) {
+      File statsFile = files.next();
+      String name = statsFile.getName();
+      boolean fileCompleted;
+      String suffix;
+      if (name.endsWith(finishedStatsFileSuffix)) {
+        fileCompleted = true;
+        suffix = finishedStatsFileSuffix;
+      } else if (name.endsWith(statsFileSuffix)) {
+        fileCompleted = false;
+        suffix = statsFileSuffix;
+      } else {
+        continue;
+      }
+      if (!name.startsWith(statsFilePrefix) ||
+          name.length() <= statsFilePrefix.length() + suffix.length()) {
+        continue;
+      }
+      String key = keyOf(new File(statsFile.getParentFile(), name.substring(
+          statsFilePrefix.length(), name.length() - suffix.length())));
+
+      long position;
+      try {
+        position = Long.parseLong(
+            Files.toString(statsFile, Charsets.UTF_8).trim());
+      } catch (NumberFormatException e) {
+        logger.warn("stats file '{}' format error, not migrated", statsFile);
+        continue;
+      }
+      if (!positions.containsKey(key) || fileCompleted) {
+        commit(key, position, fileCompleted);
+      }
+      imported.add(statsFile);
+    }
+
+    migrated = true;
+    if (imported.isEmpty()) {
+      encodeRecord(OP_MIGRATED, "", 0);
+      recordBuffer.writeTo(out);
+      records++;
+      unsyncedCommits++;
+    } else {
+      compact();
+      for (File statsFile : imported) {
+        if (!statsFile.delete()) {
+          logger.warn("cannot delete migrated stats file '{}'", statsFile);
+        }
+      }
+      logger.info("checkpoint file '{}': migrated {} stats files", file,
+          imported.size());
+    }
+    return imported.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (syncInterval >= 0 || syncCommits > 0) {
+      sync();
+    }
+    out.close();
+  }
+
+  /** @return the length of the valid prefix of the log */
+  private long replay() throws IOException {
+    if (!file.exists() || file.length() < HEADER_LENGTH) {
+      return 0;
+    }
+    CountingInputStream counting = new CountingInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    DataInputStream in = new DataInputStream(counting);
+    long validLength = 0;
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("'" + file + "' is not a checkpoint file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("checkpoint file '" + file +
+            "' has unsupported version " + version);
+      }
+      validLength = counting.getCount();
+      try {
+        while (true) {
+          byte op = in.readByte();
+          String key = in.readUTF();
+          long position = in.readLong();
+          if (op != OP_POSITION && op != OP_COMPLETED && op != OP_MIGRATED) {
+            break;
+          }
+          if (in.readInt() != encode(op, key, position)) {
+            logger.warn("checkpoint file '{}': checksum mismatch at offset " +
+                "{}, rolling back to the last good records", file,
+                validLength);
+            break;
+          }
+          if (op == OP_MIGRATED) {
+            migrated = true;
+          } else {
+            apply(op, key, position);
+          }
+          records++;
+          validLength = counting.getCount();
+        }
+      } catch (EOFException e) {
+        // end of the log, possibly in the middle of a torn record
+      } catch (IOException e) {
+        // a torn record may not even decode, e.g. as a malformed key
+        logger.warn("checkpoint file '" + file + "': undecodable record at " +
+            "offset " + validLength + ", rolling back to the last good " +
+            "records", e);
+      }
+    } finally {
+      in.close();
+    }
+    logger.debug("checkpoint file '{}': replayed {} records for {} files",
+        new Object[] { file, records, positions.size() });
+    return validLength;
+  }
+
+  private void apply(byte op, String key, long position) {
+    positions.put(key, position);
+    if (op == OP_COMPLETED) {
+      completed.add(key);
+    } else {
+      completed.remove(key);
+    }
+  }
+
+  private static void writeHeader(OutputStream os) throws IOException {
+    DataOutputStream header = new DataOutputStream(os);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.flush();
+  }
+
+  /** Encode a record, followed by its checksum, into the record buffer. */
+  private void encodeRecord(byte op, String key, long position)
+      throws IOException {
+    int checksum = encode(op, key, position);
+    record.writeInt(checksum);
+    record.flush();
+  }
+
+  /**
+   * Encode the fields of a record into the record buffer.
+   *
+   * @return the CRC32 of the encoded fields
+   */
+  private int encode(byte op, String key, long position) throws IOException {
+    recordBuffer.reset();
+    record.writeByte(op);
+    record.writeUTF(key);
+    record.writeLong(position);
+    record.flush();
+    crc.reset();
+    crc.update(recordBuffer.toByteArray());
+    return (int) crc.getValue();
+  }
+}
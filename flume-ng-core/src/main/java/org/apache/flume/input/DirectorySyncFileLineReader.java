@@ -24,15 +24,20 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.flume.FlumeException;
+import org.apache.flume.source.DirectorySyncSourceConfigurationConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 
 /**
  * A {@link org.apache.flume.client.avro.LineReader} which reads log data from
@@ -50,10 +55,25 @@ public class DirectorySyncFileLineReader {
   private String statsFilePrefix;
   private String statsFileSuffix;
   private String finishedStatsFileSuffix;
-  private Iterator<File> filesIterator;
+  private int shard;
+  private int shardCount;
+  private DirectorySyncCheckpointStore checkpointStore;
+  private IOFileFilter candidateFilter;
+  /** Catalogue of the directory tree, null to walk the whole tree instead. */
+  private DirectorySyncIndex index;
+  private int followFiles;
+  private long discoveryInterval;
+  private long lastDiscovery = -1L;
+  /** Open readers of growing files, least recently active first. */
+  private final LinkedHashMap<File, ResumableFileLineReader> followed =
+      new LinkedHashMap<File, ResumableFileLineReader>(16, 0.75f, true);
+  /** Files of the current discovery pass, not reached yet past the cursor. */
+  private List<File> passFiles;
+  private ListIterator<File> filesIterator;
   private Optional<ResumableFileLineReader> currentFile = Optional.absent();
   /** Always contains the last file from which lines have been read. * */
   private Optional<ResumableFileLineReader> lastFileRead = Optional.absent();
+  private long lastReadOffset = 0;
   private boolean committed = true;
   /** A flag to signal an un-recoverable error has occurred. */
   private boolean disabled = false;
@@ -71,6 +91,64 @@ public class DirectorySyncFileLineReader {
                                      final String statsFilePrefix,
                                      final String statsFileSuffix,
                                      final String finishedStatsFileSuffix) {
+    this(directory, endFileSuffix, statsFilePrefix, statsFileSuffix,
+        finishedStatsFileSuffix, 0, 1);
+  }
+
+  /**
+   * Create a DirectorySyncFileLineReader that only reads its own shard of the
+   * files in the given syncDirectory. Files are assigned to shards by the hash
+   * of their path, so readers created with the same shardCount and different
+   * shard numbers never read the same file.
+   *
+   * @param shard      The shard read by this reader, from 0 to shardCount - 1
+   * @param shardCount The number of readers sharing the syncDirectory
+   */
+  public DirectorySyncFileLineReader(File directory,
+                                     final String endFileSuffix,
+                                     final String statsFilePrefix,
+                                     final String statsFileSuffix,
+                                     final String finishedStatsFileSuffix,
+                                     int shard, int shardCount) {
+    this(directory, endFileSuffix, statsFilePrefix, statsFileSuffix,
+        finishedStatsFileSuffix, shard, shardCount, null);
+  }
+
+  /**
+   * Create a DirectorySyncFileLineReader that keeps the progress of its files
+   * in the given checkpoint store, shared by all the readers of the
+   * syncDirectory. No stats files are written when a store is given.
+   *
+   * @param checkpointStore The store of file positions, or null to keep them
+   *                        in a stats file next to each file
+   */
+  public DirectorySyncFileLineReader(File directory,
+                                     final String endFileSuffix,
+                                     final String statsFilePrefix,
+                                     final String statsFileSuffix,
+                                     final String finishedStatsFileSuffix,
+                                     int shard, int shardCount,
+                                     DirectorySyncCheckpointStore checkpointStore) {
+    this(directory, endFileSuffix, statsFilePrefix, statsFileSuffix,
+        finishedStatsFileSuffix, shard, shardCount, checkpointStore, false, 0L,
+        0, 0L);
+  }
+
+  private DirectorySyncFileLineReader(File directory,
+                                      String endFileSuffix,
+                                      String statsFilePrefix,
+                                      String statsFileSuffix,
+                                      String finishedStatsFileSuffix,
+                                      int shard, int shardCount,
+                                      DirectorySyncCheckpointStore checkpointStore,
+                                      boolean incrementalDiscovery,
+                                      long fullRescanInterval,
+                                      int followFiles,
+                                      long discoveryInterval) {
+    Preconditions.checkArgument(shardCount > 0,
+        "shardCount must be greater than 0");
+    Preconditions.checkArgument(shard >= 0 && shard < shardCount,
+        "shard must be between 0 and " + (shardCount - 1));
     // Verify syncDirectory exists and is readable/writable
     Preconditions.checkNotNull(directory);
     Preconditions.checkState(directory.exists(),
@@ -93,6 +171,16 @@ public class DirectorySyncFileLineReader {
     this.statsFilePrefix = statsFilePrefix;
     this.statsFileSuffix = statsFileSuffix;
     this.finishedStatsFileSuffix = finishedStatsFileSuffix;
+    this.shard = shard;
+    this.shardCount = shardCount;
+    this.checkpointStore = checkpointStore;
+    this.candidateFilter = newCandidateFilter();
+    this.followFiles = followFiles;
+    this.discoveryInterval = discoveryInterval;
+    if (incrementalDiscovery) {
+      index = new DirectorySyncIndex(directory, candidateFilter, endFileSuffix,
+          fullRescanInterval);
+    }
   }
 
   /**
@@ -107,6 +195,68 @@ public class DirectorySyncFileLineReader {
     return lastFileRead.get().getFile();
   }
 
+  /**
+   * Measure how far behind this reader is, over every file of its shard it
+   * knows of: the file being read, the followed files, and the files of the
+   * current discovery pass that are still waiting, whose committed position
+   * comes from the checkpoint store or their stats file. Files that vanished
+   * are not counted.
+   */
+  public SyncLag measureSyncLag() {
+    long maxLag = 0;
+    int laggingFiles = 0;
+    List<ResumableFileLineReader> open =
+        new ArrayList<ResumableFileLineReader>(followed.values());
+    if (currentFile.isPresent()) {
+      open.add(currentFile.get());
+    }
+    for (ResumableFileLineReader file : open) {
+      long lag = file.getFile().length() - file.getCommittedPosition();
+      if (lag > 0) {
+        maxLag = Math.max(maxLag, lag);
+        laggingFiles++;
+      }
+    }
+    if (null != filesIterator) {
+      for (File file : passFiles.subList(filesIterator.nextIndex(),
+          passFiles.size())) {
+        if (followed.containsKey(file)) {
+          continue;
+        }
+        long lag = file.length() - getCommittedPosition(file);
+        if (lag > 0) {
+          maxLag = Math.max(maxLag, lag);
+          laggingFiles++;
+        }
+      }
+    }
+    return new SyncLag(maxLag, laggingFiles);
+  }
+
+  /** @return the committed position of a file that is not open */
+  private long getCommittedPosition(File file) {
+    if (null != checkpointStore) {
+      return checkpointStore.getPosition(checkpointStore.keyOf(file));
+    }
+    File statsFile = new File(file.getParentFile(),
+        statsFilePrefix + file.getName() + statsFileSuffix);
+    try {
+      String line = Files.readFirstLine(statsFile, Charset.defaultCharset());
+      return null == line ? 0 : Long.parseLong(line.trim());
+    } catch (IOException e) {
+      // no stats file yet
+      return 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** @return true if the file belongs to the shard of this reader */
+  private boolean ownsFile(File file) {
+    return shardCount == 1 ||
+        (file.getPath().hashCode() & Integer.MAX_VALUE) % shardCount == shard;
+  }
+
   /** Commit the last lines which were read. */
   public void commit() throws IOException {
     if (disabled) {
@@ -128,6 +278,36 @@ public class DirectorySyncFileLineReader {
   }
 
   public List<byte[]> readLines(int n) {
+    return read(n, 0);
+  }
+
+  /**
+   * Read up to {@code n} consecutive byte ranges of at most {@code blockSize}
+   * bytes each from one file, for syncing files by block rather than by line.
+   * The first range starts at {@link #getLastReadOffset()}. Lines and blocks
+   * are not to be mixed on the same reader.
+   */
+  public List<byte[]> readBlocks(int n, int blockSize) {
+    Preconditions.checkArgument(blockSize > 0,
+        "blockSize must be greater than 0");
+    return read(n, blockSize);
+  }
+
+  /**
+   * Return the file offset of the first line or block returned by the last
+   * successful {@link #readLines(int)} or {@link #readBlocks(int, int)} call.
+   */
+  public long getLastReadOffset() {
+    return lastReadOffset;
+  }
+
+  /** @return the next line, or the next block if blockSize is positive */
+  private static byte[] readNext(ResumableFileLineReader file, int blockSize)
+      throws IOException {
+    return blockSize > 0 ? file.readBlock(blockSize) : file.readLine();
+  }
+
+  private List<byte[]> read(int n, int blockSize) {
     //if (disabled) {
     //  throw new IllegalStateException("Reader has been disabled.");
     //}
@@ -154,7 +334,7 @@ public class DirectorySyncFileLineReader {
 
       // Check if new files have arrived since last call
       if (!currentFile.isPresent()) {
-        currentFile = getNextFile();
+        currentFile = nextFile();
       }
       // Return empty list if no new files
       if (!currentFile.isPresent()) {
@@ -164,12 +344,14 @@ public class DirectorySyncFileLineReader {
     /* It's possible that the last read took us just up to a file boundary.
      * If so, try to roll to the next file, if there is one. */
       byte[] outLine;
-      while ((outLine = currentFile.get().readLine()) == null) {
+      long offset = currentFile.get().getPosition();
+      while ((outLine = readNext(currentFile.get(), blockSize)) == null) {
         retireCurrentFile();
-        currentFile = getNextFile();
+        currentFile = nextFile();
         if (!currentFile.isPresent()) {
           return Collections.emptyList();
         }
+        offset = currentFile.get().getPosition();
       }
       List<byte[]> out = Lists.newArrayList();
       while (outLine != null) {
@@ -177,11 +359,12 @@ public class DirectorySyncFileLineReader {
         if (out.size() == n) {
           break;
         }
-        outLine = currentFile.get().readLine();
+        outLine = readNext(currentFile.get(), blockSize);
       }
 
       committed = false;
       lastFileRead = currentFile;
+      lastReadOffset = offset;
       return out;
     } catch (IOException ioe) {
       // something wrong with the file(s), skip over to next
@@ -202,9 +385,18 @@ public class DirectorySyncFileLineReader {
   private void retireCurrentFile() throws IOException {
     Preconditions.checkState(currentFile.isPresent());
 
-    logger.debug("file '{}': retiring...", currentFile.get().getFile());
-    currentFile.get().commit();
-    currentFile.get().close();
+    ResumableFileLineReader file = currentFile.get();
+    logger.debug("file '{}': retiring...", file.getFile());
+    file.commit();
+    if (followFiles > 0 && !file.isFinished()) {
+      follow(file);
+    } else {
+      file.close();
+    }
+    if (null != index) {
+      index.drained(file.getFile(), file.getCommittedPosition(),
+          file.isFileEnded(), file.isFinished());
+    }
   }
 
   public void close() {
@@ -214,6 +406,68 @@ public class DirectorySyncFileLineReader {
     } catch (IOException ioe) {
       currentFile = Optional.absent();
     }
+    for (ResumableFileLineReader file : followed.values()) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        logger.warn("Error closing followed file " + file.getFile(), e);
+      }
+    }
+    followed.clear();
+  }
+
+  /**
+   * Keep a drained file open to read its next lines as soon as they are
+   * written, closing the least recently active followed file if there are
+   * too many.
+   */
+  private void follow(ResumableFileLineReader file) throws IOException {
+    if (followed.size() >= followFiles) {
+      Iterator<ResumableFileLineReader> eldest = followed.values().iterator();
+      ResumableFileLineReader evicted = eldest.next();
+      eldest.remove();
+      logger.debug("file '{}': no longer followed", evicted.getFile());
+      evicted.close();
+    }
+    followed.put(file.getFile(), file);
+  }
+
+  /**
+   * @return a followed file that has grown or ended, else the next file in
+   * the directory. A followed file whose path now names a new file, as
+   * after a log rotation, is closed so that the walk opens the new one.
+   */
+  private Optional<ResumableFileLineReader> nextFile() throws IOException {
+    Iterator<Map.Entry<File, ResumableFileLineReader>> it =
+        followed.entrySet().iterator();
+    while (it.hasNext()) {
+      ResumableFileLineReader file = it.next().getValue();
+      boolean ended = !file.isFileEnded() && isEnded(file.getFile());
+      if (ended) {
+        file.setFileEnded(true);
+      }
+      if (file.resume() || ended) {
+        it.remove();
+        return Optional.of(file);
+      }
+      if (file.isReplaced()) {
+        logger.info("file '{}': replaced, reading the new file from its " +
+            "start", file.getFile());
+        it.remove();
+        file.releaseReplaced();
+        if (null != index) {
+          index.drained(file.getFile(), 0, false, false);
+        }
+      }
+    }
+    return getNextFile();
+  }
+
+  private boolean isEnded(File file) {
+    if (null != index) {
+      return index.isEnded(file);
+    }
+    return new File(file.getPath() + endFileSuffix).exists();
   }
 
   /**
@@ -224,49 +478,190 @@ public class DirectorySyncFileLineReader {
   private Optional<ResumableFileLineReader> getNextFile() {
     if (null != filesIterator && !filesIterator.hasNext()) {
       filesIterator = null;
+      passFiles = null;
       return Optional.absent();
     }
     if (null == filesIterator) {
-      filesIterator = FileUtils.iterateFiles(directory, new IOFileFilter() {
-        @Override
-        public boolean accept(File file) {
-          if (!file.exists()) return false; // skip non-exist files in iterator
-          if (file.isFile()) {
-            String fileStr = file.getName();
-            if (!(fileStr.endsWith(endFileSuffix) ||
-                fileStr.endsWith(statsFileSuffix) ||
-                fileStr.endsWith(finishedStatsFileSuffix))) {
-              File finishedMarkFile = new File(file.getPath() + finishedStatsFileSuffix);
-              if (!finishedMarkFile.exists())
-                return true;
-            }
-          }
-          return false;
-        }
-
-        @Override
-        public boolean accept(File dir, String name) {
-          return false;
-        }
-      }, TrueFileFilter.INSTANCE);
+      long now = System.currentTimeMillis();
+      if (discoveryInterval > 0 && lastDiscovery >= 0 &&
+          now - lastDiscovery < discoveryInterval) {
+        return Optional.absent();
+      }
+      lastDiscovery = now;
+      if (null != index) {
+        passFiles = index.refresh();
+      } else {
+        passFiles = new ArrayList<File>(FileUtils.listFiles(directory,
+            candidateFilter, TrueFileFilter.INSTANCE));
+      }
+      filesIterator = passFiles.listIterator();
     }
 
     File nextFile;
     boolean fileEnded;
-    if (!filesIterator.hasNext())
-      return Optional.absent();
     /* checking file's reading progress, skip if needed */
-    nextFile = filesIterator.next();
+    do {
+      if (!filesIterator.hasNext())
+        return Optional.absent();
+      nextFile = filesIterator.next();
+      // followed files are already open
+    } while (followed.containsKey(nextFile));
     logger.debug("treating next file: {}", nextFile);
-    fileEnded = new File(nextFile.getPath() + endFileSuffix).exists();
+    fileEnded = isEnded(nextFile);
     logger.debug("file {} marked as ended", nextFile);
     try {
-      ResumableFileLineReader file = new ResumableFileLineReader(nextFile, fileEnded,
-          statsFilePrefix, statsFileSuffix, finishedStatsFileSuffix);
+      ResumableFileLineReader file = null != checkpointStore ?
+          new ResumableFileLineReader(nextFile, fileEnded, checkpointStore) :
+          new ResumableFileLineReader(nextFile, fileEnded,
+              statsFilePrefix, statsFileSuffix, finishedStatsFileSuffix);
+      file.setFollow(followFiles > 0);
       return Optional.of(file);
     } catch (IOException e) {
       logger.error("Exception opening file: " + nextFile, e);
       return Optional.absent();
     }
   }
+
+  private IOFileFilter newCandidateFilter() {
+    return new IOFileFilter() {
+      @Override
+      public boolean accept(File file) {
+        // files of other shards are rejected without touching the disk
+        if (!ownsFile(file)) return false;
+        if (!file.exists()) return false; // skip non-exist files in iterator
+        if (file.isFile()) {
+          String fileStr = file.getName();
+          if (!(fileStr.endsWith(endFileSuffix) ||
+              fileStr.endsWith(statsFileSuffix) ||
+              fileStr.endsWith(finishedStatsFileSuffix))) {
+            if (null != checkpointStore) {
+              // completion is looked up in memory instead of on disk
+              return !checkpointStore.isStoreFile(file) &&
+                  !checkpointStore.isCompleted(checkpointStore.keyOf(file));
+            }
+            File finishedMarkFile = new File(file.getParentFile(),
+                statsFilePrefix + fileStr + finishedStatsFileSuffix);
+            if (!finishedMarkFile.exists())
+              return true;
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return false;
+      }
+    };
+  }
+
+  /** How far a reader is behind the files of its shard. */
+  public static final class SyncLag {
+    private final long maxLag;
+    private final int laggingFiles;
+
+    SyncLag(long maxLag, int laggingFiles) {
+      this.maxLag = maxLag;
+      this.laggingFiles = laggingFiles;
+    }
+
+    /** @return the bytes not synced yet of the file furthest behind */
+    public long getMaxLag() {
+      return maxLag;
+    }
+
+    /** @return the number of files with bytes not synced yet */
+    public int getLaggingFiles() {
+      return laggingFiles;
+    }
+  }
+
+  public static class Builder {
+    private File directory;
+    private String endFileSuffix =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_END_FILE_SUFFIX;
+    private String statsFilePrefix =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_STATS_FILE_PREFIX;
+    private String statsFileSuffix =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_SYNCING_STATS_FILE_SUFFIX;
+    private String finishedStatsFileSuffix =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_SYNCED_STATS_FILE_SUFFIX;
+    private int shard = 0;
+    private int shardCount = 1;
+    private DirectorySyncCheckpointStore checkpointStore = null;
+    private boolean incrementalDiscovery =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_INCREMENTAL_DISCOVERY;
+    private long fullRescanInterval =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_FULL_RESCAN_INTERVAL;
+    private int followFiles =
+        DirectorySyncSourceConfigurationConstants.DEFAULT_FOLLOW_FILES;
+    private long discoveryInterval = 0L;
+
+    public Builder directory(File directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    public Builder endFileSuffix(String endFileSuffix) {
+      this.endFileSuffix = endFileSuffix;
+      return this;
+    }
+
+    public Builder statsFilePrefix(String statsFilePrefix) {
+      this.statsFilePrefix = statsFilePrefix;
+      return this;
+    }
+
+    public Builder statsFileSuffix(String statsFileSuffix) {
+      this.statsFileSuffix = statsFileSuffix;
+      return this;
+    }
+
+    public Builder finishedStatsFileSuffix(String finishedStatsFileSuffix) {
+      this.finishedStatsFileSuffix = finishedStatsFileSuffix;
+      return this;
+    }
+
+    public Builder shard(int shard, int shardCount) {
+      this.shard = shard;
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    public Builder checkpointStore(DirectorySyncCheckpointStore checkpointStore) {
+      this.checkpointStore = checkpointStore;
+      return this;
+    }
+
+    public Builder incrementalDiscovery(boolean incrementalDiscovery) {
+      this.incrementalDiscovery = incrementalDiscovery;
+      return this;
+    }
+
+    public Builder fullRescanInterval(long fullRescanInterval) {
+      this.fullRescanInterval = fullRescanInterval;
+      return this;
+    }
+
+    public Builder followFiles(int followFiles) {
+      this.followFiles = followFiles;
+      return this;
+    }
+
+    /**
+     * Minimum milliseconds between two walks of the directory, so that
+     * followed files can be polled more often than the directory is.
+     */
+    public Builder discoveryInterval(long discoveryInterval) {
+      this.discoveryInterval = discoveryInterval;
+      return this;
+    }
+
+    public DirectorySyncFileLineReader build() {
+      return new DirectorySyncFileLineReader(directory, endFileSuffix,
+          statsFilePrefix, statsFileSuffix, finishedStatsFileSuffix,
+          shard, shardCount, checkpointStore, incrementalDiscovery,
+          fullRescanInterval, followFiles, discoveryInterval);
+    }
+  }
 }
@@ -0,0 +1,238 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.input;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.apache.flume.Clock;
+import org.apache.flume.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory catalogue of the files under a sync directory tree, so that
+ * {@link DirectorySyncFileLineReader} does not walk and stat the whole tree
+ * every time it runs out of files.
+ * <p>
+ * A directory is listed again only when its own modification time changed,
+ * which is when entries were added, removed or renamed in it; other
+ * directories cost a single stat. Only new names are passed through the
+ * candidate filter, and a file whose completion or end mark is known is not
+ * looked at again. A file is offered for reading when it is new, when it
+ * has grown or shrunk since it was last drained, or when its end mark
+ * appeared. Every {@code fullRescanInterval} milliseconds all names are
+ * filtered again, as a safety net for changes the directory times do not
+ * reveal.
+ * <p>
+ * Not thread-safe; each reader keeps its own index.
+ */
+class DirectorySyncIndex {
+  private static final Logger logger = LoggerFactory.getLogger(
+      DirectorySyncIndex.class);
+
+  /**
+   * Coarsest directory timestamp resolution we expect (FAT has 2 seconds).
+   * A change within this window of the last refresh may not move the
+   * directory time, so the directory is listed anyway.
+   */
+  private static final long MTIME_RESOLUTION_MS = 2000L;
+
+  private final File root;
+  private final FileFilter filter;
+  private final String endFileSuffix;
+  private final long fullRescanInterval;
+  private final Clock clock;
+
+  private final Map<File, DirEntry> dirs = new HashMap<File, DirEntry>();
+  private long lastFullRescan = -1L;
+
+  DirectorySyncIndex(File root, FileFilter filter, String endFileSuffix,
+                     long fullRescanInterval) {
+    this(root, filter, endFileSuffix, fullRescanInterval, new SystemClock());
+  }
+
+  @VisibleForTesting
+  DirectorySyncIndex(File root, FileFilter filter, String endFileSuffix,
+                     long fullRescanInterval, Clock clock) {
+    this.root = root;
+    this.filter = filter;
+    this.endFileSuffix = endFileSuffix;
+    this.fullRescanInterval = fullRescanInterval;
+    this.clock = clock;
+  }
+
+  /**
+   * Bring the index up to date with the directory tree.
+   *
+   * @return the files that may have something to read
+   */
+  List<File> refresh() {
+    long now = clock.currentTimeMillis();
+    boolean full = lastFullRescan < 0 ||
+        now - lastFullRescan >= fullRescanInterval;
+    List<File> candidates = Lists.newArrayList();
+    refreshDirectory(root, now, full, candidates);
+    if (full) {
+      lastFullRescan = now;
+    }
+    logger.debug("Refreshed index of {} (full={}): {} directories, {} " +
+        "candidates", new Object[] { root, full, dirs.size(),
+        candidates.size() });
+    return candidates;
+  }
+
+  /**
+   * @return true if the end mark of the file was present when its directory
+   * was last listed
+   */
+  boolean isEnded(File file) {
+    FileEntry entry = entryOf(file);
+    return entry != null && entry.ended;
+  }
+
+  /**
+   * Record that a file was read up to {@code position}, so that it is not
+   * offered again until it changes. A completed file is never offered again.
+   */
+  void drained(File file, long position, boolean ended, boolean completed) {
+    FileEntry entry = entryOf(file);
+    if (entry == null) {
+      return;
+    }
+    if (completed) {
+      entry.ignored = true;
+    } else {
+      entry.drainedLength = position;
+      entry.drainedEnded = ended;
+    }
+  }
+
+  private FileEntry entryOf(File file) {
+    DirEntry dir = dirs.get(file.getParentFile());
+    return dir == null ? null : dir.files.get(file.getName());
+  }
+
+  private void refreshDirectory(File dir, long now, boolean full,
+                                List<File> candidates) {
+    DirEntry entry = dirs.get(dir);
+    if (entry == null) {
+      entry = new DirEntry();
+      dirs.put(dir, entry);
+    }
+    long modified = dir.lastModified();
+    if (full || modified != entry.lastModified ||
+        entry.lastRefresh - modified <= MTIME_RESOLUTION_MS) {
+      String[] names = dir.list();
+      if (names == null) {
+        logger.warn("Unable to list directory {}", dir);
+        forget(dir);
+        return;
+      }
+      relist(dir, entry, names, full);
+      entry.lastModified = modified;
+      entry.lastRefresh = now;
+    }
+
+    for (FileEntry file : entry.files.values()) {
+      if (!file.ignored && file.isCandidate()) {
+        candidates.add(file.file);
+      }
+    }
+    for (File subdir : entry.subdirs) {
+      refreshDirectory(subdir, now, full, candidates);
+    }
+  }
+
+  private void relist(File dir, DirEntry entry, String[] names,
+                      boolean full) {
+    Set<String> listed = new HashSet<String>(Arrays.asList(names));
+    Map<String, FileEntry> files =
+        new LinkedHashMap<String, FileEntry>(names.length * 2);
+    Set<File> subdirs = new HashSet<File>();
+    for (String name : names) {
+      FileEntry existing = entry.files.get(name);
+      File file = existing != null ? existing.file : new File(dir, name);
+      if (existing == null &&
+          (entry.subdirs.contains(file) || file.isDirectory())) {
+        subdirs.add(file);
+        continue;
+      }
+      FileEntry fileEntry = existing != null ? existing : new FileEntry(file);
+      if (existing == null || full) {
+        fileEntry.ignored = !filter.accept(file);
+      }
+      fileEntry.ended = listed.contains(name + endFileSuffix);
+      files.put(name, fileEntry);
+    }
+
+    for (File subdir : entry.subdirs) {
+      if (!subdirs.contains(subdir)) {
+        forget(subdir);
+      }
+    }
+    entry.files = files;
+    entry.subdirs = subdirs;
+  }
+
+  /** Drop a directory and everything under it. */
+  private void forget(File dir) {
+    String prefix = dir.getPath() + File.separator;
+    Iterator<File> it = dirs.keySet().iterator();
+    while (it.hasNext()) {
+      File known = it.next();
+      if (known.equals(dir) || known.getPath().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  private static class DirEntry {
+    private long lastModified = -1L;
+    private long lastRefresh = -1L;
+    private Map<String, FileEntry> files = new HashMap<String, FileEntry>();
+    private Set<File> subdirs = new HashSet<File>();
+  }
+
+  private static class FileEntry {
+    private final File file;
+    /** Rejected by the filter, or completed. */
+    private boolean ignored;
+    private boolean ended;
+    private long drainedLength = -1L;
+    private boolean drainedEnded;
+
+    FileEntry(File file) {
+      this.file = file;
+    }
+
+    boolean isCandidate() {
+      return drainedLength < 0 || (ended && !drainedEnded) ||
+          file.length() != drainedLength;
+    }
+  }
+}
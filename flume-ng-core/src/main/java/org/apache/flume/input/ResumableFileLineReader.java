@@ -16,11 +16,11 @@
 
 package org.apache.flume.input;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -29,24 +29,33 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /** A class with information about a file being processed. */
 public class ResumableFileLineReader {
   private static final Logger logger = LoggerFactory.getLogger(ResumableFileLineReader
       .class);
+  private static final int BUFFER_SIZE = 128 * 1024;
+  private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+  private static final long CR_BYTES = 0x0D0D0D0D0D0D0D0DL;
+  private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
   private File file;
   private FileChannel ch;
   private ByteBuffer bb;
-  private ByteArrayOutputStream lineOut;
-  private boolean skipLF;
   private boolean fileEnded;
   private File statsFile;
   private File finishedStatsFile;
   private FileOutputStream statsFileOut;
+  private DirectorySyncCheckpointStore checkpointStore;
+  private String checkpointKey;
   private long markedPosition = 0;
   private long readingPosition = 0;
   private boolean eof = false;
+  /** Channel position at which the end of the file was last met. */
+  private long eofPosition = -1;
+  /** Hold back an unterminated last line while the file is not ended. */
+  private boolean follow = false;
   private boolean finished = false;
   private boolean damaged = false;
 
@@ -69,8 +78,6 @@ public class ResumableFileLineReader {
     if (file.isDirectory())
       throw new IOException("file '" + file + "' is a directory");
     ch = new FileInputStream(file).getChannel();
-    lineOut = new ByteArrayOutputStream(200);
-    this.skipLF = false;
     this.fileEnded = fileEnded;
 
     /* stats file */
@@ -81,6 +88,37 @@ public class ResumableFileLineReader {
     retrieveStats();
   }
 
+  /**
+   * @param file            to read
+   * @param fileEnded       hinted by caller, if true, then this file should be
+   *                        treated as ended, no more reading after this batch.
+   *                        if false, always reading from this file
+   * @param checkpointStore where the position of this file is kept, instead of
+   *                        a stats file of its own
+   * @throws IOException
+   */
+  public ResumableFileLineReader(File file,
+                                 boolean fileEnded,
+                                 DirectorySyncCheckpointStore checkpointStore)
+      throws IOException {
+    this.file = file;
+    if (file.isDirectory())
+      throw new IOException("file '" + file + "' is a directory");
+    ch = new FileInputStream(file).getChannel();
+    this.fileEnded = fileEnded;
+    this.checkpointStore = checkpointStore;
+    this.checkpointKey = checkpointStore.keyOf(file);
+
+    finished = checkpointStore.isCompleted(checkpointKey);
+    if (!finished) {
+      readingPosition = markedPosition =
+          checkpointStore.getPosition(checkpointKey);
+      ch.position(markedPosition);
+    }
+    logger.debug("file '{}': got position '{}' from checkpoint store",
+        file, markedPosition);
+  }
+
   /** Retrieve previous line position. */
   private void retrieveStats() throws IOException {
     logger.debug("retrieving status for file '{}'", file);
@@ -126,53 +164,244 @@ public class ResumableFileLineReader {
     }
   }
 
+  /**
+   * Read the next line, terminated by '\n', '\r' or "\r\n". The terminator is
+   * consumed but not returned.
+   * <p>
+   * The buffer is scanned for terminators a word at a time, and each line is
+   * copied out of it once. A line that straddles the end of the buffer is
+   * moved to its front, growing the buffer if the line does not fit, before
+   * more of the file is read. Once a long line is consumed, the buffer drops
+   * back to its initial size on the next refill.
+   * @return the line, or null at the end of the file
+   */
   public byte[] readLine() throws IOException {
     /* this file was already marked as finished, EOF now */
     if (finished || damaged || eof) return null;
     ensureOpen();
 
     if (null == bb) {
-      bb = ByteBuffer.allocate(128 * 1024); // 128K
+      bb = ByteBuffer.allocate(BUFFER_SIZE);
       bb.limit(0); // set it as full
     }
 
-    lineOut.reset();
+    int scanFrom = bb.position();
     while (true) {
-      if (!bb.hasRemaining()) {
-        bb.clear();
-        if (ch.read(bb) == -1) {
-          eof = true;
-          if (lineOut.size() > 0)
-            return lineOut.toByteArray();
-          else
-            return null;
+      int start = bb.position();
+      int limit = bb.limit();
+      int end = indexOfLineTerminator(bb, scanFrom, limit);
+      // a '\r' ending the buffer may be the first half of "\r\n"
+      if (end >= 0 && (bb.get(end) == '\n' || end + 1 < limit ||
+          (eof && !holdsLastLine()))) {
+        int next = end + 1;
+        if (bb.get(end) == '\r' && next < limit && bb.get(next) == '\n') {
+          next++;
         }
-        bb.flip();
+        return consumeLine(start, end, next);
       }
-      while (bb.hasRemaining()) {
-        byte b = bb.get();
-        char c = (char) b;
-        readingPosition++;
-        if (skipLF) {
-          skipLF = false;
-          if (c != '\n') {
-            bb.position(bb.position() - 1);
-            readingPosition--;
-          }
-          return lineOut.toByteArray();
+      if (eof) {
+        if (holdsLastLine()) {
+          // its writer may not have finished it yet
+          return null;
         }
-        if (c == '\n') {
-          return lineOut.toByteArray();
-        }
-        if (c == '\r') {
-          skipLF = true;
-          continue;
-        }
-        lineOut.write(b);
+        return consumeLine(start, limit, limit);
       }
+      scanFrom = (end >= 0 ? end : limit) - start;
+      fill(start);
     }
   }
 
+  /**
+   * Read the next range of at most {@code maxLength} bytes, with no regard to
+   * lines, for files that are synced by byte range. The range is read with
+   * positional reads straight into the returned array. Not to be mixed with
+   * {@link #readLine()} on the same reader.
+   * @return the bytes, or null at the end of the file
+   */
+  public byte[] readBlock(int maxLength) throws IOException {
+    if (finished || damaged || eof) return null;
+    ensureOpen();
+
+    long remaining = ch.size() - readingPosition;
+    if (remaining > 0) {
+      ByteBuffer block = ByteBuffer.allocate((int) Math.min(maxLength, remaining));
+      while (block.hasRemaining() &&
+          ch.read(block, readingPosition + block.position()) != -1) {
+        continue;
+      }
+      if (block.position() > 0) {
+        readingPosition += block.position();
+        return block.hasRemaining() ?
+            Arrays.copyOf(block.array(), block.position()) : block.array();
+      }
+    }
+    eof = true;
+    eofPosition = readingPosition;
+    return null;
+  }
+
+  /**
+   * Copy out the line between {@code start} and {@code end}, and move past
+   * its terminator to {@code next}.
+   * @return the line, or null if the file ended without one
+   */
+  private byte[] consumeLine(int start, int end, int next) {
+    bb.position(next);
+    readingPosition += next - start;
+    if (eof && start == end) {
+      return null;
+    }
+    return Arrays.copyOfRange(bb.array(), bb.arrayOffset() + start,
+        bb.arrayOffset() + end);
+  }
+
+  /**
+   * Move the bytes from {@code start} on to the front of the buffer, growing
+   * it if they already fill it, or shrinking it if it was grown for a line
+   * that is now consumed, and read more of the file after them.
+   */
+  private void fill(int start) throws IOException {
+    bb.position(start);
+    if (start == 0 && bb.limit() == bb.capacity()) {
+      ByteBuffer larger = ByteBuffer.allocate(bb.capacity() * 2);
+      larger.put(bb);
+      bb = larger;
+    } else if (bb.capacity() > BUFFER_SIZE &&
+        bb.remaining() < BUFFER_SIZE / 2) {
+      ByteBuffer smaller = ByteBuffer.allocate(BUFFER_SIZE);
+      smaller.put(bb);
+      bb = smaller;
+    } else {
+      bb.compact();
+    }
+    if (ch.read(bb) == -1) {
+      eof = true;
+      eofPosition = ch.position();
+    }
+    bb.flip();
+  }
+
+  /** Empty the buffer, back at its initial size if a long line grew it. */
+  private void clearBuffer() {
+    if (null == bb) {
+      return;
+    }
+    if (bb.capacity() > BUFFER_SIZE) {
+      bb = ByteBuffer.allocate(BUFFER_SIZE);
+    } else {
+      bb.clear();
+    }
+    bb.limit(0);
+  }
+
+  @VisibleForTesting
+  int getBufferCapacity() {
+    return null == bb ? 0 : bb.capacity();
+  }
+
+  /** @return true if the ended file has been consumed up to its end */
+  private boolean isReadToEnd() {
+    return fileEnded && eof && readingPosition >= eofPosition;
+  }
+
+  private boolean holdsLastLine() {
+    return follow && !fileEnded;
+  }
+
+  /**
+   * Keep an unterminated last line unread while the file is not ended, so
+   * that a line still being written is not split in two. Meant for files
+   * that are kept open and {@link #resume() resumed} as they grow.
+   */
+  public void setFollow(boolean follow) {
+    this.follow = follow;
+  }
+
+  /** Mark the file as ended, for a file opened before its end mark appeared. */
+  public void setFileEnded(boolean fileEnded) {
+    this.fileEnded = fileEnded;
+  }
+
+  /**
+   * Prepare to read again after the end of the file was met, if it has grown
+   * since or a held back last line can now be returned.
+   *
+   * @return true if {@link #readLine()} may return more lines
+   */
+  public boolean resume() throws IOException {
+    if (finished || damaged) return false;
+    if (!eof) return true;
+    ensureOpen();
+    if (ch.size() <= eofPosition && !(fileEnded && follow &&
+        eofPosition > readingPosition)) {
+      return false;
+    }
+    // re-read from the first unconsumed byte
+    clearBuffer();
+    ch.position(readingPosition);
+    eof = false;
+    return true;
+  }
+
+  /**
+   * Tell whether the path no longer names the open file, as after a log was
+   * renamed and recreated, or deleted. A file only grows, so the path names
+   * another file if its length is below the size of the channel, or above
+   * it once the channel size has been read again. A new file of exactly the
+   * same size goes unnoticed until one of them grows.
+   */
+  public boolean isReplaced() throws IOException {
+    ensureOpen();
+    long size = ch.size();
+    if (!file.exists()) {
+      return true;
+    }
+    long length = file.length();
+    return length < size || length > ch.size();
+  }
+
+  /**
+   * Record the start of the file as its position and close this reader, for
+   * a file whose path now names a new file that is to be read from the
+   * start.
+   */
+  public void releaseReplaced() throws IOException {
+    readingPosition = 0;
+    fileEnded = false;
+    eof = false;
+    commit();
+    close();
+  }
+
+  /**
+   * @return the index of the first '\n' or '\r' in {@code buf} between
+   * {@code from} and {@code to}, or -1
+   */
+  static int indexOfLineTerminator(ByteBuffer buf, int from, int to) {
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      // big-endian, so the first byte of the word is the most significant
+      long word = buf.getLong(i);
+      long found = zeroBytes(word ^ LF_BYTES) | zeroBytes(word ^ CR_BYTES);
+      if (found != 0) {
+        return i + (Long.numberOfLeadingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      byte b = buf.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** @return 0x80 in each byte that is zero in {@code x}, 0 elsewhere */
+  private static long zeroBytes(long x) {
+    long y = (x & LOW_7_BITS) + LOW_7_BITS;
+    return ~(y | x | LOW_7_BITS);
+  }
+
   public void close() throws IOException {
     logger.debug("file '{}': closing...", file);
     if (null != ch)
@@ -186,6 +415,14 @@ public class ResumableFileLineReader {
   public void commit() throws IOException {
     if (finished || damaged) return;
 
+    if (null != checkpointStore) {
+      boolean completed = isReadToEnd();
+      checkpointStore.commit(checkpointKey, readingPosition, completed);
+      markedPosition = readingPosition;
+      finished = completed;
+      return;
+    }
+
     logger.debug("committing '{}'", statsFile);
     /* open stat file for write */
     try {
@@ -201,7 +438,7 @@ public class ResumableFileLineReader {
     statsFileOut.flush();
     markedPosition = readingPosition;
     logger.debug("'{}': written", statsFile);
-    if (fileEnded && eof) {
+    if (isReadToEnd()) {
       logger.debug("sealing stats file, renaming from '{}' to '{}'",
           statsFile, finishedStatsFile);
       statsFileOut.close();
@@ -215,9 +452,10 @@ public class ResumableFileLineReader {
   public void reset() throws IOException {
     if (finished || damaged) return;
 
-    bb.clear();
-    ch.position(readingPosition);
+    clearBuffer();
+    ch.position(markedPosition);
     readingPosition = markedPosition;
+    eof = false;
     logger.info("file '{}': reverted to previous position: [{}]",
         file, String.valueOf(readingPosition));
   }
@@ -225,5 +463,25 @@ public class ResumableFileLineReader {
   public File getFile() {
     return file;
   }
+
+  /** @return true if the file was hinted as ended when opened */
+  public boolean isFileEnded() {
+    return fileEnded;
+  }
+
+  /** @return true once the ended file has been read and committed to its end */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /** @return the position of the next byte to read */
+  public long getPosition() {
+    return readingPosition;
+  }
+
+  /** @return the position up to which lines have been committed */
+  public long getCommittedPosition() {
+    return markedPosition;
+  }
 }
 
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+public class DedupCounter extends MonitoredCounterGroup implements
+    DedupCounterMBean {
+
+  private static final String COUNTER_EVENTS_UNIQUE =
+      "dedup.events.unique";
+  private static final String COUNTER_EVENTS_DUPLICATE =
+      "dedup.events.duplicate";
+  private static final String COUNTER_EVENTS_UNKEYED =
+      "dedup.events.unkeyed";
+  private static final String COUNTER_FILTER_ROTATIONS =
+      "dedup.filter.rotations";
+  private static final String COUNTER_FALSE_POSITIVE_PPM =
+      "dedup.filter.false-positive.ppm";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_EVENTS_UNIQUE, COUNTER_EVENTS_DUPLICATE, COUNTER_EVENTS_UNKEYED,
+    COUNTER_FILTER_ROTATIONS, COUNTER_FALSE_POSITIVE_PPM
+  };
+
+  public DedupCounter(String name) {
+    super(MonitoredCounterGroup.Type.INTERCEPTOR, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getEventUniqueCount() {
+    return get(COUNTER_EVENTS_UNIQUE);
+  }
+
+  public long addToEventUniqueCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_UNIQUE, delta);
+  }
+
+  @Override
+  public long getEventDuplicateCount() {
+    return get(COUNTER_EVENTS_DUPLICATE);
+  }
+
+  public long addToEventDuplicateCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_DUPLICATE, delta);
+  }
+
+  @Override
+  public long getEventUnkeyedCount() {
+    return get(COUNTER_EVENTS_UNKEYED);
+  }
+
+  public long addToEventUnkeyedCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_UNKEYED, delta);
+  }
+
+  @Override
+  public long getFilterRotationCount() {
+    return get(COUNTER_FILTER_ROTATIONS);
+  }
+
+  public void setFilterRotationCount(long rotations) {
+    set(COUNTER_FILTER_ROTATIONS, rotations);
+  }
+
+  /**
+   * Estimated false positive probability of the filter, in parts per million.
+   */
+  @Override
+  public long getFalsePositivePpm() {
+    return get(COUNTER_FALSE_POSITIVE_PPM);
+  }
+
+  public void setFalsePositivePpm(long ppm) {
+    set(COUNTER_FALSE_POSITIVE_PPM, ppm);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DirectorySyncSourceCounter extends MonitoredCounterGroup implements
+    DirectorySyncSourceCounterMBean {
+
+  private static final String COUNTER_LINES_READ =
+      "syncdir.lines.read";
+  private static final String COUNTER_BLOCKS_READ =
+      "syncdir.blocks.read";
+  private static final String COUNTER_BATCHES_COMMITTED =
+      "syncdir.batches.committed";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_LINES_READ, COUNTER_BLOCKS_READ, COUNTER_BATCHES_COMMITTED
+  };
+
+  /** Largest lag and lagging file count of each reader, by shard. */
+  private final Map<Integer, long[]> syncLag =
+      new ConcurrentHashMap<Integer, long[]>();
+
+  public DirectorySyncSourceCounter(String name) {
+    super(MonitoredCounterGroup.Type.SOURCE, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getLinesReadCount() {
+    return get(COUNTER_LINES_READ);
+  }
+
+  public long addToLinesReadCount(long delta) {
+    return addAndGet(COUNTER_LINES_READ, delta);
+  }
+
+  @Override
+  public long getBlocksReadCount() {
+    return get(COUNTER_BLOCKS_READ);
+  }
+
+  public long addToBlocksReadCount(long delta) {
+    return addAndGet(COUNTER_BLOCKS_READ, delta);
+  }
+
+  @Override
+  public long getBatchesCommittedCount() {
+    return get(COUNTER_BATCHES_COMMITTED);
+  }
+
+  public long incrementBatchesCommittedCount() {
+    return increment(COUNTER_BATCHES_COMMITTED);
+  }
+
+  /**
+   * Record how far the reader of a shard is behind: the bytes not synced yet
+   * of its file furthest behind, and how many of its files are behind.
+   */
+  public void setSyncLag(int shard, long maxLag, int laggingFiles) {
+    syncLag.put(shard, new long[] { maxLag, laggingFiles });
+  }
+
+  @Override
+  public long getMaxSyncLag() {
+    long max = 0;
+    for (long[] lag : syncLag.values()) {
+      max = Math.max(max, lag[0]);
+    }
+    return max;
+  }
+
+  @Override
+  public int getLaggingFileCount() {
+    long count = 0;
+    for (long[] lag : syncLag.values()) {
+      count += lag[1];
+    }
+    return (int) count;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+public class InterceptorCounter extends MonitoredCounterGroup implements
+    InterceptorCounterMBean {
+
+  private static final String COUNTER_EVENTS_RECEIVED =
+      "interceptor.events.received";
+  private static final String COUNTER_EVENTS_DROPPED =
+      "interceptor.events.dropped";
+  private static final String COUNTER_INTERCEPT_TIME_NANOS =
+      "interceptor.intercept.time.nanos";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_EVENTS_RECEIVED, COUNTER_EVENTS_DROPPED,
+    COUNTER_INTERCEPT_TIME_NANOS
+  };
+
+  public InterceptorCounter(String name) {
+    super(MonitoredCounterGroup.Type.INTERCEPTOR, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getEventReceivedCount() {
+    return get(COUNTER_EVENTS_RECEIVED);
+  }
+
+  public long addToEventReceivedCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_RECEIVED, delta);
+  }
+
+  @Override
+  public long getEventDroppedCount() {
+    return get(COUNTER_EVENTS_DROPPED);
+  }
+
+  public long addToEventDroppedCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_DROPPED, delta);
+  }
+
+  @Override
+  public long getInterceptTimeNanos() {
+    return get(COUNTER_INTERCEPT_TIME_NANOS);
+  }
+
+  public long addToInterceptTimeNanos(long delta) {
+    return addAndGet(COUNTER_INTERCEPT_TIME_NANOS, delta);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.instrumentation;
+
+public class RateLimitCounter extends MonitoredCounterGroup implements
+    RateLimitCounterMBean {
+
+  private static final String COUNTER_EVENTS_PASSED =
+      "ratelimit.events.passed";
+  private static final String COUNTER_EVENTS_LIMITED =
+      "ratelimit.events.limited";
+  private static final String COUNTER_EVENTS_SAMPLED_OUT =
+      "ratelimit.events.sampled-out";
+  private static final String COUNTER_BATCHES_REJECTED =
+      "ratelimit.batches.rejected";
+  private static final String COUNTER_KEYS_EVICTED =
+      "ratelimit.keys.evicted";
+  private static final String COUNTER_KEYS_TRACKED =
+      "ratelimit.keys.tracked";
+  private static final String COUNTER_KEYS_LIMITED =
+      "ratelimit.keys.limited";
+
+  private static final String[] ATTRIBUTES = {
+    COUNTER_EVENTS_PASSED, COUNTER_EVENTS_LIMITED, COUNTER_EVENTS_SAMPLED_OUT,
+    COUNTER_BATCHES_REJECTED, COUNTER_KEYS_EVICTED, COUNTER_KEYS_TRACKED,
+    COUNTER_KEYS_LIMITED
+  };
+
+  public RateLimitCounter(String name) {
+    super(MonitoredCounterGroup.Type.INTERCEPTOR, name, ATTRIBUTES);
+  }
+
+  @Override
+  public long getEventPassedCount() {
+    return get(COUNTER_EVENTS_PASSED);
+  }
+
+  public long addToEventPassedCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_PASSED, delta);
+  }
+
+  @Override
+  public long getEventLimitedCount() {
+    return get(COUNTER_EVENTS_LIMITED);
+  }
+
+  public long addToEventLimitedCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_LIMITED, delta);
+  }
+
+  @Override
+  public long getEventSampledOutCount() {
+    return get(COUNTER_EVENTS_SAMPLED_OUT);
+  }
+
+  public long addToEventSampledOutCount(long delta) {
+    return addAndGet(COUNTER_EVENTS_SAMPLED_OUT, delta);
+  }
+
+  @Override
+  public long getBatchRejectedCount() {
+    return get(COUNTER_BATCHES_REJECTED);
+  }
+
+  public long incrementBatchRejectedCount() {
+    return increment(COUNTER_BATCHES_REJECTED);
+  }
+
+  @Override
+  public long getKeyEvictedCount() {
+    return get(COUNTER_KEYS_EVICTED);
+  }
+
+  public long incrementKeyEvictedCount() {
+    return increment(COUNTER_KEYS_EVICTED);
+  }
+
+  @Override
+  public long getKeyTrackedCount() {
+    return get(COUNTER_KEYS_TRACKED);
+  }
+
+  public void setKeyTrackedCount(long keys) {
+    set(COUNTER_KEYS_TRACKED, keys);
+  }
+
+  /**
+   * Returns how many of the tracked keys have had events over their limit.
+   */
+  @Override
+  public long getKeyLimitedCount() {
+    return get(COUNTER_KEYS_LIMITED);
+  }
+
+  public long addToKeyLimitedCount(long delta) {
+    return addAndGet(COUNTER_KEYS_LIMITED, delta);
+  }
+}
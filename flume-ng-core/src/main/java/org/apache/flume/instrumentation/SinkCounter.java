@@ -44,11 +44,21 @@ public class SinkCounter extends MonitoredCounterGroup implements
   private static final String COUNTER_EVENT_DRAIN_SUCCESS =
       "sink.event.drain.sucess";
 
+  private static final String COUNTER_WRITER_CACHE_HIT =
+      "sink.writer.cache.hit";
+
+  private static final String COUNTER_WRITER_CACHE_MISS =
+      "sink.writer.cache.miss";
+
+  private static final String COUNTER_WRITER_OPEN =
+      "sink.writer.open.count";
+
   private static final String[] ATTRIBUTES = {
     COUNTER_CONNECTION_CREATED, COUNTER_CONNECTION_CLOSED,
     COUNTER_CONNECTION_FAILED, COUNTER_BATCH_EMPTY,
     COUNTER_BATCH_UNDERFLOW, COUNTER_BATCH_COMPLETE,
-    COUNTER_EVENT_DRAIN_ATTEMPT, COUNTER_EVENT_DRAIN_SUCCESS
+    COUNTER_EVENT_DRAIN_ATTEMPT, COUNTER_EVENT_DRAIN_SUCCESS,
+    COUNTER_WRITER_CACHE_HIT, COUNTER_WRITER_CACHE_MISS, COUNTER_WRITER_OPEN
   };
 
 
@@ -135,4 +145,34 @@ public class SinkCounter extends MonitoredCounterGroup implements
   public long addToEventDrainSuccessCount(long delta) {
     return addAndGet(COUNTER_EVENT_DRAIN_SUCCESS, delta);
   }
+
+  @Override
+  public long getWriterCacheHitCount() {
+    return get(COUNTER_WRITER_CACHE_HIT);
+  }
+
+  public long incrementWriterCacheHitCount() {
+    return increment(COUNTER_WRITER_CACHE_HIT);
+  }
+
+  @Override
+  public long getWriterCacheMissCount() {
+    return get(COUNTER_WRITER_CACHE_MISS);
+  }
+
+  public long incrementWriterCacheMissCount() {
+    return increment(COUNTER_WRITER_CACHE_MISS);
+  }
+
+  /**
+   * Number of writers currently held open by a sink that caches them.
+   */
+  @Override
+  public long getWriterOpenCount() {
+    return get(COUNTER_WRITER_OPEN);
+  }
+
+  public long addToWriterOpenCount(long delta) {
+    return addAndGet(COUNTER_WRITER_OPEN, delta);
+  }
 }
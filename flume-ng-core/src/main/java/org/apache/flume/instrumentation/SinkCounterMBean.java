@@ -43,6 +43,12 @@ public interface SinkCounterMBean {
 
   long getEventDrainSuccessCount();
 
+  long getWriterCacheHitCount();
+
+  long getWriterCacheMissCount();
+
+  long getWriterOpenCount();
+
   long getStartTime();
 
   long getStopTime();
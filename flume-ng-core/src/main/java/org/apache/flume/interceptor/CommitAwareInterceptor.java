@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import org.apache.flume.Event;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+
+/**
+ * An {@link Interceptor} that keeps state about the {@link Event}s it passed,
+ * and must only keep it for events that actually reached the channels.
+ * <p>
+ * After each call to {@code intercept}, the
+ * {@link org.apache.flume.channel.ChannelProcessor} calls exactly one of
+ * {@link #afterCommit()}, once every required channel committed the
+ * intercepted events, or {@link #afterRollback()}, if any of them failed, or
+ * an interceptor of the chain threw, and the client may send the same events
+ * again. Both are called on the thread that called {@code intercept}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface CommitAwareInterceptor extends Interceptor {
+
+  /**
+   * The events returned by the last {@code intercept} call on this thread
+   * were committed to every required channel.
+   */
+  public void afterCommit();
+
+  /**
+   * The events returned by the last {@code intercept} call on this thread
+   * were not delivered.
+   */
+  public void afterRollback();
+}
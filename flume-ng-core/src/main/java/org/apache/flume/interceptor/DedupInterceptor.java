@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import static org.apache.flume.interceptor.DedupInterceptor.Constants.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.flume.Clock;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.SystemClock;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.instrumentation.DedupCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Interceptor that drops events whose key was already seen within a time
+ * window, such as batches re-sent by an upstream RPC sink after a timeout.
+ * The key is the value of a configured header or, by default, the event body.
+ * Events without the configured header are passed through.
+ * <p>
+ * Seen keys are kept in a {@link RotatingBloomFilter} of fixed size, so no
+ * external store is needed but a small fraction of unique events may be
+ * wrongly dropped as duplicates. The estimated false positive rate is published
+ * along with the duplicate counts in a {@link DedupCounter}.
+ * <p>
+ * Keys are only recorded once the channel transaction that took their events
+ * committed, see {@link CommitAwareInterceptor}, so a batch that failed to
+ * reach the channel and is sent again by the client is not dropped. Two
+ * batches with the same keys in flight at the same time may both pass.
+ * <p>
+ * Sample config:
+ * <p>
+ * <code>
+ * agent.sources.r1.interceptors.i1.type = dedup
+ * agent.sources.r1.interceptors.i1.header = eventId
+ * agent.sources.r1.interceptors.i1.windowSeconds = 600
+ * agent.sources.r1.interceptors.i1.maxBytes = 8388608
+ * </code>
+ */
+public class DedupInterceptor implements CommitAwareInterceptor {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(DedupInterceptor.class);
+
+  private final String header;
+  private final RotatingBloomFilter filter;
+  private final DedupCounter counter;
+  /** keys of the events passed by the last intercept call of each thread */
+  private final ThreadLocal<List<byte[]>> pending =
+      new ThreadLocal<List<byte[]>>();
+
+  /**
+   * Only {@link DedupInterceptor.Builder} can build me
+   */
+  private DedupInterceptor(String header, RotatingBloomFilter filter,
+      DedupCounter counter) {
+    this.header = header;
+    this.filter = filter;
+    this.counter = counter;
+  }
+
+  @Override
+  public void initialize() {
+    counter.start();
+  }
+
+  @Override
+  public Event intercept(Event event) {
+    List<Event> out = intercept(Lists.newArrayList(event));
+    return out.isEmpty() ? null : event;
+  }
+
+  /**
+   * Returns the events whose key was not seen before, including within the
+   * batch itself. Their keys are recorded by {@link #afterCommit()}.
+   */
+  @Override
+  public List<Event> intercept(List<Event> events) {
+    List<Event> out = Lists.newArrayListWithCapacity(events.size());
+    List<byte[]> keys = Lists.newArrayListWithCapacity(events.size());
+    Set<ByteBuffer> batchKeys = Sets.newHashSetWithExpectedSize(events.size());
+    long unique = 0;
+    long duplicate = 0;
+    long unkeyed = 0;
+    // sources such as AvroSource call in from several threads
+    synchronized (filter) {
+      for (Event event : events) {
+        byte[] key = getKey(event);
+        if (key == null) {
+          unkeyed++;
+          out.add(event);
+        } else if (filter.mightContain(key)) {
+          // delivered before, so it is safe to restart its window now
+          filter.put(key);
+          duplicate++;
+        } else if (!batchKeys.add(ByteBuffer.wrap(key))) {
+          duplicate++;
+        } else {
+          unique++;
+          keys.add(key);
+          out.add(event);
+        }
+      }
+      counter.setFilterRotationCount(filter.getRotations());
+    }
+    pending.set(keys);
+    counter.addToEventUniqueCount(unique);
+    counter.addToEventDuplicateCount(duplicate);
+    counter.addToEventUnkeyedCount(unkeyed);
+    return out;
+  }
+
+  /** Records the keys of the events passed by the last intercept call. */
+  @Override
+  public void afterCommit() {
+    List<byte[]> keys = pending.get();
+    pending.remove();
+    if (keys == null || keys.isEmpty()) {
+      return;
+    }
+    synchronized (filter) {
+      for (byte[] key : keys) {
+        filter.put(key);
+      }
+      counter.setFilterRotationCount(filter.getRotations());
+      counter.setFalsePositivePpm(
+          Math.round(filter.getFalsePositiveProbability() * 1000000));
+    }
+  }
+
+  /** Forgets the keys of the events passed by the last intercept call. */
+  @Override
+  public void afterRollback() {
+    pending.remove();
+  }
+
+  private byte[] getKey(Event event) {
+    if (header == null) {
+      return event.getBody();
+    }
+    String value = event.getHeaders().get(header);
+    return value == null ? null : value.getBytes(Charsets.UTF_8);
+  }
+
+  @VisibleForTesting
+  DedupCounter getCounter() {
+    return counter;
+  }
+
+  @Override
+  public void close() {
+    counter.stop();
+  }
+
+  /**
+   * Builder which builds new instances of the DedupInterceptor.
+   */
+  public static class Builder implements Interceptor.Builder {
+
+    /** numbers the counters of interceptors built without a name */
+    private static final AtomicInteger unnamed = new AtomicInteger();
+
+    private String header;
+    private long windowSeconds;
+    private int generations;
+    private long maxBytes;
+    private long expectedEvents;
+    private String counterName;
+    private Clock clock = new SystemClock();
+
+    @Override
+    public void configure(Context context) {
+      header = context.getString(HEADER);
+      if (header != null && header.trim().isEmpty()) {
+        header = null;
+      }
+      windowSeconds = context.getLong(WINDOW_SECONDS, DEFAULT_WINDOW_SECONDS);
+      generations = context.getInteger(GENERATIONS, DEFAULT_GENERATIONS);
+      maxBytes = context.getLong(MAX_BYTES, DEFAULT_MAX_BYTES);
+      expectedEvents = context.getLong(EXPECTED_EVENTS,
+          DEFAULT_EXPECTED_EVENTS);
+      counterName = context.getString(COUNTER_NAME);
+      if (counterName == null) {
+        String name = context.getString(
+            ChannelProcessor.CONFIG_INTERCEPTOR_NAME);
+        counterName = name != null ? name + "." + COUNTER_NAME_SUFFIX
+            : COUNTER_NAME_SUFFIX + "-" + unnamed.incrementAndGet();
+      }
+    }
+
+    @VisibleForTesting
+    void setClock(Clock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    public Interceptor build() {
+      RotatingBloomFilter filter = new RotatingBloomFilter(maxBytes,
+          generations, windowSeconds * 1000, expectedEvents, clock);
+      logger.info("Creating DedupInterceptor: header={}, windowSeconds={}, " +
+          "generations={}, maxBytes={}, hashFunctions={}", new Object[] {
+          header, windowSeconds, generations, maxBytes,
+          filter.getHashFunctions() });
+      return new DedupInterceptor(header, filter,
+          new DedupCounter(counterName));
+    }
+  }
+
+  public static class Constants {
+
+    /** Header holding the dedup key; the body is used if unset. */
+    public static final String HEADER = "header";
+
+    public static final String WINDOW_SECONDS = "windowSeconds";
+    public static final long DEFAULT_WINDOW_SECONDS = 600;
+
+    public static final String GENERATIONS = "generations";
+    public static final int DEFAULT_GENERATIONS = 4;
+
+    public static final String MAX_BYTES = "maxBytes";
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    public static final String EXPECTED_EVENTS = "expectedEvents";
+    public static final long DEFAULT_EXPECTED_EVENTS = 1000000;
+
+    /**
+     * Name of the {@link DedupCounter}; by default the qualified interceptor
+     * name followed by ".dedup", e.g. "r1.i1.dedup".
+     */
+    public static final String COUNTER_NAME = "counterName";
+    public static final String COUNTER_NAME_SUFFIX = "dedup";
+  }
+
+}
@@ -60,7 +60,7 @@ import static org.apache.flume.interceptor.HostInterceptor.Constants.*;
  * </code>
  *
  */
-public class HostInterceptor implements Interceptor {
+public class HostInterceptor implements StatelessInterceptor {
 
   private static final Logger logger = LoggerFactory
           .getLogger(HostInterceptor.class);
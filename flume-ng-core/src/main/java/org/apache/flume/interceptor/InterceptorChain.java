@@ -19,53 +19,292 @@
 package org.apache.flume.interceptor;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.flume.Event;
+import org.apache.flume.FlumeException;
+import org.apache.flume.instrumentation.InterceptorCounter;
 import com.google.common.collect.Lists;
 
 /**
  * Implementation of Interceptor that calls a list of other Interceptors
  * serially.
+ * <p>
+ * In fused mode, every run of consecutive {@link StatelessInterceptor}s is
+ * applied in a single pass over a batch: each event goes through the whole
+ * run before the next event is looked at, and dropped events are compacted
+ * out of the batch in place instead of building a new list per interceptor.
+ * Other interceptors still see the whole batch at once.
+ * <p>
+ * When a parallelism greater than one is set, batches of at least the
+ * parallel threshold are split into that many contiguous chunks and each run
+ * of stateless interceptors is applied to the chunks on a pool of worker
+ * threads. The order of the events is preserved. Smaller batches, and
+ * interceptors which are not stateless, stay on the calling thread.
  */
 public class InterceptorChain implements Interceptor {
 
   // list of interceptors that will be traversed, in order
   private List<Interceptor> interceptors;
 
+  // per-interceptor counters, same order as interceptors, or null
+  private List<InterceptorCounter> counters;
+
+  private boolean fused = false;
+  private int parallelism = 1;
+  private int parallelThreshold = Integer.MAX_VALUE;
+  private ExecutorService executor;
+
   public InterceptorChain() {
     interceptors = Lists.newLinkedList();
   }
 
   public void setInterceptors(List<Interceptor> interceptors) {
-    this.interceptors = interceptors;
+    setInterceptors(interceptors, null);
+  }
+
+  /**
+   * Sets the interceptors along with one {@link InterceptorCounter} per
+   * interceptor, in the same order, which receive the events seen and dropped
+   * by that interceptor and the nanoseconds spent in it.
+   */
+  public void setInterceptors(List<Interceptor> interceptors,
+      List<InterceptorCounter> counters) {
+    Preconditions.checkArgument(counters == null ||
+        counters.size() == interceptors.size(),
+        "Expected one counter per interceptor");
+    // indexed access below, so do not keep a LinkedList around
+    this.interceptors = new ArrayList<Interceptor>(interceptors);
+    this.counters = counters == null ? null :
+        new ArrayList<InterceptorCounter>(counters);
+  }
+
+  public void setFused(boolean fused) {
+    this.fused = fused;
+  }
+
+  public boolean isFused() {
+    return fused;
+  }
+
+  /**
+   * Sets the number of worker threads used for large batches. Must be called
+   * before {@link #initialize()}; a value of one disables parallel execution.
+   */
+  public void setParallelism(int parallelism) {
+    Preconditions.checkArgument(parallelism > 0,
+        "Parallelism must be positive");
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Sets the minimum batch size that is split across the worker threads.
+   */
+  public void setParallelThreshold(int parallelThreshold) {
+    Preconditions.checkArgument(parallelThreshold > 0,
+        "Parallel threshold must be positive");
+    this.parallelThreshold = parallelThreshold;
   }
 
   @Override
   public Event intercept(Event event) {
-    for (Interceptor interceptor : interceptors) {
+    for (int i = 0; i < interceptors.size(); i++) {
       if (event == null) {
         return null;
       }
-      event = interceptor.intercept(event);
+      long start = System.nanoTime();
+      event = interceptors.get(i).intercept(event);
+      record(i, 1, event == null ? 1 : 0, System.nanoTime() - start);
     }
     return event;
   }
 
   @Override
   public List<Event> intercept(List<Event> events) {
-    for (Interceptor interceptor : interceptors) {
+    int i = 0;
+    while (i < interceptors.size()) {
       if (events.isEmpty()) {
         return events;
       }
-      events = interceptor.intercept(events);
-      Preconditions.checkNotNull(events,
-          "Event list returned null from interceptor %s", interceptor);
+      Interceptor interceptor = interceptors.get(i);
+      boolean parallel = executor != null &&
+          events.size() >= parallelThreshold;
+      if ((fused || parallel) && interceptor instanceof StatelessInterceptor) {
+        int end = i + 1;
+        while (end < interceptors.size() &&
+            interceptors.get(end) instanceof StatelessInterceptor) {
+          end++;
+        }
+        events = parallel ? interceptParallel(events, i, end)
+            : interceptFused(events, i, end);
+        i = end;
+      } else {
+        int size = events.size();
+        long start = System.nanoTime();
+        events = interceptor.intercept(events);
+        long elapsed = System.nanoTime() - start;
+        Preconditions.checkNotNull(events,
+            "Event list returned null from interceptor %s", interceptor);
+        record(i, size, size - events.size(), elapsed);
+        i++;
+      }
     }
     return events;
   }
 
+  /**
+   * Runs the stateless interceptors in {@code [from, to)} over the batch in
+   * one pass. The batch is filtered in place when it is an {@link ArrayList},
+   * otherwise the surviving events are collected into a single new list.
+   */
+  private List<Event> interceptFused(List<Event> events, int from, int to) {
+    RunStats stats = new RunStats(to - from);
+    int size = events.size();
+    boolean inPlace = events instanceof ArrayList;
+    List<Event> out = inPlace ? events : new ArrayList<Event>(size);
+    int kept = 0;
+    for (Event event : events) {
+      event = interceptRun(event, from, to, stats);
+      if (event != null) {
+        // ArrayList.set() does not invalidate the iterator
+        if (inPlace) {
+          events.set(kept, event);
+        } else {
+          out.add(event);
+        }
+        kept++;
+      }
+    }
+    if (inPlace && kept < size) {
+      events.subList(kept, size).clear();
+    }
+    record(from, stats);
+    return out;
+  }
+
+  /**
+   * Runs the stateless interceptors in {@code [from, to)} over contiguous
+   * chunks of the batch on the worker threads, then compacts the surviving
+   * events back into the batch in their original order.
+   */
+  private List<Event> interceptParallel(List<Event> events, final int from,
+      final int to) {
+    final Event[] slots = events.toArray(new Event[events.size()]);
+    int chunkSize = (slots.length + parallelism - 1) / parallelism;
+    List<Callable<RunStats>> tasks =
+        new ArrayList<Callable<RunStats>>(parallelism);
+    for (int start = 0; start < slots.length; start += chunkSize) {
+      final int chunkStart = start;
+      final int chunkEnd = Math.min(start + chunkSize, slots.length);
+      tasks.add(new Callable<RunStats>() {
+        @Override
+        public RunStats call() {
+          RunStats stats = new RunStats(to - from);
+          for (int n = chunkStart; n < chunkEnd; n++) {
+            slots[n] = interceptRun(slots[n], from, to, stats);
+          }
+          return stats;
+        }
+      });
+    }
+
+    try {
+      for (Future<RunStats> future : executor.invokeAll(tasks)) {
+        record(from, future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FlumeException("Interrupted while running interceptors", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+
+    boolean inPlace = events instanceof ArrayList;
+    List<Event> out = inPlace ? events : new ArrayList<Event>(slots.length);
+    if (inPlace) {
+      events.clear();
+    }
+    for (Event event : slots) {
+      if (event != null) {
+        out.add(event);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Passes a single event through the stateless interceptors in
+   * {@code [from, to)}, stopping as soon as one of them drops it.
+   */
+  private Event interceptRun(Event event, int from, int to, RunStats stats) {
+    long start = System.nanoTime();
+    for (int i = from; i < to; i++) {
+      int slot = i - from;
+      stats.received[slot]++;
+      event = interceptors.get(i).intercept(event);
+      long now = System.nanoTime();
+      stats.nanos[slot] += now - start;
+      start = now;
+      if (event == null) {
+        stats.dropped[slot]++;
+        break;
+      }
+    }
+    return event;
+  }
+
+  private void record(int from, RunStats stats) {
+    for (int slot = 0; slot < stats.received.length; slot++) {
+      record(from + slot, stats.received[slot], stats.dropped[slot],
+          stats.nanos[slot]);
+    }
+  }
+
+  private void record(int index, long received, long dropped, long nanos) {
+    if (counters == null) {
+      return;
+    }
+    InterceptorCounter counter = counters.get(index);
+    counter.addToEventReceivedCount(received);
+    counter.addToEventDroppedCount(dropped);
+    counter.addToInterceptTimeNanos(nanos);
+  }
+
+  /**
+   * Tells every {@link CommitAwareInterceptor} of the chain that the events of
+   * the last {@code intercept} call on this thread were committed.
+   */
+  public void afterCommit() {
+    for (int i = 0; i < interceptors.size(); i++) {
+      Interceptor interceptor = interceptors.get(i);
+      if (interceptor instanceof CommitAwareInterceptor) {
+        ((CommitAwareInterceptor) interceptor).afterCommit();
+      }
+    }
+  }
+
+  /**
+   * Tells every {@link CommitAwareInterceptor} of the chain that the events of
+   * the last {@code intercept} call on this thread were not delivered.
+   */
+  public void afterRollback() {
+    for (int i = 0; i < interceptors.size(); i++) {
+      Interceptor interceptor = interceptors.get(i);
+      if (interceptor instanceof CommitAwareInterceptor) {
+        ((CommitAwareInterceptor) interceptor).afterRollback();
+      }
+    }
+  }
+
   @Override
   public void initialize() {
     Iterator<Interceptor> iter = interceptors.iterator();
@@ -73,15 +312,50 @@ public class InterceptorChain implements Interceptor {
       Interceptor interceptor = iter.next();
       interceptor.initialize();
     }
+    if (counters != null) {
+      for (InterceptorCounter counter : counters) {
+        counter.start();
+      }
+    }
+    if (parallelism > 1 && executor == null) {
+      executor = Executors.newFixedThreadPool(parallelism,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Flume Interceptor Chain Thread %d").build());
+    }
   }
 
   @Override
   public void close() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
     Iterator<Interceptor> iter = interceptors.iterator();
     while (iter.hasNext()) {
       Interceptor interceptor = iter.next();
       interceptor.close();
     }
+    if (counters != null) {
+      for (InterceptorCounter counter : counters) {
+        counter.stop();
+      }
+    }
+  }
+
+  /**
+   * Per-interceptor statistics for one pass of a run of stateless
+   * interceptors, indexed relative to the first interceptor of the run.
+   */
+  private static class RunStats {
+    private final long[] received;
+    private final long[] dropped;
+    private final long[] nanos;
+
+    RunStats(int runLength) {
+      received = new long[runLength];
+      dropped = new long[runLength];
+      nanos = new long[runLength];
+    }
   }
 
 }
@@ -25,7 +25,10 @@ public enum InterceptorType {
   STATIC(org.apache.flume.interceptor.StaticInterceptor.Builder.class),
   REGEX_FILTER(
       org.apache.flume.interceptor.RegexFilteringInterceptor.Builder.class),
-  REGEX_EXTRACTOR(org.apache.flume.interceptor.RegexExtractorInterceptor.Builder.class);
+  REGEX_EXTRACTOR(org.apache.flume.interceptor.RegexExtractorInterceptor.Builder.class),
+  MULTI_REGEX(org.apache.flume.interceptor.MultiRegexInterceptor.Builder.class),
+  DEDUP(org.apache.flume.interceptor.DedupInterceptor.Builder.class),
+  RATE_LIMIT(org.apache.flume.interceptor.RateLimitingInterceptor.Builder.class);
 
   private final Class<? extends Interceptor.Builder> builderClass;
 
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import static org.apache.flume.interceptor.MultiRegexInterceptor.Constants.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.RegexExtractorInterceptor.NameAndSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Interceptor that applies an ordered list of regular expression rules to the
+ * event body in a single pass. Each rule either includes or excludes events,
+ * like {@link RegexFilteringInterceptor}, or extracts match groups into
+ * headers, like {@link RegexExtractorInterceptor}. The rules behave exactly
+ * as the equivalent chain of regex_filter and regex_extractor interceptors,
+ * except that the body is decoded as UTF-8 only once per event, the matchers
+ * are reused per thread, and a rule whose leading literal text does not occur
+ * in the body is skipped without running its regular expression.
+ * <p>
+ * Sample config:
+ * <p>
+ * <code>
+ * agent.sources.r1.interceptors.i1.type = multi_regex
+ * agent.sources.r1.interceptors.i1.rules = noisy level
+ * agent.sources.r1.interceptors.i1.rules.noisy.regex = DEBUG
+ * agent.sources.r1.interceptors.i1.rules.noisy.action = exclude
+ * agent.sources.r1.interceptors.i1.rules.level.regex = level=(\\w+)
+ * agent.sources.r1.interceptors.i1.rules.level.serializers = s1
+ * agent.sources.r1.interceptors.i1.rules.level.serializers.s1.name = level
+ * </code>
+ */
+public class MultiRegexInterceptor implements StatelessInterceptor {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(MultiRegexInterceptor.class);
+
+  private final Rule[] rules;
+  private final ThreadLocal<Matcher[]> matchers;
+
+  /**
+   * Only {@link MultiRegexInterceptor.Builder} can build me
+   */
+  private MultiRegexInterceptor(List<Rule> ruleList) {
+    this.rules = ruleList.toArray(new Rule[ruleList.size()]);
+    this.matchers = new ThreadLocal<Matcher[]>() {
+      @Override
+      protected Matcher[] initialValue() {
+        Matcher[] matchers = new Matcher[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+          matchers[i] = rules[i].regex.matcher("");
+        }
+        return matchers;
+      }
+    };
+  }
+
+  @Override
+  public void initialize() {
+    // no-op
+  }
+
+  @Override
+  public Event intercept(Event event) {
+    String body = new String(event.getBody(), Charsets.UTF_8);
+    Matcher[] threadMatchers = matchers.get();
+    try {
+      for (int i = 0; i < rules.length; i++) {
+        Rule rule = rules[i];
+        boolean found = (rule.literal.isEmpty() ||
+            body.indexOf(rule.literal) >= 0) &&
+            threadMatchers[i].reset(body).find();
+        switch (rule.action) {
+          case INCLUDE:
+            if (!found) {
+              return null;
+            }
+            break;
+          case EXCLUDE:
+            if (found) {
+              return null;
+            }
+            break;
+          case EXTRACT:
+            if (found) {
+              RegexExtractorInterceptor.putGroups(threadMatchers[i],
+                  rule.serializers, event.getHeaders());
+            }
+            break;
+        }
+      }
+      return event;
+    } finally {
+      // do not keep the last body reachable from the thread
+      for (Matcher matcher : threadMatchers) {
+        matcher.reset("");
+      }
+    }
+  }
+
+  /**
+   * Delegates to {@link #intercept(Event)} in a loop.
+   * @param events
+   * @return
+   */
+  @Override
+  public List<Event> intercept(List<Event> events) {
+    List<Event> out = Lists.newArrayListWithCapacity(events.size());
+    for (Event event : events) {
+      Event outEvent = intercept(event);
+      if (outEvent != null) {
+        out.add(outEvent);
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public void close() {
+    // no-op
+  }
+
+  /**
+   * Returns the literal text every match of the regex has to start with, or
+   * the empty string if it cannot be determined cheaply. Patterns containing
+   * an alternation anywhere are not analysed. The regex is walked by code
+   * point, so that a quantifier applies to a whole supplementary character.
+   */
+  static String literalPrefix(String regex) {
+    if (regex.indexOf('|') >= 0) {
+      return "";
+    }
+    StringBuilder literal = new StringBuilder();
+    int i = regex.startsWith("^") ? 1 : 0;
+    while (i < regex.length()) {
+      int c = regex.codePointAt(i);
+      int next;
+      int end;
+      if (c == '\\') {
+        if (i + 1 >= regex.length() ||
+            Character.isLetterOrDigit(regex.codePointAt(i + 1))) {
+          // character classes, anchors, back references and quoting
+          break;
+        }
+        next = regex.codePointAt(i + 1);
+        end = i + 1 + Character.charCount(next);
+      } else if (METACHARACTERS.indexOf(c) >= 0) {
+        break;
+      } else {
+        next = c;
+        end = i + Character.charCount(c);
+      }
+      if (end < regex.length() && OPTIONAL_QUANTIFIERS.indexOf(
+          regex.charAt(end)) >= 0) {
+        // the character may not occur at all
+        break;
+      }
+      literal.appendCodePoint(next);
+      i = end;
+    }
+    return literal.toString();
+  }
+
+  private static final String METACHARACTERS = ".[]{}()*+?^$|";
+  private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+  enum Action {
+    INCLUDE, EXCLUDE, EXTRACT
+  }
+
+  static class Rule {
+    private final Pattern regex;
+    private final String literal;
+    private final Action action;
+    private final List<NameAndSerializer> serializers;
+
+    Rule(Pattern regex, Action action, List<NameAndSerializer> serializers) {
+      this.regex = regex;
+      this.literal = literalPrefix(regex.pattern());
+      this.action = action;
+      this.serializers = serializers;
+    }
+  }
+
+  /**
+   * Builder which builds new instances of the MultiRegexInterceptor.
+   */
+  public static class Builder implements Interceptor.Builder {
+
+    private List<Rule> rules;
+
+    @Override
+    public void configure(Context context) {
+      String ruleListStr = context.getString(RULES);
+      Preconditions.checkArgument(!StringUtils.isEmpty(ruleListStr),
+          "Must supply at least one rule");
+
+      Context ruleContexts = new Context(context.getSubProperties(RULES + "."));
+      rules = Lists.newArrayList();
+      for (String ruleName : ruleListStr.trim().split("\\s+")) {
+        Context ruleContext = new Context(
+            ruleContexts.getSubProperties(ruleName + "."));
+        String regexString = ruleContext.getString(REGEX);
+        Preconditions.checkArgument(!StringUtils.isEmpty(regexString),
+            "Must supply a valid regex string for rule " + ruleName);
+        Pattern regex = Pattern.compile(regexString);
+
+        Action action;
+        try {
+          action = Action.valueOf(ruleContext.getString(ACTION,
+              DEFAULT_ACTION).toUpperCase());
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Unknown action for rule " +
+              ruleName + ": " + ruleContext.getString(ACTION), e);
+        }
+
+        List<NameAndSerializer> serializers = null;
+        if (action == Action.EXTRACT) {
+          serializers = RegexExtractorInterceptor.Builder
+              .configureSerializers(ruleContext);
+        }
+        rules.add(new Rule(regex, action, serializers));
+      }
+    }
+
+    @Override
+    public Interceptor build() {
+      Preconditions.checkArgument(rules != null && !rules.isEmpty(),
+          "Must supply at least one rule");
+      logger.info("Creating MultiRegexInterceptor with {} rules",
+          rules.size());
+      return new MultiRegexInterceptor(rules);
+    }
+  }
+
+  public static class Constants {
+
+    public static final String RULES = "rules";
+
+    public static final String REGEX = "regex";
+
+    public static final String ACTION = "action";
+    public static final String DEFAULT_ACTION = "extract";
+  }
+
+}
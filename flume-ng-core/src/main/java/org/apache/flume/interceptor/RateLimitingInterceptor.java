@@ -0,0 +1,470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import static org.apache.flume.interceptor.RateLimitingInterceptor.Constants.*;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.instrumentation.RateLimitCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Interceptor that samples events and limits the rate of events per key, the
+ * key being the value of a configured header. Each key has its own token
+ * bucket refilled at {@code eventsPerSecond} and holding up to {@code burst}
+ * tokens. Events over the limit are handled according to the policy:
+ * <ul>
+ * <li>{@code drop}: the events are dropped;</li>
+ * <li>{@code tag}: the events are passed with the tag header set to
+ * {@code true};</li>
+ * <li>{@code reject}: the whole batch is refused with a
+ * {@link ChannelException}, so that the client backs off and retries.</li>
+ * </ul>
+ * Events without the header share one bucket. At most {@code maxKeys} buckets
+ * are kept; the least recently used one is evicted to make room for a new
+ * key. Sampling, if configured, happens before rate limiting. Tokens taken
+ * for a batch that does not reach the channels are given back, so that a
+ * retried batch is not charged twice.
+ * <p>
+ * Sample config:
+ * <p>
+ * <code>
+ * agent.sources.r1.interceptors.i1.type = rate_limit
+ * agent.sources.r1.interceptors.i1.header = tenant
+ * agent.sources.r1.interceptors.i1.eventsPerSecond = 5000
+ * agent.sources.r1.interceptors.i1.policy = reject
+ * </code>
+ */
+public class RateLimitingInterceptor implements CommitAwareInterceptor {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(RateLimitingInterceptor.class);
+
+  enum Policy {
+    DROP, TAG, REJECT
+  }
+
+  private final String header;
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final double sampleRate;
+  private final Policy policy;
+  private final String tagHeader;
+  private final Ticker ticker;
+  private final RateLimitCounter counter;
+
+  // access ordered, guarded by itself
+  private final LinkedHashMap<String, TokenBucket> buckets;
+
+  private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
+  /**
+   * Tokens taken by the last batch of this thread, given back if it is
+   * rolled back. A batch whose outcome is never reported keeps its tokens.
+   */
+  private final ThreadLocal<Map<TokenBucket, Integer>> pending =
+      new ThreadLocal<Map<TokenBucket, Integer>>();
+
+  /**
+   * Only {@link RateLimitingInterceptor.Builder} can build me
+   */
+  private RateLimitingInterceptor(String header, long eventsPerSecond,
+      long burst, double sampleRate, Policy policy, String tagHeader,
+      final int maxKeys, Ticker ticker, RateLimitCounter counter) {
+    this.header = header;
+    this.intervalNanos = Math.max(1L,
+        TimeUnit.SECONDS.toNanos(1) / eventsPerSecond);
+    this.burstNanos = burst * intervalNanos;
+    this.sampleRate = sampleRate;
+    this.policy = policy;
+    this.tagHeader = tagHeader;
+    this.ticker = ticker;
+    this.counter = counter;
+    this.buckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, TokenBucket> eldest) {
+        if (size() > maxKeys) {
+          RateLimitingInterceptor.this.counter.incrementKeyEvictedCount();
+          if (eldest.getValue().limited.get() > 0) {
+            RateLimitingInterceptor.this.counter.addToKeyLimitedCount(-1);
+          }
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  @Override
+  public void initialize() {
+    counter.start();
+  }
+
+  @Override
+  public Event intercept(Event event) {
+    List<Event> out = intercept(Lists.newArrayList(event));
+    return out.isEmpty() ? null : out.get(0);
+  }
+
+  /**
+   * Returns the sampled events that are within the rate limits, or all of
+   * them tagged when the policy is {@code tag}.
+   *
+   * @throws ChannelException if the policy is {@code reject} and any key is
+   * over its limit; no tokens are taken in that case
+   */
+  @Override
+  public List<Event> intercept(List<Event> events) {
+    List<Event> sampled = events;
+    if (sampleRate < 1.0) {
+      sampled = Lists.newArrayListWithCapacity(events.size());
+      Random rand = random.get();
+      for (Event event : events) {
+        if (rand.nextDouble() < sampleRate) {
+          sampled.add(event);
+        }
+      }
+      counter.addToEventSampledOutCount(events.size() - sampled.size());
+    }
+
+    // one lookup pass under the lock, the buckets themselves are lock free
+    TokenBucket[] eventBuckets = new TokenBucket[sampled.size()];
+    Map<TokenBucket, int[]> demand = new IdentityHashMap<TokenBucket, int[]>();
+    long now = ticker.read();
+    synchronized (buckets) {
+      int i = 0;
+      for (Event event : sampled) {
+        String key = header == null ? null : event.getHeaders().get(header);
+        if (key == null) {
+          key = "";
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new TokenBucket(key, now);
+          buckets.put(key, bucket);
+        }
+        eventBuckets[i++] = bucket;
+      }
+      counter.setKeyTrackedCount(buckets.size());
+    }
+    for (TokenBucket bucket : eventBuckets) {
+      int[] counts = demand.get(bucket);
+      if (counts == null) {
+        counts = new int[2];
+        demand.put(bucket, counts);
+      }
+      counts[0]++;
+    }
+
+    if (policy == Policy.REJECT) {
+      for (Map.Entry<TokenBucket, int[]> entry : demand.entrySet()) {
+        TokenBucket bucket = entry.getKey();
+        int wanted = entry.getValue()[0];
+        if (!bucket.tryAcquire(wanted, now)) {
+          for (Map.Entry<TokenBucket, int[]> taken : demand.entrySet()) {
+            if (taken.getValue()[1] > 0) {
+              taken.getKey().release(taken.getValue()[1]);
+            }
+          }
+          bucket.addLimited(wanted);
+          counter.addToEventLimitedCount(sampled.size());
+          counter.incrementBatchRejectedCount();
+          throw new ChannelException("Rate limit exceeded for key '" +
+              bucket.key + "', rejecting batch of " + events.size() +
+              " events");
+        }
+        entry.getValue()[1] = wanted;
+      }
+      Map<TokenBucket, Integer> charged =
+          new IdentityHashMap<TokenBucket, Integer>(demand.size());
+      for (Map.Entry<TokenBucket, int[]> entry : demand.entrySet()) {
+        entry.getKey().passed.addAndGet(entry.getValue()[1]);
+        charged.put(entry.getKey(), entry.getValue()[1]);
+      }
+      pending.set(charged);
+      counter.addToEventPassedCount(sampled.size());
+      return sampled;
+    }
+
+    Map<TokenBucket, Integer> charged =
+        new IdentityHashMap<TokenBucket, Integer>(demand.size());
+    for (Map.Entry<TokenBucket, int[]> entry : demand.entrySet()) {
+      int[] counts = entry.getValue();
+      counts[1] = entry.getKey().acquireUpTo(counts[0], now);
+      entry.getKey().passed.addAndGet(counts[1]);
+      entry.getKey().addLimited(counts[0] - counts[1]);
+      if (counts[1] > 0) {
+        charged.put(entry.getKey(), counts[1]);
+      }
+    }
+    pending.set(charged);
+    // the first granted events of every key pass, in order
+    List<Event> out = policy == Policy.DROP ?
+        Lists.<Event>newArrayListWithCapacity(sampled.size()) : sampled;
+    long limited = 0;
+    for (int i = 0; i < eventBuckets.length; i++) {
+      Event event = sampled.get(i);
+      int[] counts = demand.get(eventBuckets[i]);
+      if (counts[1] > 0) {
+        counts[1]--;
+        if (policy == Policy.DROP) {
+          out.add(event);
+        }
+      } else {
+        limited++;
+        if (policy == Policy.TAG) {
+          event.getHeaders().put(tagHeader, "true");
+        }
+      }
+    }
+    counter.addToEventPassedCount(sampled.size() - limited);
+    counter.addToEventLimitedCount(limited);
+    return out;
+  }
+
+  /** The tokens of the last batch are spent for good. */
+  @Override
+  public void afterCommit() {
+    pending.remove();
+  }
+
+  /** The last batch was not delivered, its tokens are given back. */
+  @Override
+  public void afterRollback() {
+    Map<TokenBucket, Integer> charged = pending.get();
+    if (charged == null) {
+      return;
+    }
+    pending.remove();
+    for (Map.Entry<TokenBucket, Integer> entry : charged.entrySet()) {
+      entry.getKey().release(entry.getValue());
+    }
+  }
+
+  /**
+   * Returns the passed and limited event counts of every tracked key. They
+   * are not published as a counter since keys come and go.
+   */
+  @VisibleForTesting
+  Map<String, String> getKeyCounts() {
+    Map<String, String> counts = Maps.newLinkedHashMap();
+    synchronized (buckets) {
+      for (TokenBucket bucket : buckets.values()) {
+        counts.put(bucket.key, "passed=" + bucket.passed.get() +
+            ",limited=" + bucket.limited.get());
+      }
+    }
+    return counts;
+  }
+
+  @VisibleForTesting
+  RateLimitCounter getCounter() {
+    return counter;
+  }
+
+  @Override
+  public void close() {
+    counter.stop();
+  }
+
+  /**
+   * Token bucket kept as a single theoretical arrival time (GCRA): a request
+   * for n tokens moves it n intervals ahead, and is allowed as long as it
+   * stays within the burst of the current time. Updated with CAS only.
+   */
+  private class TokenBucket {
+    private final String key;
+    private final AtomicLong arrival;
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+
+    TokenBucket(String key, long now) {
+      this.key = key;
+      this.arrival = new AtomicLong(now);
+    }
+
+    /** Counts events over the limit, and the key the first time. */
+    void addLimited(long events) {
+      if (events > 0 && limited.getAndAdd(events) == 0) {
+        counter.addToKeyLimitedCount(1);
+      }
+    }
+
+    int acquireUpTo(int wanted, long now) {
+      while (true) {
+        long current = arrival.get();
+        long base = Math.max(current, now);
+        long available = (now + burstNanos - base) / intervalNanos;
+        int granted = (int) Math.min(wanted, Math.max(0L, available));
+        if (granted == 0) {
+          return 0;
+        }
+        if (arrival.compareAndSet(current, base + granted * intervalNanos)) {
+          return granted;
+        }
+      }
+    }
+
+    /**
+     * Takes all the wanted tokens or none. A request larger than the burst
+     * is granted once the bucket is full, and the excess is paid back before
+     * any further request succeeds.
+     */
+    boolean tryAcquire(int wanted, long now) {
+      long needed = Math.min(wanted, burstNanos / intervalNanos);
+      while (true) {
+        long current = arrival.get();
+        long base = Math.max(current, now);
+        if ((now + burstNanos - base) / intervalNanos < needed) {
+          return false;
+        }
+        if (arrival.compareAndSet(current, base + wanted * intervalNanos)) {
+          return true;
+        }
+      }
+    }
+
+    void release(int tokens) {
+      arrival.addAndGet(-tokens * intervalNanos);
+    }
+  }
+
+  /**
+   * Builder which builds new instances of the RateLimitingInterceptor.
+   */
+  public static class Builder implements Interceptor.Builder {
+
+    /** numbers the counters of interceptors built without a name */
+    private static final AtomicInteger unnamed = new AtomicInteger();
+
+    private String header;
+    private long eventsPerSecond;
+    private long burst;
+    private double sampleRate;
+    private Policy policy;
+    private String tagHeader;
+    private int maxKeys;
+    private String counterName;
+    private Ticker ticker = Ticker.systemTicker();
+
+    @Override
+    public void configure(Context context) {
+      header = context.getString(HEADER);
+      eventsPerSecond = context.getLong(EVENTS_PER_SECOND,
+          DEFAULT_EVENTS_PER_SECOND);
+      Preconditions.checkArgument(eventsPerSecond > 0,
+          "eventsPerSecond must be positive");
+      burst = context.getLong(BURST, eventsPerSecond);
+      Preconditions.checkArgument(burst > 0, "burst must be positive");
+      sampleRate = Double.parseDouble(context.getString(SAMPLE_RATE,
+          DEFAULT_SAMPLE_RATE));
+      Preconditions.checkArgument(sampleRate > 0.0 && sampleRate <= 1.0,
+          "sampleRate must be in (0, 1]");
+      String policyName = context.getString(POLICY, DEFAULT_POLICY);
+      try {
+        policy = Policy.valueOf(policyName.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown policy " + policyName, e);
+      }
+      tagHeader = context.getString(TAG_HEADER, DEFAULT_TAG_HEADER);
+      maxKeys = context.getInteger(MAX_KEYS, DEFAULT_MAX_KEYS);
+      Preconditions.checkArgument(maxKeys > 0, "maxKeys must be positive");
+      counterName = context.getString(COUNTER_NAME);
+      if (counterName == null) {
+        String name = context.getString(
+            ChannelProcessor.CONFIG_INTERCEPTOR_NAME);
+        counterName = name != null ? name + "." + COUNTER_NAME_SUFFIX
+            : COUNTER_NAME_SUFFIX + "-" + unnamed.incrementAndGet();
+      }
+    }
+
+    @VisibleForTesting
+    void setTicker(Ticker ticker) {
+      this.ticker = ticker;
+    }
+
+    @Override
+    public Interceptor build() {
+      logger.info("Creating RateLimitingInterceptor: header={}, " +
+          "eventsPerSecond={}, burst={}, sampleRate={}, policy={}",
+          new Object[] { header, eventsPerSecond, burst, sampleRate, policy });
+      return new RateLimitingInterceptor(header, eventsPerSecond, burst,
+          sampleRate, policy, tagHeader, maxKeys, ticker,
+          new RateLimitCounter(counterName));
+    }
+  }
+
+  public static class Constants {
+
+    /** Header holding the rate limiting key. */
+    public static final String HEADER = "header";
+
+    public static final String EVENTS_PER_SECOND = "eventsPerSecond";
+    public static final long DEFAULT_EVENTS_PER_SECOND = 1000;
+
+    /** Bucket capacity, defaults to one second worth of events. */
+    public static final String BURST = "burst";
+
+    /** Fraction of the events kept before rate limiting. */
+    public static final String SAMPLE_RATE = "sampleRate";
+    public static final String DEFAULT_SAMPLE_RATE = "1.0";
+
+    public static final String POLICY = "policy";
+    public static final String DEFAULT_POLICY = "drop";
+
+    public static final String TAG_HEADER = "tagHeader";
+    public static final String DEFAULT_TAG_HEADER = "rateLimited";
+
+    public static final String MAX_KEYS = "maxKeys";
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    /**
+     * Name of the {@link RateLimitCounter}; by default the qualified
+     * interceptor name followed by ".rate_limit", e.g. "r1.i1.rate_limit".
+     */
+    public static final String COUNTER_NAME = "counterName";
+    public static final String COUNTER_NAME_SUFFIX = "rate_limit";
+  }
+
+}
@@ -97,7 +97,7 @@ import com.google.common.collect.Lists;
  * body: 1:2:3.4foobar5 headers: one=>1, two=>2
  * </pre>
  */
-public class RegexExtractorInterceptor implements Interceptor {
+public class RegexExtractorInterceptor implements StatelessInterceptor {
 
   static final String REGEX = "regex";
   static final String SERIALIZERS = "serializers";
@@ -128,27 +128,35 @@ public class RegexExtractorInterceptor implements Interceptor {
   public Event intercept(Event event) {
     Matcher matcher = regex.matcher(
         new String(event.getBody(), Charsets.UTF_8));
-    Map<String, String> headers = event.getHeaders();
     if (matcher.find()) {
-      for (int group = 0, count = matcher.groupCount(); group < count; group++) {
-        int groupIndex = group + 1;
-        if (groupIndex > serializers.size()) {
-          if (logger.isDebugEnabled()) {
-            logger.debug("Skipping group {} to {} due to missing serializer",
-                group, count);
-          }
-          break;
-        }
-        NameAndSerializer serializer = serializers.get(group);
+      putGroups(matcher, serializers, event.getHeaders());
+    }
+    return event;
+  }
+
+  /**
+   * Serializes the groups of a successful match into headers, one serializer
+   * per group in order. Groups without a serializer are skipped.
+   */
+  static void putGroups(Matcher matcher, List<NameAndSerializer> serializers,
+      Map<String, String> headers) {
+    for (int group = 0, count = matcher.groupCount(); group < count; group++) {
+      int groupIndex = group + 1;
+      if (groupIndex > serializers.size()) {
         if (logger.isDebugEnabled()) {
-          logger.debug("Serializing {} using {}", serializer.headerName,
-              serializer.serializer);
+          logger.debug("Skipping group {} to {} due to missing serializer",
+              group, count);
         }
-        headers.put(serializer.headerName,
-            serializer.serializer.serialize(matcher.group(groupIndex)));
+        break;
+      }
+      NameAndSerializer serializer = serializers.get(group);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Serializing {} using {}", serializer.headerName,
+            serializer.serializer);
       }
+      headers.put(serializer.headerName,
+          serializer.serializer.serialize(matcher.group(groupIndex)));
     }
-    return event;
   }
 
   @Override
@@ -167,7 +175,6 @@ public class RegexExtractorInterceptor implements Interceptor {
 
     private Pattern regex;
     private List<NameAndSerializer> serializerList;
-    private final RegexExtractorInterceptorSerializer defaultSerializer = new RegexExtractorInterceptorPassThroughSerializer();
 
     @Override
     public void configure(Context context) {
@@ -177,10 +184,16 @@ public class RegexExtractorInterceptor implements Interceptor {
       regex = Pattern.compile(regexString);
       regex.pattern();
       regex.matcher("").groupCount();
-      configureSerializers(context);
+      serializerList = configureSerializers(context);
     }
 
-    private void configureSerializers(Context context) {
+    /**
+     * Builds the header name and serializer list configured under
+     * {@code serializers} in the given context.
+     */
+    static List<NameAndSerializer> configureSerializers(Context context) {
+      RegexExtractorInterceptorSerializer defaultSerializer =
+          new RegexExtractorInterceptorPassThroughSerializer();
       String serializerListStr = context.getString(SERIALIZERS);
       Preconditions.checkArgument(!StringUtils.isEmpty(serializerListStr),
           "Must supply at least one name and serializer");
@@ -190,7 +203,8 @@ public class RegexExtractorInterceptor implements Interceptor {
       Context serializerContexts =
           new Context(context.getSubProperties(SERIALIZERS + "."));
 
-      serializerList = Lists.newArrayListWithCapacity(serializerNames.length);
+      List<NameAndSerializer> serializerList =
+          Lists.newArrayListWithCapacity(serializerNames.length);
       for(String serializerName : serializerNames) {
         Context serializerContext = new Context(
             serializerContexts.getSubProperties(serializerName + "."));
@@ -203,13 +217,15 @@ public class RegexExtractorInterceptor implements Interceptor {
           serializerList.add(new NameAndSerializer(name, defaultSerializer));
         } else {
           serializerList.add(new NameAndSerializer(name, getCustomSerializer(
-              type, serializerContext)));
+              type, serializerContext, defaultSerializer)));
         }
       }
+      return serializerList;
     }
 
-    private RegexExtractorInterceptorSerializer getCustomSerializer(
-        String clazzName, Context context) {
+    private static RegexExtractorInterceptorSerializer getCustomSerializer(
+        String clazzName, Context context,
+        RegexExtractorInterceptorSerializer defaultSerializer) {
       try {
         RegexExtractorInterceptorSerializer serializer = (RegexExtractorInterceptorSerializer) Class
             .forName(clazzName).newInstance();
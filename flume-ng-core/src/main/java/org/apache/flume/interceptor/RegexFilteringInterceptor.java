@@ -69,7 +69,7 @@ import com.google.common.collect.Lists;
  * </code>
  *
  */
-public class RegexFilteringInterceptor implements Interceptor {
+public class RegexFilteringInterceptor implements StatelessInterceptor {
 
   private static final Logger logger = LoggerFactory
       .getLogger(StaticInterceptor.class);
@@ -126,7 +126,7 @@ public class RegexFilteringInterceptor implements Interceptor {
    */
   @Override
   public List<Event> intercept(List<Event> events) {
-    List<Event> out = Lists.newArrayList();
+    List<Event> out = Lists.newArrayListWithCapacity(events.size());
     for (Event event : events) {
       Event outEvent = intercept(event);
       if (outEvent != null) { out.add(outEvent); }
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.util.Arrays;
+
+import org.apache.flume.Clock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A time-windowed set membership filter made of a ring of Bloom filters of
+ * fixed size. Keys are added to the newest filter; a key is reported as seen
+ * if any filter of the ring contains it. Every {@code window / generations}
+ * milliseconds the oldest filter is cleared and becomes the newest, so a key
+ * is remembered for at least {@code window * (generations - 1) / generations}
+ * and at most {@code window} milliseconds after it was last put. The
+ * memory used is fixed at construction time.
+ * <p>
+ * Not thread safe.
+ */
+class RotatingBloomFilter {
+
+  private final Clock clock;
+  private final long[][] bits;
+  private final long[] setBits;
+  private final long bitsPerFilter;
+  private final int hashFunctions;
+  private final long rotateIntervalMs;
+
+  private int current = 0;
+  private long currentStart;
+  private long rotations = 0;
+
+  /**
+   * @param maxBytes total memory for all the bit sets
+   * @param generations number of filters in the ring, at least two
+   * @param windowMs time a key is remembered for
+   * @param expectedKeys expected number of distinct keys per window, used to
+   *   pick the number of hash functions
+   */
+  RotatingBloomFilter(long maxBytes, int generations, long windowMs,
+      long expectedKeys, Clock clock) {
+    Preconditions.checkArgument(generations >= 2,
+        "Need at least two generations");
+    Preconditions.checkArgument(windowMs > 0, "Window must be positive");
+    Preconditions.checkArgument(expectedKeys > 0,
+        "Expected keys must be positive");
+    long wordsPerFilter = maxBytes / 8 / generations;
+    Preconditions.checkArgument(wordsPerFilter > 0 &&
+        wordsPerFilter <= Integer.MAX_VALUE,
+        "Memory budget of %s bytes out of range", maxBytes);
+
+    this.clock = clock;
+    this.bits = new long[generations][(int) wordsPerFilter];
+    this.setBits = new long[generations];
+    this.bitsPerFilter = wordsPerFilter * 64;
+    this.rotateIntervalMs = Math.max(1L, windowMs / generations);
+
+    // optimal k = m / n * ln 2, for the keys one filter sees
+    double keysPerFilter = Math.max(1.0, (double) expectedKeys / generations);
+    this.hashFunctions = Math.max(1, Math.min(16,
+        (int) Math.round(bitsPerFilter / keysPerFilter * Math.log(2))));
+
+    this.currentStart = clock.currentTimeMillis();
+  }
+
+  /**
+   * Returns whether the key may have been recorded within the window, without
+   * recording it. A {@code true} result is wrong with probability
+   * {@link #getFalsePositiveProbability()}; {@code false} is always right.
+   */
+  boolean mightContain(byte[] key) {
+    maybeRotate();
+
+    long hash1 = hash1(key);
+    long hash2 = hash2(key);
+    for (int gen = 0; gen < bits.length; gen++) {
+      if (contains(bits[gen], hash1, hash2)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records the key in the newest generation, which restarts its window.
+   */
+  void put(byte[] key) {
+    maybeRotate();
+
+    long hash1 = hash1(key);
+    long hash2 = hash2(key);
+    if (!contains(bits[current], hash1, hash2)) {
+      put(current, hash1, hash2);
+    }
+  }
+
+  private static long hash1(byte[] key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /** Always odd, so that stepping by it visits distinct bits. */
+  private static long hash2(byte[] key) {
+    long hash = 0x84222325cbf29ce4L;
+    for (byte b : key) {
+      hash = (hash ^ (b & 0xff)) * 0x9e3779b97f4a7c15L;
+    }
+    return mix(hash) | 1L;
+  }
+
+  private boolean contains(long[] words, long hash1, long hash2) {
+    long hash = hash1;
+    for (int i = 0; i < hashFunctions; i++) {
+      long index = (hash & Long.MAX_VALUE) % bitsPerFilter;
+      if ((words[(int) (index >>> 6)] & (1L << index)) == 0) {
+        return false;
+      }
+      hash += hash2;
+    }
+    return true;
+  }
+
+  private void put(int gen, long hash1, long hash2) {
+    long[] words = bits[gen];
+    long hash = hash1;
+    for (int i = 0; i < hashFunctions; i++) {
+      long index = (hash & Long.MAX_VALUE) % bitsPerFilter;
+      int word = (int) (index >>> 6);
+      long mask = 1L << index;
+      if ((words[word] & mask) == 0) {
+        words[word] |= mask;
+        setBits[gen]++;
+      }
+      hash += hash2;
+    }
+  }
+
+  private void maybeRotate() {
+    long now = clock.currentTimeMillis();
+    long elapsed = now - currentStart;
+    if (elapsed < rotateIntervalMs) {
+      return;
+    }
+    // after a long pause every generation may be stale
+    long steps = Math.min(bits.length, elapsed / rotateIntervalMs);
+    for (long i = 0; i < steps; i++) {
+      current = (current + 1) % bits.length;
+      Arrays.fill(bits[current], 0L);
+      setBits[current] = 0;
+      rotations++;
+    }
+    currentStart = now - (elapsed % rotateIntervalMs);
+  }
+
+  /**
+   * Estimated probability that {@link #mightContain(byte[])} reports a key
+   * that was never {@link #put(byte[]) put} as seen, given how full the
+   * filters currently are.
+   */
+  double getFalsePositiveProbability() {
+    double allMiss = 1.0;
+    for (int gen = 0; gen < bits.length; gen++) {
+      double fill = (double) setBits[gen] / bitsPerFilter;
+      allMiss *= 1.0 - Math.pow(fill, hashFunctions);
+    }
+    return 1.0 - allMiss;
+  }
+
+  long getRotations() {
+    return rotations;
+  }
+
+  int getHashFunctions() {
+    return hashFunctions;
+  }
+
+  /** Finalization step of MurmurHash3, spreads entropy to all bits. */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.util.List;
+import org.apache.flume.Event;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+
+/**
+ * Marker for {@link Interceptor}s that look at one {@link Event} at a time,
+ * typically to modify its headers in place (header-only) or to drop it
+ * (filter-only).
+ * <p>
+ * Implementations guarantee that:
+ * <ul>
+ * <li>{@link #intercept(List)} is equivalent to calling
+ * {@link #intercept(Event)} on every event of the list, in order, and keeping
+ * the non-{@code null} results;</li>
+ * <li>{@link #intercept(Event)} keeps no state between calls, so it may be
+ * invoked concurrently from several threads.</li>
+ * </ul>
+ * This lets the {@link InterceptorChain} fuse consecutive stateless
+ * interceptors into a single pass over a batch, and spread large batches
+ * across several threads.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface StatelessInterceptor extends Interceptor {
+}
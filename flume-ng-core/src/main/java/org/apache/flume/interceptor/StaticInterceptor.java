@@ -55,7 +55,7 @@ import static org.apache.flume.interceptor.StaticInterceptor.Constants.*;
  * </code>
  *
  */
-public class StaticInterceptor implements Interceptor {
+public class StaticInterceptor implements StatelessInterceptor {
 
   private static final Logger logger = LoggerFactory
       .getLogger(StaticInterceptor.class);
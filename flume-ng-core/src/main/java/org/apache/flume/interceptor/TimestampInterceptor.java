@@ -30,7 +30,7 @@ import static org.apache.flume.interceptor.TimestampInterceptor.Constants.*;
  * By convention, this timestamp header is named "timestamp" and its format
  * is a "stringified" long timestamp in milliseconds since the UNIX epoch.
  */
-public class TimestampInterceptor implements Interceptor {
+public class TimestampInterceptor implements StatelessInterceptor {
 
   private final boolean preserveExisting;
 
@@ -18,14 +18,18 @@
  */
 package org.apache.flume.serialization;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.reflect.ReflectDatumWriter;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -50,6 +54,11 @@ public abstract class AbstractAvroEventSerializer<T>
   private DatumWriter<T> writer = null;
   private DataFileWriter<T> dataFileWriter = null;
 
+  // reused by the encode() fast path
+  private final DatumBuffer datumBuffer = new DatumBuffer();
+  private final BinaryEncoder encoder =
+      EncoderFactory.get().directBinaryEncoder(datumBuffer, null);
+
   /**
    * Returns the stream to serialize data into.
    */
@@ -68,6 +77,17 @@ public abstract class AbstractAvroEventSerializer<T>
    */
   protected abstract T convert(Event event);
 
+  /**
+   * Optional fast path: encode the event as a datum of {@link #getSchema()}
+   * directly, instead of converting it and writing the result by
+   * reflection. The encoder is reused from one event to the next.
+   * @return {@code false} to fall back to {@link #convert(Event)}
+   */
+  protected boolean encode(Event event, BinaryEncoder encoder)
+      throws IOException {
+    return false;
+  }
+
   @Override
   public void configure(Context context) {
 
@@ -104,6 +124,12 @@ public abstract class AbstractAvroEventSerializer<T>
 
   @Override
   public void write(Event event) throws IOException {
+    datumBuffer.reset();
+    if (encode(event, encoder)) {
+      encoder.flush();
+      dataFileWriter.appendEncoded(datumBuffer.asByteBuffer());
+      return;
+    }
     T destType = convert(event);
     dataFileWriter.append(destType);
   }
@@ -124,4 +150,11 @@ public abstract class AbstractAvroEventSerializer<T>
     return false;
   }
 
+  /** Exposes the bytes written so far without copying them */
+  private static class DatumBuffer extends ByteArrayOutputStream {
+    ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
 }
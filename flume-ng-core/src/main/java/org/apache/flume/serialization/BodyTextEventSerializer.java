@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.event.EventHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,7 +69,7 @@ public class BodyTextEventSerializer implements EventSerializer {
 
   @Override
   public void write(Event e) throws IOException {
-    out.write(e.getBody());
+    EventHelper.writeBody(e, out);
     if (appendNewline) {
       out.write('\n');
     }
@@ -0,0 +1,796 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p/>A {@link ResettableInputStream} over a compressed file, decompressing
+ * on the fly. Positions, as seen by {@link #tell()}, {@link #seek(long)} and
+ * the {@link PositionTracker}, are offsets into the uncompressed data.
+ *
+ * <p/>A compressed file is read as a sequence of independently decodable
+ * segments: gzip members, bzip2 streams, or snappy chunks (in the
+ * snappy-java stream format). The start of a segment is a restart point, a
+ * pair of compressed and uncompressed offsets from which decoding can
+ * resume. Restart points at least {@code checkpointInterval} uncompressed
+ * bytes apart are appended to an index file as they are passed. Seeking
+ * backwards, or resuming from a tracked position after a restart, then only
+ * decompresses from the closest restart point rather than from the start of
+ * the file. A file that is a single gzip member or bzip2 stream has a single
+ * restart point, so resuming it decompresses (but does not deserialize) the
+ * data before the tracked position again.
+ *
+ * <p/>Bytes read since the last {@link #mark()} are kept in memory, so that
+ * {@link #reset()} after a failed batch does not need to decompress again.
+ *
+ * <p/>This class makes the following assumptions:
+ * <ol>
+ *   <li>The underlying file is not changing while it is being read</li>
+ * </ol>
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class CompressedFileInputStream extends ResettableInputStream
+    implements RemoteMarkable, LineReadable {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(CompressedFileInputStream.class);
+
+  public static final int DEFAULT_BUF_SIZE = 65536;
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 8L * 1024 * 1024;
+
+  /** cap on the bytes retained for reset(), to bound memory without marks */
+  private static final int MAX_RETAINED = 16 * 1024 * 1024;
+
+  public enum Codec {
+    GZIP(".gz", ".gzip"),
+    BZIP2(".bz2", ".bzip2"),
+    SNAPPY(".snappy");
+
+    private final String[] suffixes;
+
+    private Codec(String... suffixes) {
+      this.suffixes = suffixes;
+    }
+
+    /**
+     * @return the codec matching the file name suffix, or {@code null} if
+     * the file does not look compressed
+     */
+    public static Codec forFileName(String fileName) {
+      String name = fileName.toLowerCase();
+      for (Codec codec : values()) {
+        for (String suffix : codec.suffixes) {
+          if (name.endsWith(suffix)) {
+            return codec;
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  private final File file;
+  private final PositionTracker tracker;
+  private final File indexFile;
+  private final long checkpointInterval;
+  private final Charset charset;
+  private final CharsetDecoder decoder;
+  private final CharBuffer charBuf;
+  private final LineScanner lineScanner;
+  private final RawInput raw;
+  private final SegmentDecoder segments;
+
+  /** restart points: uncompressed offset -> compressed offset */
+  private final TreeMap<Long, Long> index = new TreeMap<Long, Long>();
+  private DataOutputStream indexOut;
+
+  /** decompressed data; buf.get(0) is at uncompressed offset bufStart */
+  private ByteBuffer buf;
+  private long bufStart;
+  private boolean inSegment;
+  private boolean eof;
+
+  private long markPosition;
+  private long position;
+  private long syncPosition;
+  private int pendingLowSurrogate = -1;
+
+  /**
+   * @param file
+   *        Compressed file to read
+   *
+   * @param tracker
+   *        PositionTracker implementation to make offset position durable
+   *
+   * @param codec
+   *        Compression format of the file
+   *
+   * @param charset
+   *        Character set used for decoding text, as necessary
+   *
+   * @param indexFile
+   *        File in which restart points are kept across restarts
+   *
+   * @param checkpointInterval
+   *        Minimum number of uncompressed bytes between recorded restart
+   *        points
+   *
+   * @throws IOException
+   */
+  public CompressedFileInputStream(File file, PositionTracker tracker,
+      Codec codec, Charset charset, File indexFile, long checkpointInterval)
+      throws IOException {
+    Preconditions.checkNotNull(codec, "codec must not be null");
+    Preconditions.checkNotNull(indexFile, "indexFile must not be null");
+    this.file = file;
+    this.tracker = tracker;
+    this.indexFile = indexFile;
+    this.checkpointInterval = checkpointInterval;
+    this.charset = charset;
+    this.decoder = charset.newDecoder();
+    // room for both halves of a surrogate pair
+    this.charBuf = CharBuffer.allocate(2);
+    this.lineScanner = LineScanner.forCharset(charset);
+    this.raw = new RawInput(file);
+    switch (codec) {
+      case GZIP:
+        segments = new GzipDecoder();
+        break;
+      case BZIP2:
+        segments = new Bzip2Decoder();
+        break;
+      case SNAPPY:
+        segments = new SnappyDecoder();
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported codec " + codec);
+    }
+    this.buf = ByteBuffer.allocate(DEFAULT_BUF_SIZE);
+    buf.flip();
+
+    index.put(0L, 0L);
+    loadIndex();
+    this.indexOut = new DataOutputStream(
+        new FileOutputStream(indexFile, true));
+
+    this.position = -1; // force a restart in seek()
+    seek(tracker.getPosition());
+    this.markPosition = tracker.getPosition();
+  }
+
+  private void loadIndex() throws IOException {
+    if (!indexFile.exists()) {
+      return;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+    try {
+      while (true) {
+        long uncompressed = in.readLong();
+        long compressed = in.readLong();
+        index.put(uncompressed, compressed);
+      }
+    } catch (EOFException e) {
+      // done; a torn trailing entry is ignored
+    } finally {
+      in.close();
+    }
+    logger.debug("Loaded {} restart points for {}", index.size(), file);
+  }
+
+  private void addRestartPoint(long compressed, long uncompressed)
+      throws IOException {
+    if (uncompressed - index.lastKey() < checkpointInterval) {
+      return;
+    }
+    index.put(uncompressed, compressed);
+    indexOut.writeLong(uncompressed);
+    indexOut.writeLong(compressed);
+    indexOut.flush();
+  }
+
+  /**
+   * Decompress more data into the buffer, dropping bytes that are neither
+   * ahead of the current position nor needed to reset to the mark.
+   * @return false at the end of the file
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+
+    long keepFrom = position;
+    if (markPosition >= bufStart && markPosition < keepFrom &&
+        position - markPosition <= MAX_RETAINED) {
+      keepFrom = markPosition;
+    }
+    int drop = (int) Math.min(keepFrom - bufStart, buf.limit());
+    int pos = buf.position();
+    buf.position(drop);
+    buf.compact();
+    bufStart += drop;
+    if (!buf.hasRemaining()) {
+      ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+      buf.flip();
+      grown.put(buf);
+      buf = grown;
+    }
+
+    int n = -1;
+    while (n <= 0) {
+      if (!inSegment) {
+        long compressed = raw.position();
+        if (!segments.start(compressed)) {
+          eof = true;
+          break;
+        }
+        addRestartPoint(compressed, bufStart + buf.position());
+        inSegment = true;
+      }
+      n = segments.read(buf.array(), buf.arrayOffset() + buf.position(),
+          buf.remaining());
+      if (n < 0) {
+        inSegment = false;
+      }
+    }
+    if (n > 0) {
+      buf.position(buf.position() + n);
+    }
+    buf.flip();
+    buf.position(pos - drop);
+    return n > 0;
+  }
+
+  /**
+   * Make sure there is at least one byte available at the current position.
+   * @return false at the end of the file
+   */
+  private boolean ensureAvailable() throws IOException {
+    while (!buf.hasRemaining()) {
+      if (!fill()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    int b = buf.get() & 0xFF;
+    incrPosition(1, true);
+    return b;
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len)
+      throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    len = Math.min(len, buf.remaining());
+    buf.get(b, off, len);
+    incrPosition(len, true);
+    return len;
+  }
+
+  @Override
+  public synchronized int readChar() throws IOException {
+    if (pendingLowSurrogate != -1) {
+      int c = pendingLowSurrogate;
+      pendingLowSurrogate = -1;
+      syncPosition = position;
+      return c;
+    }
+
+    int start;
+    do {
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      start = buf.position();
+      decodeChar();
+      // a partial character at the end of the buffer needs more input
+    } while (charBuf.position() == 0 && buf.position() == start && fill());
+
+    int delta = buf.position() - start;
+    charBuf.flip();
+    if (!charBuf.hasRemaining()) {
+      incrPosition(delta, false);
+      return -1;
+    }
+
+    char c = charBuf.get();
+    if (charBuf.hasRemaining()) {
+      // don't persist a mark between the two chars of a surrogate pair
+      pendingLowSurrogate = charBuf.get();
+      incrPosition(delta, false);
+    } else {
+      incrPosition(delta, !Character.isHighSurrogate(c));
+    }
+    return c;
+  }
+
+  /**
+   * Decode a single char, or both chars of a surrogate pair, into charBuf.
+   */
+  private void decodeChar() throws IOException {
+    charBuf.clear();
+    charBuf.limit(1);
+    CoderResult res = decoder.decode(buf, charBuf, eof);
+    if (res.isOverflow() && charBuf.position() == 0) {
+      charBuf.limit(2);
+      res = decoder.decode(buf, charBuf, eof);
+    }
+    if (res.isMalformed() || res.isUnmappable()) {
+      res.throwException();
+    }
+  }
+
+  @Override
+  public boolean isLineReadable() {
+    return lineScanner != null;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return charset;
+  }
+
+  @Override
+  public synchronized byte[] readLine(int maxLineLength) throws IOException {
+    if (lineScanner == null) {
+      throw new UnsupportedOperationException("Line scanning is not " +
+          "supported for charset " + charset.name());
+    }
+    Preconditions.checkState(pendingLowSurrogate == -1,
+        "Cannot read a line in the middle of a surrogate pair");
+
+    lineScanner.reset(maxLineLength);
+    int scanned = 0;
+    boolean more = ensureAvailable();
+    while (more) {
+      int start = buf.position() + scanned;
+      int end = lineScanner.scan(buf, start, buf.limit());
+      scanned += end - start;
+      if (lineScanner.isDone()) {
+        break;
+      }
+      // the whole line stays buffered until it is complete
+      more = fill();
+    }
+
+    if (lineScanner.isTruncated()) {
+      logger.warn("Line length exceeds max ({}), truncating line!",
+          maxLineLength);
+    }
+
+    if (scanned == 0 && !lineScanner.isTerminated()) {
+      syncPosition = position;
+      return null;
+    }
+
+    byte[] line = new byte[scanned];
+    buf.get(line);
+    incrPosition(scanned, true);
+    if (lineScanner.isTerminated()) {
+      buf.get(); // consume the '\n'
+      incrPosition(1, true);
+    }
+    int len = lineScanner.stripCarriageReturn(line, scanned);
+    return len == scanned ? line : Arrays.copyOf(line, len);
+  }
+
+  @Override
+  public synchronized void mark() throws IOException {
+    markPosition(tell());
+  }
+
+  @Override
+  public synchronized void markPosition(long position) throws IOException {
+    tracker.storePosition(position);
+    markPosition = position;
+  }
+
+  @Override
+  public long getMarkPosition() throws IOException {
+    return tracker.getPosition();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    seek(tracker.getPosition());
+  }
+
+  @Override
+  public synchronized long tell() throws IOException {
+    logger.trace("Tell position: {}", syncPosition);
+
+    return syncPosition;
+  }
+
+  @Override
+  public synchronized void seek(long newPos) throws IOException {
+    logger.trace("Seek to position: {}", newPos);
+
+    decoder.reset();
+    pendingLowSurrogate = -1;
+
+    long bufEnd = bufStart + buf.limit();
+    if (newPos < bufStart || position < 0) {
+      // restart decoding from the closest restart point
+      Map.Entry<Long, Long> restart = index.floorEntry(newPos);
+      logger.debug("Restarting decompression of {} at offset {} to seek " +
+          "to {}", new Object[] { file, restart.getValue(), newPos });
+      raw.seek(restart.getValue());
+      inSegment = false;
+      eof = false;
+      bufStart = restart.getKey();
+      bufEnd = bufStart;
+      buf.clear();
+      buf.flip();
+    }
+
+    // skip forward, decompressing but not keeping the skipped data
+    while (newPos > bufEnd) {
+      bufStart = bufEnd;
+      buf.clear();
+      buf.flip();
+      position = bufStart;
+      if (!fill()) {
+        break;
+      }
+      bufEnd = bufStart + buf.limit();
+    }
+    if (newPos > bufEnd) {
+      throw new EOFException("Cannot seek to " + newPos + ", " + file +
+          " has only " + bufEnd + " uncompressed bytes");
+    }
+
+    buf.position((int) (newPos - bufStart));
+    position = syncPosition = newPos;
+  }
+
+  private void incrPosition(int incr, boolean updateSyncPosition) {
+    position += incr;
+    if (updateSyncPosition) {
+      syncPosition = position;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    tracker.close();
+    indexOut.close();
+    raw.close();
+  }
+
+  /**
+   * Buffered, seekable view of the compressed file which knows the offset
+   * of the next byte it will return.
+   */
+  private static class RawInput extends InputStream {
+    private final FileInputStream in;
+    private final FileChannel chan;
+    private final byte[] buf = new byte[DEFAULT_BUF_SIZE];
+    private long bufStart;
+    private int pos;
+    private int limit;
+
+    RawInput(File file) throws IOException {
+      this.in = new FileInputStream(file);
+      this.chan = in.getChannel();
+    }
+
+    long position() {
+      return bufStart + pos;
+    }
+
+    void seek(long offset) throws IOException {
+      chan.position(offset);
+      bufStart = offset;
+      pos = limit = 0;
+    }
+
+    /** @return false at the end of the file */
+    private boolean ensureAvailable() throws IOException {
+      if (pos < limit) {
+        return true;
+      }
+      bufStart += limit;
+      pos = limit = 0;
+      int n = in.read(buf, 0, buf.length);
+      if (n <= 0) {
+        return false;
+      }
+      limit = n;
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return ensureAvailable() ? buf[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      len = Math.min(len, limit - pos);
+      System.arraycopy(buf, pos, b, off, len);
+      pos += len;
+      return len;
+    }
+
+    void readFully(byte[] b) throws IOException {
+      int off = 0;
+      while (off < b.length) {
+        int n = read(b, off, b.length - off);
+        if (n < 0) {
+          throw new EOFException("Unexpected end of compressed data");
+        }
+        off += n;
+      }
+    }
+
+    /** hand all buffered bytes to the inflater */
+    boolean feed(Inflater inflater) throws IOException {
+      if (!ensureAvailable()) {
+        return false;
+      }
+      inflater.setInput(buf, pos, limit - pos);
+      pos = limit;
+      return true;
+    }
+
+    /** return bytes given to, but not consumed by, the inflater */
+    void unread(int n) {
+      pos -= n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Decodes one segment of the compressed file at a time.
+   */
+  private abstract class SegmentDecoder {
+    /**
+     * Start decoding the segment at the current raw input position.
+     * @return false if there are no more segments
+     */
+    abstract boolean start(long offset) throws IOException;
+
+    /**
+     * @return decompressed bytes of the current segment, or -1 at its end
+     */
+    abstract int read(byte[] b, int off, int len) throws IOException;
+  }
+
+  /** One gzip member per segment, as produced by concatenating gzip files */
+  private class GzipDecoder extends SegmentDecoder {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private long size;
+
+    @Override
+    boolean start(long offset) throws IOException {
+      int id1 = raw.read();
+      int id2 = raw.read();
+      if (id1 == -1) {
+        return false;
+      }
+      if (id1 != 0x1f || id2 != 0x8b) {
+        if (offset > 0) {
+          // like GZIPInputStream, ignore trailing garbage after a member
+          logger.debug("Ignoring trailing data at offset {} of {}",
+              offset, file);
+          return false;
+        }
+        throw new IOException("Not in GZIP format: " + file);
+      }
+      if (raw.read() != 8) {
+        throw new IOException("Unsupported compression method in " + file);
+      }
+      int flags = raw.read();
+      skip(6); // mtime, xfl, os
+      if ((flags & FEXTRA) != 0) {
+        skip(raw.read() | (raw.read() << 8));
+      }
+      if ((flags & FNAME) != 0) {
+        skipString();
+      }
+      if ((flags & FCOMMENT) != 0) {
+        skipString();
+      }
+      if ((flags & FHCRC) != 0) {
+        skip(2);
+      }
+      inflater.reset();
+      crc.reset();
+      size = 0;
+      return true;
+    }
+
+    @Override
+    int read(byte[] b, int off, int len) throws IOException {
+      try {
+        while (true) {
+          if (inflater.finished()) {
+            raw.unread(inflater.getRemaining());
+            readTrailer();
+            return -1;
+          }
+          if (inflater.needsInput() && !raw.feed(inflater)) {
+            throw new EOFException("Unexpected end of gzip member in " +
+                file);
+          }
+          int n = inflater.inflate(b, off, len);
+          if (n > 0) {
+            crc.update(b, off, n);
+            size += n;
+            return n;
+          }
+          if (inflater.needsDictionary()) {
+            throw new IOException("Corrupt gzip member in " + file);
+          }
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt gzip member in " + file, e);
+      }
+    }
+
+    private void readTrailer() throws IOException {
+      byte[] trailer = new byte[8];
+      raw.readFully(trailer);
+      ByteBuffer t = ByteBuffer.wrap(trailer).order(ByteOrder.LITTLE_ENDIAN);
+      if ((t.getInt() & 0xFFFFFFFFL) != crc.getValue() ||
+          (t.getInt() & 0xFFFFFFFFL) != (size & 0xFFFFFFFFL)) {
+        throw new IOException("Corrupt gzip trailer in " + file);
+      }
+    }
+
+    private void skip(int n) throws IOException {
+      for (int i = 0; i < n; i++) {
+        if (raw.read() == -1) {
+          throw new EOFException("Unexpected end of gzip header in " + file);
+        }
+      }
+    }
+
+    private void skipString() throws IOException {
+      int c;
+      while ((c = raw.read()) != 0) {
+        if (c == -1) {
+          throw new EOFException("Unexpected end of gzip header in " + file);
+        }
+      }
+    }
+  }
+
+  /** One bzip2 stream per segment, as produced by pbzip2 */
+  private class Bzip2Decoder extends SegmentDecoder {
+    private BZip2CompressorInputStream stream;
+
+    @Override
+    boolean start(long offset) throws IOException {
+      int magic = raw.read();
+      if (magic == -1) {
+        return false;
+      }
+      raw.unread(1);
+      stream = new BZip2CompressorInputStream(raw, false);
+      return true;
+    }
+
+    @Override
+    int read(byte[] b, int off, int len) throws IOException {
+      return stream.read(b, off, len);
+    }
+  }
+
+  /** One chunk of the snappy-java stream format per segment */
+  private class SnappyDecoder extends SegmentDecoder {
+    private final byte[] header = new byte[16];
+    private final byte[] length = new byte[4];
+    private byte[] chunk;
+    private int chunkPos;
+
+    @Override
+    boolean start(long offset) throws IOException {
+      if (offset == 0) {
+        // magic "\u0082SNAPPY\0", format version, compatible version
+        if (raw.read(header, 0, 1) < 0) {
+          return false;
+        }
+        raw.unread(1);
+        raw.readFully(header);
+        if ((header[0] & 0xFF) != 0x82 || header[1] != 'S' ||
+            header[6] != 'Y') {
+          throw new IOException("Not in snappy stream format: " + file);
+        }
+      }
+      if (raw.read(length, 0, 1) < 0) {
+        return false;
+      }
+      raw.unread(1);
+      raw.readFully(length);
+      byte[] compressed = new byte[ByteBuffer.wrap(length).getInt()];
+      raw.readFully(compressed);
+      chunk = Snappy.uncompress(compressed);
+      chunkPos = 0;
+      return true;
+    }
+
+    @Override
+    int read(byte[] b, int off, int len) throws IOException {
+      if (chunkPos == chunk.length) {
+        return -1;
+      }
+      len = Math.min(len, chunk.length - chunkPos);
+      System.arraycopy(chunk, chunkPos, b, off, len);
+      chunkPos += len;
+      return len;
+    }
+  }
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.collect.Lists;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.apache.flume.conf.ConfigurationException;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A deserializer for binary records separated by an arbitrary sequence of
+ * one or more bytes, given in hexadecimal (e.g. {@code 1e} or
+ * {@code 0d0a}). The separator is not part of the event body, and the last
+ * record need not be followed by one.
+ * <p>
+ * The stream is read in bulk into a buffer that is scanned for the
+ * separator. Because of this read-ahead, {@link #mark()} moves the stream
+ * back to the end of the last record returned before marking it.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class DelimitedDeserializer implements EventDeserializer {
+
+  private static final Logger logger = LoggerFactory.getLogger
+      (DelimitedDeserializer.class);
+
+  private static final int INITIAL_BUF_SIZE = 64 * 1024;
+
+  private final ResettableInputStream in;
+  private final byte[] delimiter;
+  private final int maxRecordLength;
+  private byte[] buf;
+  private int pos;
+  private int limit;
+  private volatile boolean isOpen;
+
+  public static final String DELIMITER_KEY = "delimiter";
+  public static final String DELIMITER_DFLT = "0a";
+
+  public static final String MAX_RECORD_LENGTH_KEY = "maxRecordLength";
+  public static final int MAX_RECORD_LENGTH_DFLT = 1024 * 1024;
+
+  DelimitedDeserializer(Context context, ResettableInputStream in) {
+    this.in = in;
+    this.delimiter = parseHex(context.getString(DELIMITER_KEY,
+        DELIMITER_DFLT));
+    this.maxRecordLength = context.getInteger(MAX_RECORD_LENGTH_KEY,
+        MAX_RECORD_LENGTH_DFLT);
+    if (maxRecordLength <= 0) {
+      throw new ConfigurationException("Configuration parameter " +
+          MAX_RECORD_LENGTH_KEY + " must be greater than zero: " +
+          maxRecordLength);
+    }
+    this.buf = new byte[Math.min(INITIAL_BUF_SIZE,
+        maxRecordLength + delimiter.length)];
+    this.isOpen = true;
+  }
+
+  /**
+   * Reads the next delimited record and returns an event
+   * @return Event containing the record, or {@code null} at the end of the
+   * stream
+   * @throws IOException
+   */
+  @Override
+  public Event readEvent() throws IOException {
+    ensureOpen();
+    // offset from pos at which the delimiter may start
+    int scanned = 0;
+    while (true) {
+      int found = indexOfDelimiter(pos + scanned);
+      if (found >= 0) {
+        byte[] body = Arrays.copyOfRange(buf, pos, found);
+        pos = found + delimiter.length;
+        return EventBuilder.withBody(body);
+      }
+      // a record of exactly maxRecordLength bytes still needs its delimiter
+      if (limit - pos >= maxRecordLength + delimiter.length) {
+        logger.warn("Record length exceeds max ({}), truncating record!",
+            maxRecordLength);
+        byte[] body = Arrays.copyOfRange(buf, pos, pos + maxRecordLength);
+        pos += maxRecordLength;
+        return EventBuilder.withBody(body);
+      }
+      // a delimiter may straddle the end of the buffered bytes
+      scanned = Math.max(0, limit - pos - delimiter.length + 1);
+      if (!fill()) {
+        if (pos == limit) {
+          return null;
+        }
+        byte[] body = Arrays.copyOfRange(buf, pos, limit);
+        pos = limit;
+        return EventBuilder.withBody(body);
+      }
+    }
+  }
+
+  /**
+   * Batch record read
+   * @param numEvents Maximum number of events to return.
+   * @return List of events containing read records
+   * @throws IOException
+   */
+  @Override
+  public List<Event> readEvents(int numEvents) throws IOException {
+    ensureOpen();
+    List<Event> events = Lists.newArrayListWithCapacity(numEvents);
+    for (int i = 0; i < numEvents; i++) {
+      Event event = readEvent();
+      if (event != null) {
+        events.add(event);
+      } else {
+        break;
+      }
+    }
+    return events;
+  }
+
+  @Override
+  public void mark() throws IOException {
+    ensureOpen();
+    if (pos < limit) {
+      // give back the bytes read ahead of the last record
+      in.seek(in.tell() - (limit - pos));
+    }
+    pos = limit = 0;
+    in.mark();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    ensureOpen();
+    pos = limit = 0;
+    in.reset();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isOpen) {
+      reset();
+      in.close();
+      isOpen = false;
+    }
+  }
+
+  private void ensureOpen() {
+    if (!isOpen) {
+      throw new IllegalStateException("Serializer has been closed");
+    }
+  }
+
+  /**
+   * @return the offset in {@code buf} of the first delimiter starting at or
+   * after {@code from} and ending before {@code limit}, or -1
+   */
+  private int indexOfDelimiter(int from) {
+    byte first = delimiter[0];
+    int last = limit - delimiter.length;
+    outer:
+    for (int i = from; i <= last; i++) {
+      if (buf[i] != first) {
+        continue;
+      }
+      for (int j = 1; j < delimiter.length; j++) {
+        if (buf[i + j] != delimiter[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Move the unread bytes to the front of the buffer, growing it if needed,
+   * and read more after them.
+   * @return false at the end of the stream
+   */
+  private boolean fill() throws IOException {
+    int unread = limit - pos;
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, unread);
+      pos = 0;
+      limit = unread;
+    }
+    if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, Math.min(buf.length * 2,
+          maxRecordLength + delimiter.length));
+    }
+    int n = in.read(buf, limit, buf.length - limit);
+    if (n == -1) {
+      return false;
+    }
+    limit += n;
+    return true;
+  }
+
+  static byte[] parseHex(String hex) {
+    if (hex.isEmpty() || hex.length() % 2 != 0) {
+      throw new ConfigurationException("Configuration parameter " +
+          DELIMITER_KEY + " must be a non-empty, even-length hex string: " +
+          hex);
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      try {
+        bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2),
+            16);
+      } catch (NumberFormatException e) {
+        throw new ConfigurationException("Configuration parameter " +
+            DELIMITER_KEY + " is not a hex string: " + hex, e);
+      }
+    }
+    return bytes;
+  }
+
+  public static class Builder implements EventDeserializer.Builder {
+
+    @Override
+    public EventDeserializer build(Context context, ResettableInputStream in) {
+      return new DelimitedDeserializer(context, in);
+    }
+
+  }
+
+}
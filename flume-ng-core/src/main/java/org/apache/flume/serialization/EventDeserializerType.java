@@ -26,6 +26,8 @@ import org.apache.flume.annotations.InterfaceStability;
 public enum EventDeserializerType {
   LINE(LineDeserializer.Builder.class),
   AVRO(AvroEventDeserializer.Builder.class),
+  LENGTH_PREFIXED(LengthPrefixedDeserializer.Builder.class),
+  DELIMITED(DelimitedDeserializer.Builder.class),
   OTHER(null);
 
   private final Class<? extends EventDeserializer.Builder> builderClass;
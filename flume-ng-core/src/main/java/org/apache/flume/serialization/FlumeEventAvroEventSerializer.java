@@ -19,10 +19,16 @@
 package org.apache.flume.serialization;
 
 import org.apache.flume.serialization.AbstractAvroEventSerializer;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.util.Utf8;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.event.ByteBufferEvent;
 import org.apache.flume.serialization.EventSerializer;
 
 public class FlumeEventAvroEventSerializer extends AbstractAvroEventSerializer<Event> {
@@ -32,7 +38,11 @@ public class FlumeEventAvroEventSerializer extends AbstractAvroEventSerializer<E
       " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
       " {\"name\": \"body\", \"type\": \"bytes\" } ] }");
 
+  /** Header keys are few and repeat; keep their encoded form */
+  private static final int MAX_CACHED_KEYS = 1024;
+
   private final OutputStream out;
+  private final Map<String, Utf8> keyCache = new HashMap<String, Utf8>();
 
   private FlumeEventAvroEventSerializer(OutputStream out) {
     this.out = out;
@@ -58,6 +68,41 @@ public class FlumeEventAvroEventSerializer extends AbstractAvroEventSerializer<E
     return event;
   }
 
+  /**
+   * Writes the headers and body straight from the event, rather than by
+   * reflecting on the fields of its implementation class.
+   */
+  @Override
+  protected boolean encode(Event event, BinaryEncoder encoder)
+      throws IOException {
+    Map<String, String> headers = event.getHeaders();
+    encoder.writeMapStart();
+    if (headers == null) {
+      encoder.setItemCount(0);
+    } else {
+      encoder.setItemCount(headers.size());
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        encoder.startItem();
+        encoder.writeString(encodeKey(entry.getKey()));
+        encoder.writeString(entry.getValue());
+      }
+    }
+    encoder.writeMapEnd();
+    encoder.writeBytes(ByteBufferEvent.bodyBuffer(event));
+    return true;
+  }
+
+  private Utf8 encodeKey(String key) {
+    Utf8 utf8 = keyCache.get(key);
+    if (utf8 == null) {
+      utf8 = new Utf8(key);
+      if (keyCache.size() < MAX_CACHED_KEYS) {
+        keyCache.put(key, utf8);
+      }
+    }
+    return utf8;
+  }
+
   public static class Builder implements EventSerializer.Builder {
 
     @Override
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.event.EventHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,7 +70,7 @@ public class HeaderAndBodyTextEventSerializer implements EventSerializer {
   @Override
   public void write(Event e) throws IOException {
     out.write((e.getHeaders() + " ").getBytes());
-    out.write(e.getBody());
+    EventHelper.writeBody(e, out);
     if (appendNewline) {
       out.write('\n');
     }
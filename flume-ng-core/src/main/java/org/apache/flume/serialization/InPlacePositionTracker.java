@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.apache.flume.tools.PlatformDetect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p/>{@link PositionTracker} that keeps the position in one of two
+ * fixed-size record slots, overwritten in place. Each
+ * {@link #storePosition(long)} is a single small positioned write to the
+ * older slot, so the cost of a mark is constant and the file never grows.
+ *
+ * <p/>File layout: a header holding a magic number, a format version and the
+ * target path, followed by two slots of {@code (sequence, position,
+ * checksum)}. At construction time the valid slot with the highest sequence
+ * number wins, so a write torn by a crash only loses the latest position,
+ * never the previous one.
+ *
+ * <p/>Writes go to the OS page cache. Depending on {@code syncIntervalMs}
+ * they are also forced to disk on every store ({@code 0}), at most once per
+ * interval and on close (positive values), or never (negative values).
+ *
+ * <p/>Note: This class is not thread-safe.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class InPlacePositionTracker implements PositionTracker {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(InPlacePositionTracker.class);
+
+  private static final int MAGIC = 0x464C5054; // "FLPT"
+  private static final int VERSION = 1;
+  private static final int SLOT_SIZE = 24;
+
+  private final File trackerFile;
+  private final RandomAccessFile file;
+  private final FileChannel chan;
+  private final ByteBuffer slotBuf;
+  private final CRC32 crc;
+  private final long slotsOffset;
+  private final long syncIntervalMs;
+  private final String target;
+
+  private long sequence;
+  private long position;
+  private long lastSyncMs;
+  private boolean dirty;
+  private boolean isOpen;
+
+  /**
+   * Open the tracker file if it exists, or create it for the given target.
+   * As with {@link DurablePositionTracker}, the target stored in an existing
+   * file takes precedence over the one passed in.
+   * @param trackerFile
+   * @param target
+   * @param syncIntervalMs
+   * @throws IOException
+   */
+  public InPlacePositionTracker(File trackerFile, String target,
+      long syncIntervalMs) throws IOException {
+
+    Preconditions.checkNotNull(trackerFile, "trackerFile must not be null");
+    Preconditions.checkNotNull(target, "target must not be null");
+
+    this.trackerFile = trackerFile;
+    this.syncIntervalMs = syncIntervalMs;
+    this.slotBuf = ByteBuffer.allocate(SLOT_SIZE);
+    this.crc = new CRC32();
+
+    if (!trackerFile.exists()) {
+      create(trackerFile, target);
+    }
+
+    this.file = new RandomAccessFile(trackerFile, "rw");
+    this.chan = file.getChannel();
+    try {
+      ByteBuffer header = ByteBuffer.allocate(12);
+      readFully(header, 0);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a position tracker file: " + trackerFile);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported position tracker version " +
+            version + " in " + trackerFile);
+      }
+      byte[] targetBytes = new byte[header.getInt()];
+      readFully(ByteBuffer.wrap(targetBytes), 12);
+      this.target = new String(targetBytes, Charsets.UTF_8);
+      this.slotsOffset = 12 + targetBytes.length;
+
+      if (!readSlots()) {
+        throw new IOException("No valid position record in " + trackerFile);
+      }
+    } catch (IOException e) {
+      chan.close();
+      file.close();
+      throw e;
+    }
+
+    lastSyncMs = System.currentTimeMillis();
+    isOpen = true;
+  }
+
+  /**
+   * Write the header and an initial zero position to a temp file, then
+   * rename it into place, so a crash never leaves a half-created tracker.
+   */
+  private void create(File trackerFile, String target) throws IOException {
+    byte[] targetBytes = target.getBytes(Charsets.UTF_8);
+    ByteBuffer buf = ByteBuffer.allocate(12 + targetBytes.length +
+        2 * SLOT_SIZE);
+    buf.putInt(MAGIC).putInt(VERSION).putInt(targetBytes.length);
+    buf.put(targetBytes);
+    fillSlot(buf, 0L, 0L);
+    fillSlot(buf, -1L, 0L);
+    buf.flip();
+
+    File tmp = File.createTempFile(trackerFile.getName(), ".tmp",
+        trackerFile.getAbsoluteFile().getParentFile());
+    RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+    try {
+      while (buf.hasRemaining()) {
+        out.getChannel().write(buf);
+      }
+      out.getChannel().force(true);
+    } finally {
+      out.close();
+    }
+
+    if (PlatformDetect.isWindows() && trackerFile.exists()) {
+      trackerFile.delete();
+    }
+    if (!tmp.renameTo(trackerFile)) {
+      tmp.delete();
+      throw new IOException("Unable to rename " + tmp + " to " + trackerFile);
+    }
+  }
+
+  /**
+   * Load the newest valid slot.
+   * @return false if neither slot holds a valid record
+   */
+  private boolean readSlots() throws IOException {
+    boolean found = false;
+    for (int i = 0; i < 2; i++) {
+      slotBuf.clear();
+      if (chan.read(slotBuf, slotsOffset + i * SLOT_SIZE) < SLOT_SIZE) {
+        continue;
+      }
+      slotBuf.flip();
+      long seq = slotBuf.getLong();
+      long pos = slotBuf.getLong();
+      long checksum = slotBuf.getLong();
+      if (seq < 0 || checksum != checksum(seq, pos)) {
+        logger.debug("Ignoring invalid slot {} in {}", i, trackerFile);
+        continue;
+      }
+      if (!found || seq > sequence) {
+        sequence = seq;
+        position = pos;
+        found = true;
+      }
+    }
+    return found;
+  }
+
+  private void readFully(ByteBuffer buf, long offset) throws IOException {
+    while (buf.hasRemaining()) {
+      if (chan.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("Unexpected end of position tracker file " +
+            trackerFile);
+      }
+    }
+    buf.flip();
+  }
+
+  private void fillSlot(ByteBuffer buf, long seq, long pos) {
+    buf.putLong(seq).putLong(pos).putLong(checksum(seq, pos));
+  }
+
+  private long checksum(long seq, long pos) {
+    crc.reset();
+    for (int i = 56; i >= 0; i -= 8) {
+      crc.update((int) (seq >>> i));
+    }
+    for (int i = 56; i >= 0; i -= 8) {
+      crc.update((int) (pos >>> i));
+    }
+    return crc.getValue();
+  }
+
+  @Override
+  public synchronized void storePosition(long position) throws IOException {
+    long seq = sequence + 1;
+    slotBuf.clear();
+    fillSlot(slotBuf, seq, position);
+    slotBuf.flip();
+    long offset = slotsOffset + (seq & 1) * SLOT_SIZE;
+    while (slotBuf.hasRemaining()) {
+      chan.write(slotBuf, offset + slotBuf.position());
+    }
+    this.sequence = seq;
+    this.position = position;
+    dirty = true;
+
+    if (syncIntervalMs == 0) {
+      sync();
+    } else if (syncIntervalMs > 0) {
+      long now = System.currentTimeMillis();
+      if (now - lastSyncMs >= syncIntervalMs) {
+        sync();
+      }
+    }
+  }
+
+  private void sync() throws IOException {
+    if (dirty) {
+      chan.force(false);
+      dirty = false;
+    }
+    lastSyncMs = System.currentTimeMillis();
+  }
+
+  @Override
+  public synchronized long getPosition() {
+    return position;
+  }
+
+  @Override
+  public String getTarget() {
+    return target;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (isOpen) {
+      try {
+        if (syncIntervalMs >= 0) {
+          sync();
+        }
+      } finally {
+        chan.close();
+        file.close();
+        isOpen = false;
+      }
+    }
+  }
+
+}
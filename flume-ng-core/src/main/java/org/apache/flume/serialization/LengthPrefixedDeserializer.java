@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.collect.Lists;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.apache.flume.conf.ConfigurationException;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A deserializer for binary records that are each preceded by their length,
+ * as an unsigned big-endian integer of 1, 2 or 4 bytes. The length prefix is
+ * not part of the event body.
+ * <p>
+ * Record bodies are read straight into the event's byte array with bulk
+ * {@link ResettableInputStream#read(byte[], int, int)} calls.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class LengthPrefixedDeserializer implements EventDeserializer {
+
+  private static final Logger logger = LoggerFactory.getLogger
+      (LengthPrefixedDeserializer.class);
+
+  private final ResettableInputStream in;
+  private final int lengthFieldSize;
+  private final int maxRecordLength;
+  private final byte[] lengthField;
+  private volatile boolean isOpen;
+
+  public static final String LENGTH_FIELD_SIZE_KEY = "lengthFieldSize";
+  public static final int LENGTH_FIELD_SIZE_DFLT = 4;
+
+  public static final String MAX_RECORD_LENGTH_KEY = "maxRecordLength";
+  public static final int MAX_RECORD_LENGTH_DFLT = 1024 * 1024;
+
+  LengthPrefixedDeserializer(Context context, ResettableInputStream in) {
+    this.in = in;
+    this.lengthFieldSize = context.getInteger(LENGTH_FIELD_SIZE_KEY,
+        LENGTH_FIELD_SIZE_DFLT);
+    if (lengthFieldSize != 1 && lengthFieldSize != 2 && lengthFieldSize != 4) {
+      throw new ConfigurationException("Configuration parameter " +
+          LENGTH_FIELD_SIZE_KEY + " must be 1, 2 or 4: " + lengthFieldSize);
+    }
+    this.maxRecordLength = context.getInteger(MAX_RECORD_LENGTH_KEY,
+        MAX_RECORD_LENGTH_DFLT);
+    if (maxRecordLength <= 0) {
+      throw new ConfigurationException("Configuration parameter " +
+          MAX_RECORD_LENGTH_KEY + " must be greater than zero: " +
+          maxRecordLength);
+    }
+    this.lengthField = new byte[lengthFieldSize];
+    this.isOpen = true;
+  }
+
+  /**
+   * Reads a length-prefixed record and returns an event
+   * @return Event containing the record, or {@code null} at the end of the
+   * stream
+   * @throws IOException
+   */
+  @Override
+  public Event readEvent() throws IOException {
+    ensureOpen();
+    int n = readFully(lengthField, 0, lengthFieldSize);
+    if (n == 0) {
+      return null;
+    } else if (n < lengthFieldSize) {
+      logger.warn("Ignoring {} trailing bytes too short for a length prefix",
+          n);
+      return null;
+    }
+
+    long length = 0;
+    for (int i = 0; i < lengthFieldSize; i++) {
+      length = (length << 8) | (lengthField[i] & 0xff);
+    }
+
+    long skip = 0;
+    if (length > maxRecordLength) {
+      logger.warn("Record length {} exceeds max ({}), truncating record!",
+          length, maxRecordLength);
+      skip = length - maxRecordLength;
+      length = maxRecordLength;
+    }
+
+    byte[] body = new byte[(int) length];
+    n = readFully(body, 0, body.length);
+    if (n < body.length) {
+      logger.warn("Stream ended {} bytes into a record of {} bytes",
+          n, body.length);
+      body = Arrays.copyOf(body, n);
+    } else if (skip > 0) {
+      in.seek(in.tell() + skip);
+    }
+    return EventBuilder.withBody(body);
+  }
+
+  /**
+   * Batch record read
+   * @param numEvents Maximum number of events to return.
+   * @return List of events containing read records
+   * @throws IOException
+   */
+  @Override
+  public List<Event> readEvents(int numEvents) throws IOException {
+    ensureOpen();
+    List<Event> events = Lists.newArrayListWithCapacity(numEvents);
+    for (int i = 0; i < numEvents; i++) {
+      Event event = readEvent();
+      if (event != null) {
+        events.add(event);
+      } else {
+        break;
+      }
+    }
+    return events;
+  }
+
+  @Override
+  public void mark() throws IOException {
+    ensureOpen();
+    in.mark();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    ensureOpen();
+    in.reset();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isOpen) {
+      reset();
+      in.close();
+      isOpen = false;
+    }
+  }
+
+  private void ensureOpen() {
+    if (!isOpen) {
+      throw new IllegalStateException("Serializer has been closed");
+    }
+  }
+
+  /**
+   * @return the number of bytes read, less than {@code len} only at the end
+   * of the stream
+   */
+  private int readFully(byte[] b, int off, int len) throws IOException {
+    int total = 0;
+    while (total < len) {
+      int n = in.read(b, off + total, len - total);
+      if (n == -1) {
+        break;
+      }
+      total += n;
+    }
+    return total;
+  }
+
+  public static class Builder implements EventDeserializer.Builder {
+
+    @Override
+    public EventDeserializer build(Context context, ResettableInputStream in) {
+      return new LengthPrefixedDeserializer(context, in);
+    }
+
+  }
+
+}
@@ -18,6 +18,7 @@
 
 package org.apache.flume.serialization;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -28,7 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -45,6 +50,10 @@ public class LineDeserializer implements EventDeserializer {
   private final ResettableInputStream in;
   private final Charset outputCharset;
   private final int maxLineLength;
+  private final LineReadable lineReader;
+  private final CharsetDecoder lineDecoder;
+  private final CharsetDecoder lineValidator;
+  private CharBuffer validationBuf;
   private volatile boolean isOpen;
 
   public static final String OUT_CHARSET_KEY = "outputCharset";
@@ -58,6 +67,23 @@ public class LineDeserializer implements EventDeserializer {
     this.outputCharset = Charset.forName(
         context.getString(OUT_CHARSET_KEY, CHARSET_DFLT));
     this.maxLineLength = context.getInteger(MAXLINE_KEY, MAXLINE_DFLT);
+    if (in instanceof LineReadable && ((LineReadable) in).isLineReadable()) {
+      // bulk path: lines are handed out as raw bytes, and only need to be
+      // decoded if they have to be re-encoded in another charset
+      this.lineReader = (LineReadable) in;
+      Charset inputCharset = lineReader.getCharset();
+      boolean sameCharset = inputCharset.equals(outputCharset);
+      this.lineDecoder = sameCharset ? null : inputCharset.newDecoder();
+      // raw lines are still checked, so that malformed input is reported as
+      // it is when decoding; any byte is a valid ISO-8859-1 character
+      this.lineValidator = !sameCharset ||
+          inputCharset.equals(Charsets.ISO_8859_1) ? null :
+          inputCharset.newDecoder();
+    } else {
+      this.lineReader = null;
+      this.lineDecoder = null;
+      this.lineValidator = null;
+    }
     this.isOpen = true;
   }
 
@@ -69,6 +95,21 @@ public class LineDeserializer implements EventDeserializer {
   @Override
   public Event readEvent() throws IOException {
     ensureOpen();
+    if (lineReader != null) {
+      byte[] bytes = lineReader.readLine(maxLineLength);
+      if (bytes == null) {
+        return null;
+      } else if (lineDecoder == null) {
+        if (lineValidator != null) {
+          validate(bytes);
+        }
+        return EventBuilder.withBody(bytes);
+      } else {
+        String line = lineDecoder.decode(ByteBuffer.wrap(bytes)).toString();
+        return EventBuilder.withBody(line, outputCharset);
+      }
+    }
+
     String line = readLine();
     if (line == null) {
       return null;
@@ -125,6 +166,35 @@ public class LineDeserializer implements EventDeserializer {
     }
   }
 
+  /**
+   * Throws the {@link java.nio.charset.CharacterCodingException} decoding the
+   * line would throw, if it is not valid in the input charset. ASCII bytes
+   * are valid in every line readable charset, so only the rest of the line
+   * from the first non ASCII byte is decoded, into a reused buffer.
+   */
+  private void validate(byte[] line) throws IOException {
+    int i = 0;
+    while (i < line.length && line[i] >= 0) {
+      i++;
+    }
+    if (i == line.length) {
+      return;
+    }
+    if (validationBuf == null) {
+      validationBuf = CharBuffer.allocate(256);
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(line, i, line.length - i);
+    lineValidator.reset();
+    CoderResult res;
+    do {
+      validationBuf.clear();
+      res = lineValidator.decode(bytes, validationBuf, true);
+      if (res.isError()) {
+        res.throwException();
+      }
+    } while (res.isOverflow());
+  }
+
   // TODO: consider not returning a final character that is a high surrogate
   // when truncating
   private String readLine() throws IOException {
@@ -134,8 +204,11 @@ public class LineDeserializer implements EventDeserializer {
     while ((c = in.readChar()) != -1) {
       readChars++;
 
-      // FIXME: support \r\n
       if (c == '\n') {
+        int last = sb.length() - 1;
+        if (last >= 0 && sb.charAt(last) == '\r') {
+          sb.setLength(last);
+        }
         break;
       }
 
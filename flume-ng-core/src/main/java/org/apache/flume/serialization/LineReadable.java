@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Allows reading whole lines as raw bytes, scanning the underlying buffer for
+ * line terminators instead of decoding one character at a time.
+ */
+public interface LineReadable {
+
+  /**
+   * Whether {@link #readLine(int)} is supported for the charset of this
+   * stream. Only charsets in which '\n' and '\r' are always encoded as
+   * single bytes can be scanned this way.
+   */
+  boolean isLineReadable();
+
+  /** returns the charset of the bytes returned by {@link #readLine(int)} */
+  Charset getCharset();
+
+  /**
+   * Read bytes up to the next '\n' or "\r\n", or until {@code maxLineLength}
+   * characters have been read. The terminator is consumed but not returned.
+   * The stream position is advanced once, past the returned line.
+   * @return the line, encoded in {@link #getCharset()}, or {@code null} at
+   * the end of the stream
+   * @throws IOException
+   */
+  byte[] readLine(int maxLineLength) throws IOException;
+
+}
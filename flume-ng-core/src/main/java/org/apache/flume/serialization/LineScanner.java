@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Finds line boundaries in raw bytes for {@link LineReadable} streams, and
+ * counts the UTF-16 chars of the line so {@code maxLineLength} means the same
+ * as it does for {@link ResettableInputStream#readChar()} callers.
+ * A line may be scanned across several buffers; state is kept until
+ * {@link #reset(int)}.
+ */
+final class LineScanner {
+
+  private final boolean utf8;
+  private int maxChars;
+  private int chars;
+  private boolean terminated;
+  private boolean truncated;
+
+  private LineScanner(boolean utf8) {
+    this.utf8 = utf8;
+  }
+
+  /**
+   * @return a scanner for the charset, or {@code null} if lines in that
+   * charset can not be found by looking for single '\n' bytes
+   */
+  static LineScanner forCharset(Charset charset) {
+    if (charset.equals(Charsets.UTF_8)) {
+      return new LineScanner(true);
+    } else if (charset.equals(Charsets.US_ASCII) ||
+        charset.equals(Charsets.ISO_8859_1)) {
+      return new LineScanner(false);
+    } else {
+      return null;
+    }
+  }
+
+  void reset(int maxChars) {
+    this.maxChars = maxChars;
+    this.chars = 0;
+    this.terminated = false;
+    this.truncated = false;
+  }
+
+  /**
+   * Scan {@code buf} from absolute index {@code from} up to {@code limit}.
+   * @return the index of the first byte that is not part of the line: the
+   * '\n' if {@link #isTerminated()}, the first byte of the character that
+   * did not fit if {@link #isTruncated()}, otherwise {@code limit}
+   */
+  int scan(ByteBuffer buf, int from, int limit) {
+    for (int i = from; i < limit; i++) {
+      byte b = buf.get(i);
+      if (utf8 && (b & 0xC0) == 0x80) {
+        continue; // continuation byte of a multi-byte character
+      }
+      // a 4-byte UTF-8 sequence decodes to a surrogate pair
+      int units = (utf8 && (b & 0xF8) == 0xF0) ? 2 : 1;
+      if (chars >= maxChars || (units == 2 && chars + units > maxChars)) {
+        truncated = true;
+        return i;
+      }
+      if (b == '\n') {
+        terminated = true;
+        return i;
+      }
+      chars += units;
+    }
+    return limit;
+  }
+
+  boolean isTerminated() {
+    return terminated;
+  }
+
+  boolean isTruncated() {
+    return truncated;
+  }
+
+  boolean isDone() {
+    return terminated || truncated;
+  }
+
+  /**
+   * @return {@code len}, less one if the line was terminated by "\r\n" and
+   * {@code line[len - 1]} is the '\r'
+   */
+  int stripCarriageReturn(byte[] line, int len) {
+    if (terminated && len > 0 && line[len - 1] == '\r') {
+      return len - 1;
+    }
+    return len;
+  }
+
+}
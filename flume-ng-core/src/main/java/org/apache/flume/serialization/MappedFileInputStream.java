@@ -0,0 +1,416 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.flume.serialization;
+
+import com.google.common.base.Preconditions;
+import org.apache.flume.annotations.InterfaceAudience;
+import org.apache.flume.annotations.InterfaceStability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * <p/>A {@link ResettableInputStream} that reads a file through a read-only
+ * memory mapping instead of copying it into a private buffer. Reads,
+ * {@link #seek(long)} and {@link #reset()} just move an offset within the
+ * mapping, and {@link #readLine(int)} copies each line straight from the
+ * mapping into the returned array.
+ *
+ * <p/>The file is mapped in regions of at most {@code regionSize} bytes, so
+ * files larger than 2GB can be read; a region is remapped when the read
+ * offset leaves it. The previous region is unmapped right away where the JVM
+ * allows it; otherwise it stays mapped until its buffer is garbage
+ * collected, so a few regions of address space may be held per stream.
+ *
+ * <p/>This class makes the following assumptions:
+ * <ol>
+ *   <li>The underlying file is not changing while it is being read. A
+ *   mapped file that is truncated underneath the reader may crash the
+ *   reading thread, so only map complete files.</li>
+ * </ol>
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class MappedFileInputStream extends ResettableInputStream
+    implements RemoteMarkable, LengthMeasurable, LineReadable {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(MappedFileInputStream.class);
+
+  public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+  // Unsafe.invokeCleaner(ByteBuffer) on Java 9 and later
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  // DirectByteBuffer.cleaner().clean() before Java 9
+  private static final Method CLEANER;
+  private static final Method CLEAN;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    Method cleaner = null;
+    Method clean = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+          ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (Throwable t) {
+      invokeCleaner = null;
+      try {
+        cleaner = Class.forName("java.nio.DirectByteBuffer")
+            .getMethod("cleaner");
+        cleaner.setAccessible(true);
+        clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      } catch (Throwable t2) {
+        logger.debug("Mapped regions can not be unmapped explicitly, they " +
+            "are released when garbage collected", t2);
+        cleaner = null;
+      }
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+    CLEANER = cleaner;
+    CLEAN = clean;
+  }
+
+  private final File file;
+  private final PositionTracker tracker;
+  private final RandomAccessFile raf;
+  private final FileChannel chan;
+  private final long fileSize;
+  private final int regionSize;
+  private final Charset charset;
+  private final CharsetDecoder decoder;
+  private final CharBuffer charBuf;
+  private final LineScanner lineScanner;
+
+  private MappedByteBuffer region;
+  private long regionStart;
+  private long position;
+  private long syncPosition;
+  private int pendingLowSurrogate = -1;
+
+  /**
+   * @param file
+   *        File to read
+   *
+   * @param tracker
+   *        PositionTracker implementation to make offset position durable
+   *
+   * @param regionSize
+   *        Maximum number of bytes mapped at a time
+   *
+   * @param charset
+   *        Character set used for decoding text, as necessary
+   *
+   * @throws IOException
+   */
+  public MappedFileInputStream(File file, PositionTracker tracker,
+      int regionSize, Charset charset) throws IOException {
+    Preconditions.checkArgument(regionSize > 0,
+        "regionSize must be positive");
+    this.file = file;
+    this.tracker = tracker;
+    this.raf = new RandomAccessFile(file, "r");
+    this.chan = raf.getChannel();
+    this.fileSize = chan.size();
+    this.regionSize = regionSize;
+    this.charset = charset;
+    this.decoder = charset.newDecoder();
+    // room for both halves of a surrogate pair
+    this.charBuf = CharBuffer.allocate(2);
+    this.lineScanner = LineScanner.forCharset(charset);
+
+    seek(tracker.getPosition());
+  }
+
+  /**
+   * Make sure the current position lies within the mapped region.
+   * @return false at the end of the file
+   */
+  private boolean ensureMapped() throws IOException {
+    if (position >= fileSize) {
+      return false;
+    }
+    if (region == null || position < regionStart ||
+        position >= regionStart + region.limit()) {
+      map(position);
+    }
+    region.position((int) (position - regionStart));
+    return true;
+  }
+
+  private void map(long start) throws IOException {
+    long size = Math.min(regionSize, fileSize - start);
+    logger.trace("Mapping {} bytes of {} at {}",
+        new Object[] { size, file, start });
+    MappedByteBuffer previous = region;
+    region = chan.map(FileChannel.MapMode.READ_ONLY, start, size);
+    regionStart = start;
+    unmap(previous);
+  }
+
+  /**
+   * Release a region that is no longer read from, instead of leaving it
+   * mapped until its buffer is collected. The buffer must not be used
+   * afterwards.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else if (CLEANER != null) {
+        Object cleaner = CLEANER.invoke(buffer);
+        if (cleaner != null) {
+          CLEAN.invoke(cleaner);
+        }
+      }
+    } catch (Exception e) {
+      logger.debug("Unable to unmap region, leaving it to the garbage " +
+          "collector", e);
+    }
+  }
+
+  private boolean regionReachesEOF() {
+    return regionStart + region.limit() >= fileSize;
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    if (!ensureMapped()) {
+      return -1;
+    }
+    int b = region.get() & 0xFF;
+    incrPosition(1, true);
+    return b;
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len)
+      throws IOException {
+    if (!ensureMapped()) {
+      return -1;
+    }
+    len = Math.min(len, region.remaining());
+    region.get(b, off, len);
+    incrPosition(len, true);
+    return len;
+  }
+
+  @Override
+  public synchronized int readChar() throws IOException {
+    if (pendingLowSurrogate != -1) {
+      int c = pendingLowSurrogate;
+      pendingLowSurrogate = -1;
+      syncPosition = position;
+      return c;
+    }
+
+    if (!ensureMapped()) {
+      return -1;
+    }
+
+    int start = region.position();
+    decodeChar();
+
+    // a character straddling the end of the region: remap so that the
+    // region starts with it, and try again
+    if (charBuf.position() == 0 && !regionReachesEOF()) {
+      map(position);
+      start = 0;
+      decodeChar();
+    }
+
+    int delta = region.position() - start;
+    charBuf.flip();
+    if (!charBuf.hasRemaining()) {
+      incrPosition(delta, false);
+      return -1;
+    }
+
+    char c = charBuf.get();
+    if (charBuf.hasRemaining()) {
+      // don't persist a mark between the two chars of a surrogate pair
+      pendingLowSurrogate = charBuf.get();
+      incrPosition(delta, false);
+    } else {
+      incrPosition(delta, !Character.isHighSurrogate(c));
+    }
+    return c;
+  }
+
+  /**
+   * Decode a single char, or both chars of a surrogate pair, into charBuf.
+   */
+  private void decodeChar() throws IOException {
+    charBuf.clear();
+    charBuf.limit(1);
+    CoderResult res = decoder.decode(region, charBuf, regionReachesEOF());
+    if (res.isOverflow() && charBuf.position() == 0) {
+      charBuf.limit(2);
+      res = decoder.decode(region, charBuf, regionReachesEOF());
+    }
+    if (res.isMalformed() || res.isUnmappable()) {
+      res.throwException();
+    }
+  }
+
+  @Override
+  public boolean isLineReadable() {
+    return lineScanner != null;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Scans the mapping for the next '\n'. A line that lies within the
+   * current region, which is the common case, is copied once, directly into
+   * the returned array.
+   */
+  @Override
+  public synchronized byte[] readLine(int maxLineLength) throws IOException {
+    if (lineScanner == null) {
+      throw new UnsupportedOperationException("Line scanning is not " +
+          "supported for charset " + charset.name());
+    }
+    Preconditions.checkState(pendingLowSurrogate == -1,
+        "Cannot read a line in the middle of a surrogate pair");
+
+    lineScanner.reset(maxLineLength);
+    byte[] line = null;
+    int len = 0;
+
+    while (!lineScanner.isDone() && ensureMapped()) {
+      int start = region.position();
+      int n = lineScanner.scan(region, start, region.limit()) - start;
+      if (line == null) {
+        line = new byte[n];
+      } else {
+        byte[] grown = new byte[len + n];
+        System.arraycopy(line, 0, grown, 0, len);
+        line = grown;
+      }
+      region.get(line, len, n);
+      len += n;
+      position += n;
+
+      if (lineScanner.isTerminated()) {
+        position++; // consume the '\n'
+      }
+    }
+
+    if (lineScanner.isTruncated()) {
+      logger.warn("Line length exceeds max ({}), truncating line!",
+          maxLineLength);
+    }
+
+    syncPosition = position;
+
+    if (line == null) {
+      return null;
+    }
+    int stripped = lineScanner.stripCarriageReturn(line, len);
+    if (stripped < len) {
+      byte[] trimmed = new byte[stripped];
+      System.arraycopy(line, 0, trimmed, 0, stripped);
+      line = trimmed;
+    }
+    return line;
+  }
+
+  @Override
+  public void mark() throws IOException {
+    tracker.storePosition(tell());
+  }
+
+  @Override
+  public void markPosition(long position) throws IOException {
+    tracker.storePosition(position);
+  }
+
+  @Override
+  public long getMarkPosition() throws IOException {
+    return tracker.getPosition();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    seek(tracker.getPosition());
+  }
+
+  @Override
+  public long length() throws IOException {
+    return fileSize;
+  }
+
+  @Override
+  public long tell() throws IOException {
+    logger.trace("Tell position: {}", syncPosition);
+
+    return syncPosition;
+  }
+
+  @Override
+  public synchronized void seek(long newPos) throws IOException {
+    logger.trace("Seek to position: {}", newPos);
+
+    // the mapping is kept; ensureMapped() remaps only if we left the region
+    decoder.reset();
+    pendingLowSurrogate = -1;
+    position = syncPosition = newPos;
+  }
+
+  private void incrPosition(int incr, boolean updateSyncPosition) {
+    position += incr;
+    if (updateSyncPosition) {
+      syncPosition = position;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    tracker.close();
+    unmap(region);
+    region = null;
+    raf.close();
+  }
+
+}
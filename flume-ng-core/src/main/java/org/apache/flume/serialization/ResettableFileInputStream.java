@@ -34,6 +34,7 @@ import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.util.Arrays;
 
 /**
  * <p/>This class makes the following assumptions:
@@ -47,7 +48,7 @@ import java.nio.charset.CoderResult;
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 public class ResettableFileInputStream extends ResettableInputStream
-    implements RemoteMarkable, LengthMeasurable {
+    implements RemoteMarkable, LengthMeasurable, LineReadable {
 
   Logger logger = LoggerFactory.getLogger(ResettableFileInputStream.class);
 
@@ -62,6 +63,9 @@ public class ResettableFileInputStream extends ResettableInputStream
   private final byte[] byteBuf;
   private final long fileSize;
   private final CharsetDecoder decoder;
+  private final Charset charset;
+  private final LineScanner lineScanner;
+  private byte[] lineBuf;
   private long position;
   private long syncPosition;
 
@@ -110,6 +114,9 @@ public class ResettableFileInputStream extends ResettableInputStream
     charBuf.flip();
     this.fileSize = file.length();
     this.decoder = charset.newDecoder();
+    this.charset = charset;
+    this.lineScanner = LineScanner.forCharset(charset);
+    this.lineBuf = new byte[128];
     this.position = 0;
     this.syncPosition = 0;
 
@@ -188,6 +195,73 @@ public class ResettableFileInputStream extends ResettableInputStream
 
   }
 
+  @Override
+  public boolean isLineReadable() {
+    return lineScanner != null;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Scans the read buffer for the next '\n' and copies the bytes before it
+   * out in bulk. Character counting for {@code maxLineLength} is done on the
+   * raw bytes, so nothing is decoded; a character is never split when the
+   * line is truncated. Lines longer than the read buffer are accumulated
+   * across refills.
+   */
+  @Override
+  public synchronized byte[] readLine(int maxLineLength) throws IOException {
+    if (lineScanner == null) {
+      throw new UnsupportedOperationException("Line scanning is not " +
+          "supported for charset " + charset.name());
+    }
+
+    int len = 0;
+    lineScanner.reset(maxLineLength);
+
+    while (!lineScanner.isDone()) {
+      if (!buf.hasRemaining()) {
+        if (position >= fileSize) {
+          break;
+        }
+        refillBuf();
+        if (!buf.hasRemaining()) {
+          break;
+        }
+      }
+
+      int start = buf.position();
+      int n = lineScanner.scan(buf, start, buf.limit()) - start;
+      if (len + n > lineBuf.length) {
+        lineBuf = Arrays.copyOf(lineBuf, Math.max(lineBuf.length * 2, len + n));
+      }
+      buf.get(lineBuf, len, n);
+      len += n;
+      incrPosition(n, false);
+
+      if (lineScanner.isTerminated()) {
+        buf.get(); // consume the '\n'
+        incrPosition(1, false);
+      }
+    }
+
+    if (lineScanner.isTruncated()) {
+      logger.warn("Line length exceeds max ({}), truncating line!",
+          maxLineLength);
+    }
+
+    syncPosition = position;
+
+    if (len == 0 && !lineScanner.isTerminated()) {
+      return null;
+    }
+    len = lineScanner.stripCarriageReturn(lineBuf, len);
+    return Arrays.copyOf(lineBuf, len);
+  }
+
   private void refillBuf() throws IOException {
     buf.compact();
     chan.position(position); // ensure we read from the proper offset
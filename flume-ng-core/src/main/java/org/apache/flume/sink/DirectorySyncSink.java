@@ -15,8 +15,11 @@
  */
 package org.apache.flume.sink;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.io.Files;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -25,26 +28,36 @@ import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.serialization.EventSerializer;
-import org.apache.flume.serialization.EventSerializerFactory;
 import org.apache.flume.source.DirectorySyncSourceConfigurationConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class DirectorySyncSink extends AbstractSink implements Configurable {
   private static final Logger logger = LoggerFactory
       .getLogger(DirectorySyncSink.class);
   private static final int defaultBatchSize = 100;
+  private static final int defaultMaxOpenFiles = 64;
+  private static final int defaultWriteBufferSize = 64 * 1024;
+  private static final int defaultWriterThreads = 1;
   private int batchSize = defaultBatchSize;
+  private int maxOpenFiles = defaultMaxOpenFiles;
+  private int writeBufferSize = defaultWriteBufferSize;
+  private int writerThreads = defaultWriterThreads;
   private File directory;
-  private File cachedFile;
-  private OutputStream cachedOutputStream;
-  private EventSerializer cachedSerializer;
+  /** one cache per partition, each only ever used by one thread at a time */
+  private DirectorySyncWriterCache[] writerCaches;
+  private ExecutorService writerPool;
   private String serializerType;
   private Context serializerContext;
   private SinkCounter sinkCounter;
@@ -64,6 +77,17 @@ public class DirectorySyncSink extends AbstractSink implements Configurable {
     Preconditions.checkNotNull(serializerType, "Serializer type is undefined");
 
     batchSize = context.getInteger("sink.batchSize", defaultBatchSize);
+    maxOpenFiles = context.getInteger("sink.maxOpenFiles", defaultMaxOpenFiles);
+    writeBufferSize = context.getInteger("sink.writeBufferSize",
+        defaultWriteBufferSize);
+    Preconditions.checkArgument(maxOpenFiles > 0,
+        "sink.maxOpenFiles must be greater than 0");
+    Preconditions.checkArgument(writeBufferSize > 0,
+        "sink.writeBufferSize must be greater than 0");
+    writerThreads = context.getInteger("sink.writerThreads",
+        defaultWriterThreads);
+    Preconditions.checkArgument(writerThreads > 0,
+        "sink.writerThreads must be greater than 0");
 
     this.directory = new File(directory);
 
@@ -76,6 +100,19 @@ public class DirectorySyncSink extends AbstractSink implements Configurable {
   public void start() {
     logger.info("Starting {}...", this);
     sinkCounter.start();
+    // the open file budget is shared by the partitions
+    writerCaches = new DirectorySyncWriterCache[writerThreads];
+    for (int i = 0; i < writerThreads; i++) {
+      writerCaches[i] = new DirectorySyncWriterCache(serializerType,
+          serializerContext, Math.max(1, maxOpenFiles / writerThreads),
+          writeBufferSize, sinkCounter);
+    }
+    if (writerThreads > 1) {
+      writerPool = Executors.newFixedThreadPool(writerThreads,
+          new ThreadFactoryBuilder()
+              .setNameFormat("DirectorySyncSink-" + getName() + "-%d")
+              .build());
+    }
     super.start();
 
     logger.info("DirectorySink {} started.", getName());
@@ -91,43 +128,33 @@ public class DirectorySyncSink extends AbstractSink implements Configurable {
     try {
       transaction.begin();
       int eventAttemptCounter = 0;
+      // a file always lands in the same partition, which keeps its events
+      // in channel order
+      List<List<Event>> partitions =
+          Lists.newArrayListWithCapacity(writerThreads);
+      for (int i = 0; i < writerThreads; i++) {
+        partitions.add(Lists.<Event>newArrayList());
+      }
       for (int i = 0; i < batchSize; i++) {
         event = channel.take();
         if (event != null) {
-          Map<String, String> headers = event.getHeaders();
-          String eventFileStr = headers.get(
+          String eventFileStr = event.getHeaders().get(
               DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY);
-          try {
-            File eventFile = new File(directory, eventFileStr);
-            Files.createParentDirs(eventFile);
-            if (!eventFile.equals(cachedFile)) {
-              cachedFile = eventFile;
-              if (null != cachedOutputStream)
-                cachedOutputStream.close();
-              logger.debug("creating new OutputStream for file {}", eventFileStr);
-              cachedOutputStream = new FileOutputStream(eventFile, true);
-              cachedSerializer = EventSerializerFactory.getInstance(
-                  serializerType, serializerContext, cachedOutputStream);
-              cachedSerializer.afterCreate();
-              sinkCounter.incrementConnectionCreatedCount();
-            }
-          } catch (IOException e) {
-            sinkCounter.incrementConnectionFailedCount();
-            throw new EventDeliveryException("Failed to open file "
-                + eventFileStr + " while delivering event", e);
-          }
-
+          Preconditions.checkNotNull(eventFileStr, "Event without "
+              + DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY
+              + " header");
           sinkCounter.incrementEventDrainAttemptCount();
           eventAttemptCounter++;
-          cachedSerializer.write(event);
-          cachedSerializer.flush();
-          cachedOutputStream.flush();
+          partitions.get((eventFileStr.hashCode() & Integer.MAX_VALUE)
+              % writerThreads).add(event);
         } else {
           // No events found, request back-off semantics from runner
           result = Status.BACKOFF;
           break;
         }
       }
+      // events only reach the files here, once per transaction
+      writePartitions(partitions);
       transaction.commit();
       sinkCounter.addToEventDrainSuccessCount(eventAttemptCounter);
     } catch (Exception ex) {
@@ -146,24 +173,119 @@ public class DirectorySyncSink extends AbstractSink implements Configurable {
     sinkCounter.stop();
     super.stop();
 
-    if (cachedOutputStream != null) {
-      logger.debug("Closing file {}", cachedFile);
-
+    if (writerPool != null) {
+      writerPool.shutdown();
       try {
-        cachedSerializer.flush();
-        cachedSerializer.beforeClose();
-        cachedOutputStream.flush();
-        cachedOutputStream.close();
-        sinkCounter.incrementConnectionClosedCount();
-      } catch (IOException e) {
-        sinkCounter.incrementConnectionFailedCount();
-        logger.error("Unable to close output stream. Exception follows.", e);
+        writerPool.awaitTermination(10L, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        logger.info("Interrupted while awaiting termination", ex);
+        Thread.currentThread().interrupt();
+      }
+      writerPool.shutdownNow();
+      writerPool = null;
+    }
+    if (writerCaches != null) {
+      for (DirectorySyncWriterCache writerCache : writerCaches) {
+        writerCache.close();
       }
+      writerCaches = null;
     }
     logger.info("DirectorySyncSink {} stopped. Event metrics: {}",
         getName(), sinkCounter);
   }
 
+  /**
+   * Writes and flushes every non-empty partition, concurrently when there
+   * are several writer threads. Returns once all partitions are done, and
+   * throws the first failure if any partition failed.
+   */
+  private void writePartitions(List<List<Event>> partitions)
+      throws IOException {
+    if (writerPool == null) {
+      new PartitionWriter(writerCaches[0], partitions.get(0)).call();
+      return;
+    }
+
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (int i = 0; i < writerThreads; i++) {
+      if (!partitions.get(i).isEmpty()) {
+        futures.add(writerPool.submit(
+            new PartitionWriter(writerCaches[i], partitions.get(i))));
+      }
+    }
+    // wait for every partition, even after a failure, so that no writer
+    // still uses its cache once the transaction is rolled back
+    Throwable failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  private class PartitionWriter implements Callable<Void> {
+    private final DirectorySyncWriterCache writerCache;
+    private final List<Event> events;
+
+    PartitionWriter(DirectorySyncWriterCache writerCache, List<Event> events) {
+      this.writerCache = writerCache;
+      this.events = events;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      for (Event event : events) {
+        Map<String, String> headers = event.getHeaders();
+        String eventFileStr = headers.get(
+            DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY);
+        String offset = headers.get(
+            DirectorySyncSourceConfigurationConstants.OFFSET_HEADER_KEY);
+        try {
+          if (offset == null) {
+            writerCache.write(new File(directory, eventFileStr), event);
+          } else {
+            writeBlock(new File(directory, eventFileStr), offset,
+                headers.get(
+                    DirectorySyncSourceConfigurationConstants.LENGTH_HEADER_KEY),
+                event.getBody());
+          }
+        } catch (IOException e) {
+          throw new IOException("Failed to write file " + eventFileStr
+              + " while delivering event", e);
+        }
+      }
+      writerCache.flush();
+      return null;
+    }
+
+    /** Writes a block event of a source in block transfer mode in place. */
+    private void writeBlock(File file, String offset, String length,
+                            byte[] body) throws IOException {
+      long position;
+      try {
+        position = Long.parseLong(offset);
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid block offset " + offset, e);
+      }
+      if (length != null && !length.equals(String.valueOf(body.length))) {
+        throw new IOException("Block of " + body.length + " bytes at offset "
+            + offset + " has length header " + length);
+      }
+      writerCache.writeBlock(file, position, body);
+    }
+  }
+
   public File getDirectory() {
     return directory;
   }
@@ -171,4 +293,9 @@ public class DirectorySyncSink extends AbstractSink implements Configurable {
   public void setDirectory(File directory) {
     this.directory = directory;
   }
+
+  @VisibleForTesting
+  SinkCounter getSinkCounter() {
+    return sinkCounter;
+  }
 }
@@ -0,0 +1,289 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.apache.flume.sink;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.instrumentation.SinkCounter;
+import org.apache.flume.serialization.EventSerializer;
+import org.apache.flume.serialization.EventSerializerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of open, buffered writers keyed by destination file.
+ * <p/>
+ * Events are written into the buffer of the file's writer and only reach
+ * the file when the cache is {@link #flush() flushed}, which the sink does
+ * once per transaction right before committing it. When more than
+ * {@code maxOpenFiles} files are in use, the least recently written one is
+ * flushed and closed. Parent directories are created once per directory
+ * rather than once per event.
+ * <p/>
+ * Blocks, byte ranges of a file sent with their offset, bypass the
+ * serializer and are written in place with positional writes, so writing a
+ * redelivered block again leaves the file unchanged.
+ * <p/>
+ * Not thread safe, a cache belongs to a single sink writer thread. Several
+ * caches may share one {@link SinkCounter}.
+ */
+class DirectorySyncWriterCache {
+  private static final Logger logger = LoggerFactory
+      .getLogger(DirectorySyncWriterCache.class);
+  /** upper bound of directories remembered as already created */
+  static final int MAX_KNOWN_DIRECTORIES = 4096;
+
+  private final String serializerType;
+  private final Context serializerContext;
+  private final int maxOpenFiles;
+  private final int bufferSize;
+  private final SinkCounter sinkCounter;
+  private final LinkedHashMap<File, Writer> writers =
+      new LinkedHashMap<File, Writer>(16, 0.75f, true);
+  private final List<Writer> dirty = new ArrayList<Writer>();
+  private final Map<File, Boolean> knownDirectories =
+      new LinkedHashMap<File, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Boolean> eldest) {
+          return size() > MAX_KNOWN_DIRECTORIES;
+        }
+      };
+
+  DirectorySyncWriterCache(String serializerType, Context serializerContext,
+                           int maxOpenFiles, int bufferSize,
+                           SinkCounter sinkCounter) {
+    Preconditions.checkArgument(maxOpenFiles > 0,
+        "maxOpenFiles must be greater than 0");
+    Preconditions.checkArgument(bufferSize > 0,
+        "bufferSize must be greater than 0");
+    this.serializerType = serializerType;
+    this.serializerContext = serializerContext;
+    this.maxOpenFiles = maxOpenFiles;
+    this.bufferSize = bufferSize;
+    this.sinkCounter = sinkCounter;
+  }
+
+  /**
+   * Serializes the event into the buffer of the file's writer, opening the
+   * writer first if it is not cached.
+   */
+  void write(File file, Event event) throws IOException {
+    Writer writer = writerFor(file, false);
+    if (!writer.dirty) {
+      writer.dirty = true;
+      dirty.add(writer);
+    }
+    writer.serializer.write(event);
+  }
+
+  /**
+   * Writes the block at {@code offset} of the file, overwriting whatever is
+   * there. The block is not buffered.
+   */
+  void writeBlock(File file, long offset, byte[] block) throws IOException {
+    Writer writer = writerFor(file, true);
+    ByteBuffer buf = ByteBuffer.wrap(block);
+    while (buf.hasRemaining()) {
+      writer.channel.write(buf, offset + buf.position());
+    }
+  }
+
+  /**
+   * Pushes everything written since the last flush to the files.
+   */
+  void flush() throws IOException {
+    try {
+      for (Writer writer : dirty) {
+        writer.flush();
+      }
+    } finally {
+      dirty.clear();
+    }
+  }
+
+  /**
+   * Flushes and closes every cached writer.
+   */
+  void close() {
+    Iterator<Writer> it = writers.values().iterator();
+    while (it.hasNext()) {
+      Writer writer = it.next();
+      it.remove();
+      try {
+        closeWriter(writer);
+      } catch (IOException e) {
+        logger.error("Unable to close output stream of " + writer.file
+            + ". Exception follows.", e);
+      }
+    }
+    dirty.clear();
+  }
+
+  int getOpenCount() {
+    return writers.size();
+  }
+
+  /** @return the cached writer of the file, opening it if needed */
+  private Writer writerFor(File file, boolean block) throws IOException {
+    Writer writer = writers.get(file);
+    if (writer != null && (writer.channel != null) != block) {
+      // the file switched between events and blocks
+      writers.remove(file);
+      dirty.remove(writer);
+      closeWriter(writer);
+      writer = null;
+    }
+    if (writer == null) {
+      sinkCounter.incrementWriterCacheMissCount();
+      return open(file, block);
+    }
+    sinkCounter.incrementWriterCacheHitCount();
+    return writer;
+  }
+
+  private Writer open(File file, boolean block) throws IOException {
+    if (writers.size() >= maxOpenFiles) {
+      Iterator<Writer> it = writers.values().iterator();
+      Writer eldest = it.next();
+      it.remove();
+      dirty.remove(eldest);
+      // its events belong to the running transaction, a failure must abort it
+      closeWriter(eldest);
+    }
+
+    logger.debug("creating new writer for file {}", file);
+    Writer writer;
+    try {
+      writer = openWriter(file, block);
+    } catch (IOException e) {
+      sinkCounter.incrementConnectionFailedCount();
+      throw e;
+    }
+    if (!block) {
+      try {
+        writer.serializer = EventSerializerFactory.getInstance(
+            serializerType, serializerContext, writer.out);
+        writer.serializer.afterCreate();
+      } catch (IOException e) {
+        sinkCounter.incrementConnectionFailedCount();
+        Closeables.close(writer.out, true);
+        throw e;
+      }
+    }
+    writers.put(file, writer);
+    sinkCounter.incrementConnectionCreatedCount();
+    sinkCounter.addToWriterOpenCount(1);
+    return writer;
+  }
+
+  private Writer openWriter(File file, boolean block) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !knownDirectories.containsKey(parent)) {
+      Files.createParentDirs(file);
+      knownDirectories.put(parent, Boolean.TRUE);
+    }
+    try {
+      return newWriter(file, block);
+    } catch (FileNotFoundException e) {
+      // the directory may have been removed since it was created
+      if (parent == null) {
+        throw e;
+      }
+      Files.createParentDirs(file);
+      return newWriter(file, block);
+    }
+  }
+
+  private Writer newWriter(File file, boolean block) throws IOException {
+    if (block) {
+      return new Writer(file, new RandomAccessFile(file, "rw").getChannel());
+    }
+    return new Writer(file, new BufferedOutputStream(
+        new FileOutputStream(file, true), bufferSize));
+  }
+
+  private void closeWriter(Writer writer) throws IOException {
+    logger.debug("Closing file {}", writer.file);
+    sinkCounter.addToWriterOpenCount(-1);
+    if (writer.channel != null) {
+      try {
+        writer.channel.close();
+        sinkCounter.incrementConnectionClosedCount();
+      } catch (IOException e) {
+        sinkCounter.incrementConnectionFailedCount();
+        throw e;
+      }
+      return;
+    }
+    try {
+      writer.serializer.flush();
+      writer.serializer.beforeClose();
+      writer.out.flush();
+      writer.out.close();
+      sinkCounter.incrementConnectionClosedCount();
+    } catch (IOException e) {
+      sinkCounter.incrementConnectionFailedCount();
+      Closeables.close(writer.out, true);
+      throw e;
+    }
+  }
+
+  private static class Writer {
+    final File file;
+    /** event writers only */
+    final OutputStream out;
+    EventSerializer serializer;
+    boolean dirty;
+    /** block writers only */
+    final FileChannel channel;
+
+    Writer(File file, OutputStream out) {
+      this.file = file;
+      this.out = out;
+      this.channel = null;
+    }
+
+    Writer(File file, FileChannel channel) {
+      this.file = file;
+      this.out = null;
+      this.channel = channel;
+    }
+
+    void flush() throws IOException {
+      dirty = false;
+      serializer.flush();
+      out.flush();
+    }
+  }
+}
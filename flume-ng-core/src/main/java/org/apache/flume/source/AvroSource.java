@@ -302,7 +302,7 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     sourceCounter.incrementAppendReceivedCount();
     sourceCounter.incrementEventReceivedCount();
 
-    Event event = EventBuilder.withBody(avroEvent.getBody().array(),
+    Event event = EventBuilder.withBodyBuffer(avroEvent.getBody(),
         toStringMap(avroEvent.getHeaders()));
 
     try {
@@ -329,7 +329,7 @@ public class AvroSource extends AbstractSource implements EventDrivenSource,
     List<Event> batch = new ArrayList<Event>();
 
     for (AvroFlumeEvent avroEvent : events) {
-      Event event = EventBuilder.withBody(avroEvent.getBody().array(),
+      Event event = EventBuilder.withBodyBuffer(avroEvent.getBody(),
           toStringMap(avroEvent.getHeaders()));
 
       batch.add(event);
@@ -0,0 +1,90 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.source;
+
+import com.google.common.collect.Lists;
+import org.apache.flume.Event;
+import org.apache.flume.event.CompactHeaderMap;
+import org.apache.flume.event.SimpleEvent;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the events of the batches a {@link DirectorySyncSource} reader
+ * sends. The path header of a file is computed once, when the reader moves
+ * on to the file, and every event of the file gets a copy-on-write copy of
+ * the same header map, so a line costs little more than its body.
+ * <p/>
+ * Not thread safe, each reader thread has its own factory.
+ */
+class DirectorySyncEventFactory {
+  private final File syncDirectory;
+  private final String directoryPrefix;
+  private File file;
+  private String relativePath;
+  /** headers shared by the events of the file, never modified */
+  private Map<String, String> headers;
+
+  DirectorySyncEventFactory(File syncDirectory, String directoryPrefix) {
+    this.syncDirectory = syncDirectory;
+    this.directoryPrefix = directoryPrefix;
+  }
+
+  /** @return the path of the file relative to the sync directory */
+  String getRelativePath(File file) {
+    if (!file.equals(this.file)) {
+      this.file = file;
+      relativePath = syncDirectory.toURI().relativize(file.toURI()).getPath();
+      headers = new CompactHeaderMap(1);
+      headers.put(DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY,
+          directoryPrefix.length() > 0 ?
+              directoryPrefix + File.separator + relativePath : relativePath);
+    }
+    return relativePath;
+  }
+
+  /** @return an event with the path header for each line of the file */
+  List<Event> createEvents(File file, List<byte[]> lines) {
+    getRelativePath(file);
+    List<Event> events = Lists.newArrayListWithCapacity(lines.size());
+    for (byte[] line : lines) {
+      events.add(new SimpleEvent(line, new CompactHeaderMap(headers)));
+    }
+    return events;
+  }
+
+  /**
+   * @return an event with the path, offset and length headers for each of
+   * the consecutive blocks of the file that start at {@code offset}
+   */
+  List<Event> createBlockEvents(File file, List<byte[]> blocks, long offset) {
+    getRelativePath(file);
+    List<Event> events = Lists.newArrayListWithCapacity(blocks.size());
+    for (byte[] block : blocks) {
+      Map<String, String> blockHeaders = new CompactHeaderMap(headers);
+      blockHeaders.put(DirectorySyncSourceConfigurationConstants.OFFSET_HEADER_KEY,
+          String.valueOf(offset));
+      blockHeaders.put(DirectorySyncSourceConfigurationConstants.LENGTH_HEADER_KEY,
+          String.valueOf(block.length));
+      events.add(new SimpleEvent(block, blockHeaders));
+      offset += block.length;
+    }
+    return events;
+  }
+}
@@ -18,17 +18,20 @@ package org.apache.flume.source;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.flume.Context;
-import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
+import org.apache.flume.FlumeException;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.event.EventBuilder;
+import org.apache.flume.input.DirectorySyncCheckpointStore;
 import org.apache.flume.input.DirectorySyncFileLineReader;
+import org.apache.flume.instrumentation.DirectorySyncSourceCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,6 +53,8 @@ public class DirectorySyncSource extends AbstractSource implements
       .getLogger(DirectorySyncSource.class);
   // Delay used when polling for file changes
   private static int POLL_DELAY_MS = 500;
+  // Least time between two measures of the sync lag while a reader is busy
+  private static final long SYNC_LAG_INTERVAL_MS = 1000L;
   /* Config options */
   private File syncDirectory;
   private String directoryPrefix;
@@ -57,28 +62,88 @@ public class DirectorySyncSource extends AbstractSource implements
   private String statsFilePrefix;
   private String syncingStatsFileSuffix;
   private String syncedStatsFileSuffix;
-  private String filenameHeaderKey = DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY;
   private int batchSize;
+  private boolean blockMode;
+  private int blockSize;
+  private int readerThreads;
+  private String checkpointType;
+  private File checkpointFile;
+  private long checkpointSyncInterval;
+  private int checkpointSyncCommits;
+  private DirectorySyncCheckpointStore checkpointStore;
+  private boolean incrementalDiscovery;
+  private long fullRescanInterval;
+  private int followFiles;
+  private long followPollInterval;
   private ScheduledExecutorService executor;
-  private CounterGroup counterGroup;
-  private Runnable runner;
-  private DirectorySyncFileLineReader reader;
+  private DirectorySyncSourceCounter sourceCounter;
+  private List<DirectorySyncFileLineReader> readers;
 
   @Override
   public synchronized void start() {
     logger.info("DirectorySyncSource source starting with directory:{}",
         syncDirectory);
 
-    executor = Executors.newSingleThreadScheduledExecutor();
-    counterGroup = new CounterGroup();
+    sourceCounter.start();
+    if (DirectorySyncSourceConfigurationConstants.CHECKPOINT_TYPE_LOG
+        .equals(checkpointType)) {
+      try {
+        checkpointStore = new DirectorySyncCheckpointStore(syncDirectory,
+            checkpointFile, checkpointSyncInterval, checkpointSyncCommits);
+        checkpointStore.migrateStatsFiles(statsFilePrefix,
+            syncingStatsFileSuffix, syncedStatsFileSuffix);
+      } catch (IOException e) {
+        throw new FlumeException("Error opening checkpoint file " +
+            checkpointFile, e);
+      }
+    }
 
-    reader = new DirectorySyncFileLineReader(
-        syncDirectory, endFileSuffix,
-        statsFilePrefix, syncingStatsFileSuffix, syncedStatsFileSuffix);
-    runner = new DirectorySyncRunnable(reader, counterGroup);
+    boolean syncOnTimer = null != checkpointStore && checkpointSyncInterval > 0;
+    executor = Executors.newScheduledThreadPool(
+        syncOnTimer ? readerThreads + 1 : readerThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("DirectorySyncSource-" + getName() + "-%d")
+            .build());
+
+    // each reader owns the files whose path hashes to its shard, so every
+    // file is read, committed and delivered in order by a single thread
+    readers = Lists.newArrayListWithCapacity(readerThreads);
+    for (int i = 0; i < readerThreads; i++) {
+      DirectorySyncFileLineReader reader =
+          new DirectorySyncFileLineReader.Builder()
+              .directory(syncDirectory)
+              .endFileSuffix(endFileSuffix)
+              .statsFilePrefix(statsFilePrefix)
+              .statsFileSuffix(syncingStatsFileSuffix)
+              .finishedStatsFileSuffix(syncedStatsFileSuffix)
+              .shard(i, readerThreads)
+              .checkpointStore(checkpointStore)
+              .incrementalDiscovery(incrementalDiscovery)
+              .fullRescanInterval(fullRescanInterval)
+              .followFiles(followFiles)
+              .discoveryInterval(followFiles > 0 ? POLL_DELAY_MS : 0L)
+              .build();
+      readers.add(reader);
+      // followed files are polled more often than the directory is walked
+      executor.scheduleWithFixedDelay(
+          new DirectorySyncRunnable(i, reader, sourceCounter), 0,
+          followFiles > 0 ? followPollInterval : POLL_DELAY_MS,
+          TimeUnit.MILLISECONDS);
+    }
 
-    executor.scheduleWithFixedDelay(
-        runner, 0, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
+    if (syncOnTimer) {
+      // syncs commits that no later commit would
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            checkpointStore.syncIfDue();
+          } catch (Throwable t) {
+            logger.error("Error syncing checkpoint file " + checkpointFile, t);
+          }
+        }
+      }, checkpointSyncInterval, checkpointSyncInterval, TimeUnit.MILLISECONDS);
+    }
 
     super.start();
     logger.debug("DirectorySyncSource source started");
@@ -86,7 +151,27 @@ public class DirectorySyncSource extends AbstractSource implements
 
   @Override
   public synchronized void stop() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10L, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      logger.info("Interrupted while awaiting termination", ex);
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+    for (DirectorySyncFileLineReader reader : readers) {
+      reader.close();
+    }
+    if (null != checkpointStore) {
+      try {
+        checkpointStore.close();
+      } catch (IOException e) {
+        logger.warn("Error closing checkpoint file " + checkpointFile, e);
+      }
+      checkpointStore = null;
+    }
     super.stop();
+    sourceCounter.stop();
     logger.debug("DirectorySyncSource source stopped");
   }
 
@@ -116,46 +201,117 @@ public class DirectorySyncSource extends AbstractSource implements
     batchSize = context.getInteger(
         DirectorySyncSourceConfigurationConstants.BATCH_SIZE,
         DirectorySyncSourceConfigurationConstants.DEFAULT_BATCH_SIZE);
-  }
+    String transferMode = context.getString(
+        DirectorySyncSourceConfigurationConstants.TRANSFER_MODE,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_TRANSFER_MODE);
+    Preconditions.checkState(transferMode.equals(
+        DirectorySyncSourceConfigurationConstants.DEFAULT_TRANSFER_MODE) ||
+        transferMode.equals(
+            DirectorySyncSourceConfigurationConstants.TRANSFER_MODE_BLOCK),
+        "transferMode must be either line or block");
+    blockMode = transferMode.equals(
+        DirectorySyncSourceConfigurationConstants.TRANSFER_MODE_BLOCK);
+    blockSize = context.getInteger(
+        DirectorySyncSourceConfigurationConstants.BLOCK_SIZE,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_BLOCK_SIZE);
+    Preconditions.checkState(blockSize > 0,
+        "blockSize must be greater than 0");
+    readerThreads = context.getInteger(
+        DirectorySyncSourceConfigurationConstants.READER_THREADS,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_READER_THREADS);
+    Preconditions.checkState(readerThreads > 0,
+        "readerThreads must be greater than 0");
+    checkpointType = context.getString(
+        DirectorySyncSourceConfigurationConstants.CHECKPOINT_TYPE,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_CHECKPOINT_TYPE);
+    Preconditions.checkState(checkpointType.equals(
+        DirectorySyncSourceConfigurationConstants.DEFAULT_CHECKPOINT_TYPE) ||
+        checkpointType.equals(
+            DirectorySyncSourceConfigurationConstants.CHECKPOINT_TYPE_LOG),
+        "checkpointType must be either statsFile or log");
+    checkpointFile = new File(context.getString(
+        DirectorySyncSourceConfigurationConstants.CHECKPOINT_FILE,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_CHECKPOINT_FILE));
+    if (!checkpointFile.isAbsolute()) {
+      checkpointFile = new File(syncDirectory, checkpointFile.getPath());
+    }
+    checkpointSyncInterval = context.getLong(
+        DirectorySyncSourceConfigurationConstants.CHECKPOINT_SYNC_INTERVAL,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_CHECKPOINT_SYNC_INTERVAL);
+    checkpointSyncCommits = context.getInteger(
+        DirectorySyncSourceConfigurationConstants.CHECKPOINT_SYNC_COMMITS,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_CHECKPOINT_SYNC_COMMITS);
+    Preconditions.checkState(checkpointSyncCommits >= 0,
+        "checkpointSyncCommits must not be negative");
+    incrementalDiscovery = context.getBoolean(
+        DirectorySyncSourceConfigurationConstants.INCREMENTAL_DISCOVERY,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_INCREMENTAL_DISCOVERY);
+    fullRescanInterval = context.getLong(
+        DirectorySyncSourceConfigurationConstants.FULL_RESCAN_INTERVAL,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_FULL_RESCAN_INTERVAL);
+    followFiles = context.getInteger(
+        DirectorySyncSourceConfigurationConstants.FOLLOW_FILES,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_FOLLOW_FILES);
+    Preconditions.checkState(followFiles >= 0,
+        "followFiles must not be negative");
+    followPollInterval = context.getLong(
+        DirectorySyncSourceConfigurationConstants.FOLLOW_POLL_INTERVAL,
+        DirectorySyncSourceConfigurationConstants.DEFAULT_FOLLOW_POLL_INTERVAL);
+    Preconditions.checkState(followPollInterval > 0,
+        "followPollInterval must be greater than 0");
 
-  private Event createEvent(byte[] lineEntry, String filename) {
-    Event out = EventBuilder.withBody(lineEntry);
-    if (directoryPrefix.length() > 0) {
-      out.getHeaders().put(filenameHeaderKey,
-          directoryPrefix + File.separator + filename);
-    } else {
-      out.getHeaders().put(filenameHeaderKey, filename);
+    if (sourceCounter == null) {
+      sourceCounter = new DirectorySyncSourceCounter(getName());
     }
-    return out;
+  }
+
+  DirectorySyncSourceCounter getSourceCounter() {
+    return sourceCounter;
   }
 
   private class DirectorySyncRunnable implements Runnable {
+    private int shard;
     private DirectorySyncFileLineReader reader;
-    private CounterGroup counterGroup;
+    private DirectorySyncSourceCounter sourceCounter;
+    private DirectorySyncEventFactory eventFactory;
+    private long lastSyncLagUpdate;
 
-    public DirectorySyncRunnable(DirectorySyncFileLineReader reader,
-                                 CounterGroup counterGroup) {
+    public DirectorySyncRunnable(int shard,
+                                 DirectorySyncFileLineReader reader,
+                                 DirectorySyncSourceCounter sourceCounter) {
+      this.shard = shard;
       this.reader = reader;
-      this.counterGroup = counterGroup;
+      this.sourceCounter = sourceCounter;
+      this.eventFactory =
+          new DirectorySyncEventFactory(syncDirectory, directoryPrefix);
     }
 
     @Override
     public void run() {
       try {
         while (true) {
-          List<byte[]> lines = reader.readLines(batchSize);
+          List<byte[]> lines = blockMode ?
+              reader.readBlocks(batchSize, blockSize) :
+              reader.readLines(batchSize);
           if (lines.size() == 0) {
+            // caught up, or stalled on a file that cannot be read
+            updateSyncLag(true);
             break;
           }
-          String file = syncDirectory.toURI().relativize(
-              reader.getLastFileRead().toURI()).getPath();
-          List<Event> events = Lists.newArrayList();
-          for (byte[] l : lines) {
-            counterGroup.incrementAndGet("syncdir.lines.read");
-            events.add(createEvent(l, file));
+          File lastFileRead = reader.getLastFileRead();
+          List<Event> events;
+          if (blockMode) {
+            events = eventFactory.createBlockEvents(lastFileRead, lines,
+                reader.getLastReadOffset());
+            sourceCounter.addToBlocksReadCount(lines.size());
+          } else {
+            events = eventFactory.createEvents(lastFileRead, lines);
+            sourceCounter.addToLinesReadCount(lines.size());
           }
           getChannelProcessor().processEventBatch(events);
           reader.commit();
+          sourceCounter.incrementBatchesCommittedCount();
+          updateSyncLag(false);
         }
       } catch (Throwable t) {
         logger.error("Uncaught exception in Runnable", t);
@@ -164,5 +320,19 @@ public class DirectorySyncSource extends AbstractSource implements
         }
       }
     }
+
+    /**
+     * Publish the lag of the files of this reader; while it is busy, at most
+     * once per {@link #SYNC_LAG_INTERVAL_MS}, since waiting files are stat'ed.
+     */
+    private void updateSyncLag(boolean force) {
+      long now = System.currentTimeMillis();
+      if (force || now - lastSyncLagUpdate >= SYNC_LAG_INTERVAL_MS) {
+        DirectorySyncFileLineReader.SyncLag lag = reader.measureSyncLag();
+        sourceCounter.setSyncLag(shard, lag.getMaxLag(),
+            lag.getLaggingFiles());
+        lastSyncLagUpdate = now;
+      }
+    }
   }
 }
@@ -47,9 +47,82 @@ public class DirectorySyncSourceConfigurationConstants {
   public static final String SYNCED_STATS_FILE_SUFFIX = "syncedStatsFileSuffix";
   public static final String DEFAULT_SYNCED_STATS_FILE_SUFFIX = ".FLUME-COMPLETED";
 
+  /**
+   * Where file positions are kept: "statsFile" keeps a stats file next to
+   * each file, "log" keeps them all in one checkpoint log per directory and
+   * migrates any existing stats files into it.
+   */
+  public static final String CHECKPOINT_TYPE = "checkpointType";
+  public static final String DEFAULT_CHECKPOINT_TYPE = "statsFile";
+  public static final String CHECKPOINT_TYPE_LOG = "log";
+  /** Checkpoint log file, relative to the sync directory unless absolute. */
+  public static final String CHECKPOINT_FILE = "checkpointFile";
+  public static final String DEFAULT_CHECKPOINT_FILE = ".flume-sync.checkpoint";
+
+  /**
+   * Milliseconds between fsyncs of the checkpoint log while commits are
+   * pending. 0 syncs on every commit, a negative value leaves flushing to the
+   * OS. One fsync covers the commits of all files.
+   */
+  public static final String CHECKPOINT_SYNC_INTERVAL = "checkpointSyncInterval";
+  public static final long DEFAULT_CHECKPOINT_SYNC_INTERVAL = -1L;
+  /**
+   * Also fsync the checkpoint log once this many commits are pending. 0 syncs
+   * on time only.
+   */
+  public static final String CHECKPOINT_SYNC_COMMITS = "checkpointSyncCommits";
+  public static final int DEFAULT_CHECKPOINT_SYNC_COMMITS = 0;
+
+  /**
+   * Keep an index of the directory tree and only re-list directories whose
+   * modification time changed, instead of walking the whole tree on every
+   * poll.
+   */
+  public static final String INCREMENTAL_DISCOVERY = "incrementalDiscovery";
+  public static final boolean DEFAULT_INCREMENTAL_DISCOVERY = false;
+  /**
+   * Milliseconds between full walks of the directory tree when
+   * incrementalDiscovery is on.
+   */
+  public static final String FULL_RESCAN_INTERVAL = "fullRescanInterval";
+  public static final long DEFAULT_FULL_RESCAN_INTERVAL = 60000L;
+
+  /**
+   * Number of growing files each reader keeps open after reaching their end,
+   * to read new lines as soon as they are written instead of after the next
+   * walk of the directory. 0 disables following.
+   */
+  public static final String FOLLOW_FILES = "followFiles";
+  public static final int DEFAULT_FOLLOW_FILES = 0;
+  /** Milliseconds between polls of the followed files. */
+  public static final String FOLLOW_POLL_INTERVAL = "followPollInterval";
+  public static final long DEFAULT_FOLLOW_POLL_INTERVAL = 100L;
+
+  /**
+   * How files are transferred: "line" sends an event per line, "block" sends
+   * consecutive byte ranges of up to blockSize bytes, which also syncs binary
+   * files. Block events carry the range in the offset and length headers.
+   */
+  public static final String TRANSFER_MODE = "transferMode";
+  public static final String DEFAULT_TRANSFER_MODE = "line";
+  public static final String TRANSFER_MODE_BLOCK = "block";
+  /** Maximum bytes per event in block mode. */
+  public static final String BLOCK_SIZE = "blockSize";
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
   /** Header in which to put relative filename. */
   public static final String FILENAME_HEADER_KEY = "path";
+  /** Header in which to put the file offset of a block's first byte. */
+  public static final String OFFSET_HEADER_KEY = "offset";
+  /** Header in which to put the byte length of a block. */
+  public static final String LENGTH_HEADER_KEY = "length";
   /** What size to batch with before sending to ChannelProcessor. */
   public static final String BATCH_SIZE = "batchSize";
   public static final int DEFAULT_BATCH_SIZE = 100;
+  /**
+   * Number of threads reading the directory. Files are sharded across them by
+   * the hash of their path, so each file is still read in order by one thread.
+   */
+  public static final String READER_THREADS = "readerThreads";
+  public static final int DEFAULT_READER_THREADS = 1;
 }
@@ -19,7 +19,10 @@ package org.apache.flume.source;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -33,6 +36,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import static org.apache.flume.source
     .SpoolDirectorySourceConfigurationConstants.*;
@@ -54,44 +59,95 @@ Configurable, EventDrivenSource {
   private int batchSize;
   private String ignorePattern;
   private String trackerDirPath;
+  private String trackerType;
+  private long trackerSyncInterval;
+  private long mmapThreshold;
+  private String compression;
+  private long compressionCheckpointInterval;
+  private boolean incrementalDiscovery;
+  private long fullRescanInterval;
   private String deserializerType;
   private Context deserializerContext;
   private String deletePolicy;
   private String inputCharset;
+  private int readerThreads;
 
   private SourceCounter sourceCounter;
-  ReliableSpoolingFileEventReader reader;
+  private ScheduledExecutorService executor;
+  List<ReliableSpoolingFileEventReader> readers;
 
   @Override
   public void start() {
     logger.info("SpoolDirectorySource source starting with directory: {}",
         spoolDirectory);
 
-    ScheduledExecutorService executor =
-        Executors.newSingleThreadScheduledExecutor();
+    executor = Executors.newScheduledThreadPool(readerThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("SpoolDirectorySource-" + getName() + "-%d")
+            .build());
 
     File directory = new File(spoolDirectory);
-    try {
-      reader = new ReliableSpoolingFileEventReader.Builder()
-          .spoolDirectory(directory)
-          .completedSuffix(completedSuffix)
-          .ignorePattern(ignorePattern)
-          .trackerDirPath(trackerDirPath)
-          .annotateFileName(fileHeader)
-          .fileNameHeader(fileHeaderKey)
-          .deserializerType(deserializerType)
-          .deserializerContext(deserializerContext)
-          .deletePolicy(deletePolicy)
-          .inputCharset(inputCharset)
-          .build();
-    } catch (IOException ioe) {
-      throw new FlumeException("Error instantiating spooling event parser",
-          ioe);
+    // readers share the set of files being read, so each file is read by
+    // exactly one of them
+    Set<String> claimedFiles =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    readers = Lists.newArrayListWithCapacity(readerThreads);
+    for (int i = 0; i < readerThreads; i++) {
+      ReliableSpoolingFileEventReader reader;
+      try {
+        reader = new ReliableSpoolingFileEventReader.Builder()
+            .spoolDirectory(directory)
+            .completedSuffix(completedSuffix)
+            .ignorePattern(ignorePattern)
+            .trackerDirPath(trackerDirPath)
+            .trackerType(trackerType)
+            .trackerSyncInterval(trackerSyncInterval)
+            .mmapThreshold(mmapThreshold)
+            .compression(compression)
+            .compressionCheckpointInterval(compressionCheckpointInterval)
+            .incrementalDiscovery(incrementalDiscovery)
+            .fullRescanInterval(fullRescanInterval)
+            .annotateFileName(fileHeader)
+            .fileNameHeader(fileHeaderKey)
+            .deserializerType(deserializerType)
+            .deserializerContext(deserializerContext)
+            .deletePolicy(deletePolicy)
+            .inputCharset(inputCharset)
+            .readerId(i)
+            .readerCount(readerThreads)
+            .claimedFiles(claimedFiles)
+            .build();
+      } catch (IOException ioe) {
+        throw new FlumeException("Error instantiating spooling event parser",
+            ioe);
+      }
+      readers.add(reader);
     }
 
-    Runnable runner = new SpoolDirectoryRunnable(reader, sourceCounter);
-    executor.scheduleWithFixedDelay(
-        runner, 0, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
+    // files tracked by more former readers than there are readers now
+    List<File> orphans = readers.get(0).getOrphanMetaFiles();
+    if (!orphans.isEmpty()) {
+      for (ReliableSpoolingFileEventReader reader : readers) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          logger.warn("Error closing spooling event reader", e);
+        }
+      }
+      executor.shutdown();
+      throw new FlumeException("Meta files " + orphans + " track files of " +
+          "readers that no longer exist; raise " + READER_THREADS +
+          " to at least " + (readerThreads + orphans.size()) +
+          " to resume them");
+    }
+
+    // only now that every reader has claimed the file its meta file tracks
+    // may any of them start picking files
+    for (ReliableSpoolingFileEventReader reader : readers) {
+      Runnable runner = new SpoolDirectoryRunnable(reader, sourceCounter);
+      executor.scheduleWithFixedDelay(
+          runner, 0, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
 
     super.start();
     logger.debug("SpoolDirectorySource source started");
@@ -100,6 +156,21 @@ Configurable, EventDrivenSource {
 
   @Override
   public void stop() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10L, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      logger.info("Interrupted while awaiting termination", ex);
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+    for (ReliableSpoolingFileEventReader reader : readers) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        logger.warn("Error closing spooling event reader", e);
+      }
+    }
     super.stop();
     sourceCounter.stop();
     logger.info("SpoolDir source {} stopped. Metrics: {}", getName(),
@@ -125,6 +196,21 @@ Configurable, EventDrivenSource {
 
     ignorePattern = context.getString(IGNORE_PAT, DEFAULT_IGNORE_PAT);
     trackerDirPath = context.getString(TRACKER_DIR, DEFAULT_TRACKER_DIR);
+    trackerType = context.getString(TRACKER_TYPE, DEFAULT_TRACKER_TYPE);
+    trackerSyncInterval = context.getLong(TRACKER_SYNC_INTERVAL,
+        DEFAULT_TRACKER_SYNC_INTERVAL);
+    mmapThreshold = context.getLong(MMAP_THRESHOLD, DEFAULT_MMAP_THRESHOLD);
+    compression = context.getString(COMPRESSION, DEFAULT_COMPRESSION);
+    incrementalDiscovery = context.getBoolean(INCREMENTAL_DISCOVERY,
+        DEFAULT_INCREMENTAL_DISCOVERY);
+    fullRescanInterval = context.getLong(FULL_RESCAN_INTERVAL,
+        DEFAULT_FULL_RESCAN_INTERVAL);
+    readerThreads = context.getInteger(READER_THREADS, DEFAULT_READER_THREADS);
+    Preconditions.checkState(readerThreads > 0,
+        "readerThreads must be greater than 0");
+    compressionCheckpointInterval = context.getLong(
+        COMPRESSION_CHECKPOINT_INTERVAL,
+        DEFAULT_COMPRESSION_CHECKPOINT_INTERVAL);
 
     deserializerType = context.getString(DESERIALIZER, DEFAULT_DESERIALIZER);
     deserializerContext = new Context(context.getSubProperties(DESERIALIZER +
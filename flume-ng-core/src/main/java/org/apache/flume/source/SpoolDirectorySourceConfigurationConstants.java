@@ -49,6 +49,13 @@ public class SpoolDirectorySourceConfigurationConstants {
   @Deprecated
   public static final int DEFAULT_BUFFER_MAX_LINE_LENGTH = 5000;
 
+  /**
+   * Number of files read concurrently, each by its own thread and with its
+   * own position tracker.
+   */
+  public static final String READER_THREADS = "readerThreads";
+  public static final int DEFAULT_READER_THREADS = 1;
+
   /** Pattern of files to ignore */
   public static final String IGNORE_PAT = "ignorePattern";
   public static final String DEFAULT_IGNORE_PAT = "^$"; // no effect
@@ -57,6 +64,21 @@ public class SpoolDirectorySourceConfigurationConstants {
   public static final String TRACKER_DIR = "trackerDir";
   public static final String DEFAULT_TRACKER_DIR = ".flumespool";
 
+  /**
+   * How to persist the read position: {@code avro} appends a record to an
+   * Avro container file on every commit, {@code inplace} overwrites one of
+   * two fixed-size slots.
+   */
+  public static final String TRACKER_TYPE = "trackerType";
+  public static final String DEFAULT_TRACKER_TYPE = "avro";
+
+  /**
+   * Milliseconds between fsyncs of an {@code inplace} tracker file. 0 syncs
+   * on every commit, a negative value leaves flushing to the OS.
+   */
+  public static final String TRACKER_SYNC_INTERVAL = "trackerSyncInterval";
+  public static final long DEFAULT_TRACKER_SYNC_INTERVAL = -1L;
+
   /** Deserializer to use to parse the file data into Flume Events */
   public static final String DESERIALIZER = "deserializer";
   public static final String DEFAULT_DESERIALIZER = "LINE";
@@ -64,6 +86,43 @@ public class SpoolDirectorySourceConfigurationConstants {
   public static final String DELETE_POLICY = "deletePolicy";
   public static final String DEFAULT_DELETE_POLICY = "never";
 
+  /**
+   * Files of at least this many bytes are read through a memory mapping
+   * rather than a read buffer. A negative value never maps files.
+   */
+  public static final String MMAP_THRESHOLD = "mmapThreshold";
+  public static final long DEFAULT_MMAP_THRESHOLD = -1L;
+
+  /**
+   * Compression of spooled files: {@code none}, {@code gzip}, {@code bzip2},
+   * {@code snappy}, or {@code auto} to pick one by file name suffix.
+   */
+  public static final String COMPRESSION = "compression";
+  public static final String DEFAULT_COMPRESSION = "none";
+
+  /**
+   * Minimum number of uncompressed bytes between the restart points
+   * recorded for a compressed file.
+   */
+  public static final String COMPRESSION_CHECKPOINT_INTERVAL =
+      "compressionCheckpointInterval";
+  public static final long DEFAULT_COMPRESSION_CHECKPOINT_INTERVAL =
+      8L * 1024 * 1024;
+
+  /**
+   * Keep an ordered index of the spooled files and only re-read the
+   * directory when its modification time changes.
+   */
+  public static final String INCREMENTAL_DISCOVERY = "incrementalDiscovery";
+  public static final boolean DEFAULT_INCREMENTAL_DISCOVERY = false;
+
+  /**
+   * Milliseconds between full rescans of the spooling directory when
+   * incremental discovery is enabled.
+   */
+  public static final String FULL_RESCAN_INTERVAL = "fullRescanInterval";
+  public static final long DEFAULT_FULL_RESCAN_INTERVAL = 60000L;
+
   public static final String INPUT_CHARSET = "inputCharset";
   public static final String DEFAULT_INPUT_CHARSET = "UTF-8";
 }
@@ -19,6 +19,7 @@ package org.apache.flume.client.avro;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import junit.framework.Assert;
 import org.apache.flume.Event;
@@ -35,6 +36,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 public class TestReliableSpoolingFileEventReader {
 
@@ -188,6 +190,138 @@ public class TestReliableSpoolingFileEventReader {
         trackerFiles.size());
   }
 
+  @Test
+  public void testIncrementalDiscovery() throws IOException {
+    ReliableEventReader reader = new ReliableSpoolingFileEventReader.Builder()
+        .spoolDirectory(WORK_DIR)
+        .incrementalDiscovery(true)
+        .deletePolicy(DeletePolicy.IMMEDIATE.toString())
+        .build();
+
+    List<String> seen = Lists.newArrayList();
+    List<Event> events;
+    do {
+      events = reader.readEvents(10);
+      for (Event event : events) {
+        seen.add(new String(event.getBody(), Charsets.UTF_8));
+      }
+      reader.commit();
+    } while (!events.isEmpty());
+
+    // oldest files first, as with a full listing
+    Assert.assertEquals(Lists.newArrayList("file1line0", "file2line0",
+        "file2line1", "file3line0", "file3line1", "file3line2", ""), seen);
+    Assert.assertEquals(0, listFiles(WORK_DIR).size());
+  }
+
+  @Test
+  public void testTrackedFileClaimedAtBuild() throws IOException {
+    // reader 1 stops half way through file3
+    ReliableEventReader reader = new ReliableSpoolingFileEventReader.Builder()
+        .spoolDirectory(WORK_DIR)
+        .ignorePattern("^(?!file3$).*$")
+        .readerId(1)
+        .readerCount(2)
+        .build();
+    Assert.assertEquals("file3line0", new String(
+        reader.readEvent().getBody(), Charsets.UTF_8));
+    reader.commit();
+    reader.close();
+
+    Set<String> claimedFiles = Sets.newHashSet();
+    ReliableEventReader reader0 = new ReliableSpoolingFileEventReader.Builder()
+        .spoolDirectory(WORK_DIR)
+        .deletePolicy(DeletePolicy.IMMEDIATE.toString())
+        .readerCount(2)
+        .claimedFiles(claimedFiles)
+        .build();
+    ReliableEventReader reader1 = new ReliableSpoolingFileEventReader.Builder()
+        .spoolDirectory(WORK_DIR)
+        .deletePolicy(DeletePolicy.IMMEDIATE.toString())
+        .readerId(1)
+        .readerCount(2)
+        .claimedFiles(claimedFiles)
+        .build();
+
+    // reader 0 runs first but leaves file3 to reader 1, which resumes it
+    Assert.assertEquals(Lists.newArrayList("file1line0", "file2line0",
+        "file2line1", ""), readAll(reader0));
+    Assert.assertEquals(Lists.newArrayList("file3line1", "file3line2"),
+        readAll(reader1));
+    Assert.assertEquals(0, listFiles(WORK_DIR).size());
+  }
+
+  @Test
+  public void testRestartWithFewerReaders() throws IOException {
+    // reader 2 of 3 stops half way through file3
+    ReliableEventReader reader = new ReliableSpoolingFileEventReader.Builder()
+        .spoolDirectory(WORK_DIR)
+        .ignorePattern("^(?!file3$).*$")
+        .readerId(2)
+        .readerCount(3)
+        .build();
+    Assert.assertEquals("file3line0", new String(
+        reader.readEvent().getBody(), Charsets.UTF_8));
+    reader.commit();
+    reader.close();
+
+    // a single reader takes over its meta file and resumes file3
+    ReliableSpoolingFileEventReader reader0 =
+        new ReliableSpoolingFileEventReader.Builder()
+            .spoolDirectory(WORK_DIR)
+            .deletePolicy(DeletePolicy.IMMEDIATE.toString())
+            .build();
+    Assert.assertTrue(reader0.getOrphanMetaFiles().isEmpty());
+    Assert.assertEquals(Lists.newArrayList("file3line1", "file3line2"),
+        readAll(reader0));
+    // the empty file0 ended the first pass
+    Assert.assertEquals(Lists.newArrayList("file1line0", "file2line0",
+        "file2line1", ""), readAll(reader0));
+    reader0.close();
+  }
+
+  @Test
+  public void testOrphanMetaFileLeftWhenAllReadersTrackFiles()
+      throws IOException {
+    for (int id = 0; id < 2; id++) {
+      ReliableEventReader reader = new ReliableSpoolingFileEventReader.Builder()
+          .spoolDirectory(WORK_DIR)
+          .ignorePattern("^(?!file" + (id + 2) + "$).*$")
+          .readerId(id)
+          .readerCount(2)
+          .build();
+      reader.readEvent();
+      reader.commit();
+      reader.close();
+    }
+
+    // reader 0 keeps its own file, nobody can resume the one of reader 1
+    ReliableSpoolingFileEventReader reader0 =
+        new ReliableSpoolingFileEventReader.Builder()
+            .spoolDirectory(WORK_DIR)
+            .build();
+    List<File> orphans = reader0.getOrphanMetaFiles();
+    Assert.assertEquals(1, orphans.size());
+    Assert.assertEquals(ReliableSpoolingFileEventReader.readerMetaFileName(
+        ReliableSpoolingFileEventReader.metaFileName, 1),
+        orphans.get(0).getName());
+    reader0.close();
+  }
+
+  private static List<String> readAll(ReliableEventReader reader)
+      throws IOException {
+    List<String> seen = Lists.newArrayList();
+    List<Event> events;
+    do {
+      events = reader.readEvents(10);
+      for (Event event : events) {
+        seen.add(new String(event.getBody(), Charsets.UTF_8));
+      }
+      reader.commit();
+    } while (!events.isEmpty());
+    return seen;
+  }
+
   private static List<File> listFiles(File dir) {
     List<File> files = Lists.newArrayList(dir.listFiles(new FileFilter
         () {
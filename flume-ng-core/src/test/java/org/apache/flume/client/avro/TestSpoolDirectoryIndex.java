@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.client.avro;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Clock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class TestSpoolDirectoryIndex {
+
+  private static final FileFilter NOT_HIDDEN = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return !file.getName().startsWith(".");
+    }
+  };
+
+  private File dir;
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    clock = new FakeClock();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  private File touch(String name, long lastModified) throws IOException {
+    File file = new File(dir, name);
+    Files.touch(file);
+    Assert.assertTrue(file.setLastModified(lastModified));
+    return file;
+  }
+
+  private List<String> names(SpoolDirectoryIndex index) {
+    List<String> names = Lists.newArrayList();
+    for (File file : index.files()) {
+      names.add(file.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testOrderedByTimeThenName() throws IOException {
+    touch("c", 1000000L);
+    touch("b", 2000000L);
+    touch("a", 2000000L);
+    touch(".hidden", 0L);
+
+    SpoolDirectoryIndex index =
+        new SpoolDirectoryIndex(dir, NOT_HIDDEN, 60000L, clock);
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("c", "a", "b"), names(index));
+  }
+
+  @Test
+  public void testIncrementalChanges() throws IOException {
+    File first = touch("first", 1000000L);
+    SpoolDirectoryIndex index =
+        new SpoolDirectoryIndex(dir, NOT_HIDDEN, 60000L, clock);
+    index.refresh();
+    Assert.assertEquals(1, index.size());
+
+    touch("second", 2000000L);
+    Assert.assertTrue(first.delete());
+    // make sure the directory time moves even on coarse file systems
+    Assert.assertTrue(dir.setLastModified(dir.lastModified() + 5000L));
+    clock.advance(1000L);
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("second"), names(index));
+
+    index.remove(new File(dir, "second"));
+    Assert.assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testUnchangedDirectoryIsNotListed() throws IOException {
+    touch("first", 1000000L);
+    long dirTime = 1000000L;
+    Assert.assertTrue(dir.setLastModified(dirTime));
+    clock.set(dirTime + 10000L);
+
+    SpoolDirectoryIndex index =
+        new SpoolDirectoryIndex(dir, NOT_HIDDEN, 60000L, clock);
+    index.refresh();
+    Assert.assertEquals(1, index.size());
+
+    // a file slipping in without moving the directory time goes unnoticed
+    touch("second", 2000000L);
+    Assert.assertTrue(dir.setLastModified(dirTime));
+    clock.advance(1000L);
+    index.refresh();
+    Assert.assertEquals(1, index.size());
+
+    // until the next full rescan
+    clock.advance(60000L);
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("first", "second"), names(index));
+  }
+
+  @Test
+  public void testFullRescanPicksUpModifiedFile() throws IOException {
+    File first = touch("first", 1000000L);
+    touch("second", 2000000L);
+    SpoolDirectoryIndex index =
+        new SpoolDirectoryIndex(dir, NOT_HIDDEN, 0L, clock);
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("first", "second"), names(index));
+
+    Assert.assertTrue(first.setLastModified(3000000L));
+    clock.advance(1L);
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("second", "first"), names(index));
+  }
+
+  @Test
+  public void testRejectedNamesAreNotFilteredAgain() throws IOException {
+    touch("first", 1000000L);
+    touch(".hidden", 1000000L);
+    final List<String> filtered = Lists.newArrayList();
+    FileFilter filter = new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        filtered.add(file.getName());
+        return NOT_HIDDEN.accept(file);
+      }
+    };
+    SpoolDirectoryIndex index =
+        new SpoolDirectoryIndex(dir, filter, 60000L, clock);
+    index.refresh();
+    Assert.assertEquals(2, filtered.size());
+
+    touch("second", 2000000L);
+    Assert.assertTrue(dir.setLastModified(dir.lastModified() + 5000L));
+    clock.advance(1000L);
+    filtered.clear();
+    index.refresh();
+    Assert.assertEquals(Lists.newArrayList("second"), filtered);
+    Assert.assertEquals(Lists.newArrayList("first", "second"), names(index));
+
+    // a full rescan checks every name again
+    clock.advance(60000L);
+    filtered.clear();
+    index.refresh();
+    Assert.assertEquals(3, filtered.size());
+  }
+
+  private static class FakeClock implements Clock {
+    private long now = System.currentTimeMillis();
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+
+    void set(long now) {
+      this.now = now;
+    }
+
+    void advance(long millis) {
+      now += millis;
+    }
+  }
+
+}
@@ -0,0 +1,278 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.input;
+
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+public class TestDirectorySyncCheckpointStore {
+  private File tmpDir;
+  private File checkpointFile;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    checkpointFile = new File(tmpDir, ".flume-sync.checkpoint");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  @Test
+  public void testCommitAndReplay() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals("a/b.log", store.keyOf(new File(tmpDir, "a/b.log")));
+    store.commit("a/b.log", 10, false);
+    store.commit("a/b.log", 25, false);
+    store.commit("c.log", 7, true);
+    store.close();
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(2, store.size());
+    Assert.assertEquals(25, store.getPosition("a/b.log"));
+    Assert.assertFalse(store.isCompleted("a/b.log"));
+    Assert.assertEquals(7, store.getPosition("c.log"));
+    Assert.assertTrue(store.isCompleted("c.log"));
+    Assert.assertEquals(0, store.getPosition("unknown"));
+    Assert.assertTrue(store.isStoreFile(checkpointFile));
+    store.close();
+  }
+
+  @Test
+  public void testUnchangedCommitIsNotWritten() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    store.commit("a", 10, false);
+    long length = checkpointFile.length();
+    store.commit("a", 10, false);
+    Assert.assertEquals(length, checkpointFile.length());
+    store.close();
+  }
+
+  @Test
+  public void testTornRecordIsDropped() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    store.commit("a", 10, false);
+    store.close();
+    long length = checkpointFile.length();
+
+    // half of a record, as left by a crash in the middle of a write
+    FileOutputStream out = new FileOutputStream(checkpointFile, true);
+    out.write(new byte[] { 1, 0, 5, 'b' });
+    out.close();
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(length, checkpointFile.length());
+    Assert.assertEquals(10, store.getPosition("a"));
+    store.commit("a", 20, false);
+    store.close();
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(1, store.size());
+    Assert.assertEquals(20, store.getPosition("a"));
+    store.close();
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    File kept = new File(tmpDir, "kept");
+    Files.touch(kept);
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    for (int i = 1; i <= 10000; i++) {
+      store.commit("kept", i, false);
+      store.commit("removed", i, false);
+    }
+    store.commit("removed", 10001, true);
+    // far fewer records than commits are left in the log
+    Assert.assertTrue(checkpointFile.length() < 8 * 1024 * 17);
+    store.compact();
+    Assert.assertFalse(store.contains("removed"));
+    store.close();
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(1, store.size());
+    Assert.assertEquals(10000, store.getPosition("kept"));
+    store.close();
+  }
+
+  @Test
+  public void testMigrateStatsFiles() throws IOException {
+    File sub = new File(tmpDir, "sub");
+    sub.mkdirs();
+    Files.write("line\n".getBytes(), new File(sub, "reading"));
+    Files.write("line\n".getBytes(), new File(tmpDir, "read"));
+    File incomplete = new File(sub, ".reading.FLUME-INCOMPLETE");
+    Files.write("3".getBytes(), incomplete);
+    File completed = new File(tmpDir, ".read.FLUME-COMPLETED");
+    Files.write("5".getBytes(), completed);
+    File damaged = new File(tmpDir, ".other.FLUME-INCOMPLETE");
+    Files.write("".getBytes(), damaged);
+
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(2, store.migrateStatsFiles(".", ".FLUME-INCOMPLETE",
+        ".FLUME-COMPLETED"));
+    Assert.assertEquals(3, store.getPosition("sub/reading"));
+    Assert.assertFalse(store.isCompleted("sub/reading"));
+    Assert.assertEquals(5, store.getPosition("read"));
+    Assert.assertTrue(store.isCompleted("read"));
+    Assert.assertFalse(incomplete.exists());
+    Assert.assertFalse(completed.exists());
+    Assert.assertTrue(damaged.exists());
+    store.close();
+
+    // once migrated, the tree is not walked again
+    Files.write("1".getBytes(), incomplete);
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(3, store.getPosition("sub/reading"));
+    Assert.assertTrue(store.isCompleted("read"));
+    Assert.assertEquals(0, store.migrateStatsFiles(".", ".FLUME-INCOMPLETE",
+        ".FLUME-COMPLETED"));
+    Assert.assertTrue(incomplete.exists());
+    store.close();
+  }
+
+  @Test
+  public void testMigrationWithoutStatsFilesIsRecorded() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(0, store.migrateStatsFiles(".", ".FLUME-INCOMPLETE",
+        ".FLUME-COMPLETED"));
+    store.commit("a", 3, false);
+    store.compact();
+    store.close();
+
+    File incomplete = new File(tmpDir, ".a.FLUME-INCOMPLETE");
+    Files.write("1".getBytes(), incomplete);
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(0, store.migrateStatsFiles(".", ".FLUME-INCOMPLETE",
+        ".FLUME-COMPLETED"));
+    Assert.assertEquals(3, store.getPosition("a"));
+    Assert.assertTrue(incomplete.exists());
+    store.close();
+  }
+
+  @Test
+  public void testKeyOf() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals("sub/file",
+        store.keyOf(new File(new File(tmpDir, "sub"), "file")));
+    Assert.assertEquals("file", store.keyOf(
+        new File(tmpDir.getAbsolutePath() + File.separator, "file")));
+    store.close();
+  }
+
+  @Test
+  public void testCorruptRecordRollsBack() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    store.commit("a", 10, false);
+    long goodLength = checkpointFile.length();
+    store.commit("a", 20, false);
+    store.commit("b", 5, false);
+    store.close();
+
+    // flip a bit in the position of the second record
+    RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw");
+    long offset = goodLength + 1 + 2 + 1 + 7;
+    raf.seek(offset);
+    int b = raf.read();
+    raf.seek(offset);
+    raf.write(b ^ 1);
+    raf.close();
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+    Assert.assertEquals(10, store.getPosition("a"));
+    Assert.assertFalse(store.contains("b"));
+    Assert.assertEquals(goodLength, checkpointFile.length());
+    store.close();
+  }
+
+  @Test
+  public void testRandomTailIsDropped() throws IOException {
+    for (int seed = 0; seed < 50; seed++) {
+      DirectorySyncCheckpointStore store =
+          new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+      store.commit("a", 10, false);
+      store.close();
+      long goodLength = checkpointFile.length();
+
+      // a position record whose key is garbage, as left by a torn write
+      byte[] tail = new byte[64];
+      new Random(seed).nextBytes(tail);
+      tail[0] = 1;
+      tail[1] = 0;
+      tail[2] = 32;
+      FileOutputStream out = new FileOutputStream(checkpointFile, true);
+      out.write(tail);
+      out.close();
+
+      store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile);
+      Assert.assertEquals(10, store.getPosition("a"));
+      Assert.assertEquals(1, store.size());
+      Assert.assertEquals(goodLength, checkpointFile.length());
+      store.close();
+      Assert.assertTrue(checkpointFile.delete());
+    }
+  }
+
+  @Test
+  public void testSyncPolicy() throws IOException {
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir, checkpointFile, 60000L, 3);
+    store.commit("a", 1, false);
+    store.commit("b", 1, false);
+    Assert.assertEquals(0, store.getSyncCount());
+    store.syncIfDue();
+    Assert.assertEquals(0, store.getSyncCount());
+    // one fsync covers the commits of every file
+    store.commit("a", 2, false);
+    Assert.assertEquals(1, store.getSyncCount());
+    store.commit("a", 3, false);
+    store.close();
+    Assert.assertEquals(2, store.getSyncCount());
+
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile, 0L, 0);
+    store.commit("a", 4, false);
+    store.commit("a", 5, false);
+    Assert.assertEquals(2, store.getSyncCount());
+    store.close();
+
+    // syncing on commit count only still syncs pending commits on close
+    store = new DirectorySyncCheckpointStore(tmpDir, checkpointFile, -1L, 3);
+    store.commit("a", 6, false);
+    Assert.assertEquals(0, store.getSyncCount());
+    store.close();
+    Assert.assertEquals(1, store.getSyncCount());
+  }
+}
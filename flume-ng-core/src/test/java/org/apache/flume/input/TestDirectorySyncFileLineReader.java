@@ -27,11 +27,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 public class TestDirectorySyncFileLineReader {
   private Logger logger = LoggerFactory.getLogger
@@ -101,4 +104,206 @@ public class TestDirectorySyncFileLineReader {
       Assert.assertEquals(lines.get(i % 6).replaceAll("\r", "").replaceAll("\n", ""), exactLines.get(i));
     }
   }
+
+  @Test
+  public void testShardedReaders() throws IOException {
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < 20; i++) {
+      File dir = new File(tmpDir1, "dir" + (i % 3));
+      dir.mkdirs();
+      StringBuilder content = new StringBuilder();
+      for (int j = 0; j < 5; j++) {
+        String line = "file" + i + "line" + j;
+        content.append(line).append('\n');
+        expected.add(line);
+      }
+      Files.write(content.toString().getBytes("UTF-8"), new File(dir, "file" + i));
+    }
+
+    Set<String> seen = new HashSet<String>();
+    int shardCount = 3;
+    for (int shard = 0; shard < shardCount; shard++) {
+      DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader(tmpDir1,
+          ".done", ".", ".FLUME-INCOMPLETE", ".FLUME-COMPLETED", shard, shardCount);
+      List<byte[]> lines;
+      while ((lines = reader.readLines(2)).size() > 0) {
+        for (byte[] line : lines) {
+          Assert.assertTrue("line read by two shards",
+              seen.add(new String(line, Charset.forName("UTF-8"))));
+        }
+        reader.commit();
+      }
+      reader.close();
+    }
+    Assert.assertEquals(expected, seen);
+  }
+
+  @Test
+  public void testCheckpointStore() throws IOException {
+    Files.write("line1\nline2\nline3\n".getBytes("UTF-8"), new File(tmpDir1, "file1"));
+    Files.touch(new File(tmpDir1, "file1.done"));
+    File checkpointFile = new File(tmpDir1, ".flume-sync.checkpoint");
+
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir1, checkpointFile);
+    DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader(tmpDir1,
+        ".done", ".", ".FLUME-INCOMPLETE", ".FLUME-COMPLETED", 0, 1, store);
+    Assert.assertEquals("line1", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertEquals("line2", new String(reader.readLine(), "UTF-8"));
+    reader.close();
+    store.close();
+    Assert.assertEquals(0, tmpDir1.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".FLUME-INCOMPLETE") || name.endsWith(".FLUME-COMPLETED");
+      }
+    }).length);
+
+    // resumes after the committed line and completes the ended file
+    store = new DirectorySyncCheckpointStore(tmpDir1, checkpointFile);
+    reader = new DirectorySyncFileLineReader(tmpDir1,
+        ".done", ".", ".FLUME-INCOMPLETE", ".FLUME-COMPLETED", 0, 1, store);
+    Assert.assertEquals("line2", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertEquals("line3", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+    Assert.assertTrue(store.isCompleted("file1"));
+    Assert.assertNull(reader.readLine());
+    reader.close();
+    store.close();
+  }
+
+  @Test
+  public void testIncrementalDiscovery() throws IOException {
+    File sub = new File(tmpDir1, "sub");
+    sub.mkdirs();
+    File file1 = new File(sub, "file1");
+    Files.write("line1\n".getBytes("UTF-8"), file1);
+
+    DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader.Builder()
+        .directory(tmpDir1)
+        .incrementalDiscovery(true)
+        .build();
+    Assert.assertEquals("line1", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+
+    // appended lines and new files are still picked up
+    Files.append("line2\n", file1, Charset.forName("UTF-8"));
+    Assert.assertEquals("line2", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Files.write("other\n".getBytes("UTF-8"), new File(tmpDir1, "file2"));
+    Assert.assertTrue(tmpDir1.setLastModified(System.currentTimeMillis() + 10000L));
+    Assert.assertNull(reader.readLine());
+    Assert.assertEquals("other", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+
+    // once ended and drained, the file is completed
+    Files.touch(new File(sub, "file1.done"));
+    Assert.assertTrue(sub.setLastModified(System.currentTimeMillis() + 20000L));
+    // the first poll finishes the previous pass over the index
+    Assert.assertNull(reader.readLine());
+    Assert.assertNull(reader.readLine());
+    Assert.assertTrue(new File(sub, ".file1.FLUME-COMPLETED").exists());
+    reader.close();
+  }
+
+  @Test
+  public void testFollowGrowingFile() throws IOException {
+    File file1 = new File(tmpDir1, "file1");
+    Files.write("line1\n".getBytes("UTF-8"), file1);
+
+    // the directory is walked only once in this test
+    DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader.Builder()
+        .directory(tmpDir1)
+        .followFiles(1)
+        .discoveryInterval(60000L)
+        .build();
+    Assert.assertEquals("line1", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+
+    Files.append("line2\nline", file1, Charset.forName("UTF-8"));
+    Assert.assertEquals("line2", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+    Files.append("3\n", file1, Charset.forName("UTF-8"));
+    Assert.assertEquals("line3", new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+
+    Files.touch(new File(tmpDir1, "file1.done"));
+    Assert.assertNull(reader.readLine());
+    Assert.assertTrue(new File(tmpDir1, ".file1.FLUME-COMPLETED").exists());
+    reader.close();
+  }
+
+  @Test
+  public void testFollowRotatedFile() throws IOException {
+    File file1 = new File(tmpDir1, "file1");
+    Files.write("line1\nline2\n".getBytes("UTF-8"), file1);
+    File checkpointFile = new File(tmpDir1, ".flume-sync.checkpoint");
+    DirectorySyncCheckpointStore store =
+        new DirectorySyncCheckpointStore(tmpDir1, checkpointFile);
+
+    DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader.Builder()
+        .directory(tmpDir1)
+        .checkpointStore(store)
+        .followFiles(1)
+        .build();
+    Assert.assertEquals(2, reader.readLines(10).size());
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+
+    // the log is renamed out of the directory and recreated, larger
+    File rotated = new File(Files.createTempDir(), "file1.1");
+    Files.move(file1, rotated);
+    Files.write("a new line, longer than the old file\n".getBytes("UTF-8"),
+        file1);
+    Assert.assertEquals("a new line, longer than the old file",
+        new String(reader.readLine(), "UTF-8"));
+    reader.commit();
+    Assert.assertNull(reader.readLine());
+    reader.close();
+    store.close();
+    FileUtils.deleteDirectory(rotated.getParentFile());
+  }
+
+  @Test
+  public void testSyncLagCountsWaitingFiles() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      Files.write("aa\nbb\n".getBytes("UTF-8"), new File(tmpDir1, "file" + i));
+    }
+    DirectorySyncFileLineReader reader = new DirectorySyncFileLineReader(tmpDir1,
+        ".done", ".", ".FLUME-INCOMPLETE", ".FLUME-COMPLETED");
+    Assert.assertNotNull(reader.readLine());
+    reader.commit();
+    File current = reader.getLastFileRead();
+
+    // half of the file being read, and two whole files waiting behind it
+    DirectorySyncFileLineReader.SyncLag lag = reader.measureSyncLag();
+    Assert.assertEquals(6, lag.getMaxLag());
+    Assert.assertEquals(3, lag.getLaggingFiles());
+
+    for (int i = 0; i < 3; i++) {
+      File file = new File(tmpDir1, "file" + i);
+      if (!file.equals(current)) {
+        Assert.assertTrue(file.delete());
+        break;
+      }
+    }
+    Assert.assertEquals(2, reader.measureSyncLag().getLaggingFiles());
+
+    // a vanished file ends a read, so drain twice
+    for (int pass = 0; pass < 2; pass++) {
+      while (reader.readLine() != null) {
+        reader.commit();
+      }
+    }
+    lag = reader.measureSyncLag();
+    Assert.assertEquals(0, lag.getMaxLag());
+    Assert.assertEquals(0, lag.getLaggingFiles());
+    reader.close();
+  }
 }
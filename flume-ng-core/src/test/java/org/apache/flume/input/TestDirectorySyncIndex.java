@@ -0,0 +1,188 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.input;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.flume.Clock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+public class TestDirectorySyncIndex {
+  private static final FileFilter DATA_FILES = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return !file.getName().startsWith(".") && !file.getName().endsWith(".done");
+    }
+  };
+
+  private File dir;
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    clock = new FakeClock();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  private File write(String path, String content) throws IOException {
+    File file = new File(dir, path);
+    file.getParentFile().mkdirs();
+    Files.write(content.getBytes("UTF-8"), file);
+    return file;
+  }
+
+  /** Move the time of every directory far enough to be trusted. */
+  private void settle(long dirTime) {
+    settle(dir, dirTime);
+    clock.set(dirTime + 10000L);
+  }
+
+  private void settle(File d, long dirTime) {
+    for (File sub : d.listFiles((FileFilter) DirectoryFileFilter.INSTANCE)) {
+      settle(sub, dirTime);
+    }
+    Assert.assertTrue(d.setLastModified(dirTime));
+  }
+
+  private Set<String> names(List<File> files) {
+    Set<String> names = Sets.newHashSet();
+    for (File file : files) {
+      names.add(dir.toURI().relativize(file.toURI()).getPath());
+    }
+    return names;
+  }
+
+  @Test
+  public void testDiscoversTree() throws IOException {
+    write("a", "1\n");
+    write("sub/b", "2\n");
+    write("sub/deeper/c", "3\n");
+    write("sub/.hidden", "");
+
+    DirectorySyncIndex index =
+        new DirectorySyncIndex(dir, DATA_FILES, ".done", 60000L, clock);
+    Assert.assertEquals(Sets.newHashSet("a", "sub/b", "sub/deeper/c"),
+        names(index.refresh()));
+  }
+
+  @Test
+  public void testDrainedFileIsOfferedOnlyWhenChanged() throws IOException {
+    File a = write("a", "1\n");
+    File b = write("sub/b", "2\n");
+    settle(1000000L);
+
+    DirectorySyncIndex index =
+        new DirectorySyncIndex(dir, DATA_FILES, ".done", 60000L, clock);
+    Assert.assertEquals(2, index.refresh().size());
+    index.drained(a, a.length(), false, false);
+    index.drained(b, b.length(), false, false);
+    clock.advance(500L);
+    Assert.assertTrue(index.refresh().isEmpty());
+
+    // growing does not touch the directory, but the file is stat'ed
+    Files.append("more\n", b, Charsets.UTF_8);
+    clock.advance(500L);
+    Assert.assertEquals(Lists.newArrayList(b), index.refresh());
+    index.drained(b, b.length(), false, false);
+
+    // the end mark shows up in a listing of the changed directory
+    Assert.assertFalse(index.isEnded(b));
+    Files.touch(new File(b.getPath() + ".done"));
+    Assert.assertTrue(b.getParentFile().setLastModified(1005000L));
+    clock.advance(500L);
+    Assert.assertEquals(Lists.newArrayList(b), index.refresh());
+    Assert.assertTrue(index.isEnded(b));
+
+    // a completed file is never offered again
+    index.drained(b, b.length(), true, true);
+    Files.append("late\n", b, Charsets.UTF_8);
+    clock.advance(500L);
+    Assert.assertTrue(index.refresh().isEmpty());
+  }
+
+  @Test
+  public void testUnchangedDirectoryIsNotListed() throws IOException {
+    File a = write("a", "1\n");
+    settle(1000000L);
+
+    DirectorySyncIndex index =
+        new DirectorySyncIndex(dir, DATA_FILES, ".done", 60000L, clock);
+    Assert.assertEquals(1, index.refresh().size());
+    index.drained(a, a.length(), false, false);
+
+    // a file slipping in without moving the directory time goes unnoticed
+    write("b", "2\n");
+    Assert.assertTrue(dir.setLastModified(1000000L));
+    clock.advance(1000L);
+    Assert.assertTrue(index.refresh().isEmpty());
+
+    // until the next full rescan
+    clock.advance(60000L);
+    Assert.assertEquals(Sets.newHashSet("b"), names(index.refresh()));
+  }
+
+  @Test
+  public void testRemovedDirectoryIsForgotten() throws IOException {
+    write("a", "1\n");
+    write("sub/b", "2\n");
+    settle(1000000L);
+
+    DirectorySyncIndex index =
+        new DirectorySyncIndex(dir, DATA_FILES, ".done", 60000L, clock);
+    Assert.assertEquals(2, index.refresh().size());
+
+    FileUtils.deleteDirectory(new File(dir, "sub"));
+    Assert.assertTrue(dir.setLastModified(1005000L));
+    clock.advance(500L);
+    Assert.assertEquals(Sets.newHashSet("a"), names(index.refresh()));
+  }
+
+  private static class FakeClock implements Clock {
+    private long now = System.currentTimeMillis();
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+
+    void set(long now) {
+      this.now = now;
+    }
+
+    void advance(long millis) {
+      now += millis;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package org.apache.flume.input;
 
+import com.google.common.io.Files;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -25,9 +26,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 public class TestResumableUTF8FileReader {
   File srcFile;
@@ -40,6 +44,7 @@ public class TestResumableUTF8FileReader {
   @After
   public void tearDown() throws Exception {
     srcFile.delete();
+    new File(srcFile.getParent() + File.separator + "." + srcFile.getName() + ".FLUME-STATS").delete();
   }
 
   @Test
@@ -97,4 +102,172 @@ public class TestResumableUTF8FileReader {
     reader.close();
     Assert.assertTrue(new File(srcFile.getParent() + File.separator + "." +srcFile.getName() + ".FLUME-COMPLETED").exists());
   }
+
+  @Test
+  public void testIndexOfLineTerminator() {
+    Random random = new Random(42);
+    byte[] alphabet = { 'a', '\r', '\n', 0, (byte) 0x80, (byte) 0x8A, (byte) 0xFF, 0x0B };
+    for (int round = 0; round < 2000; round++) {
+      byte[] data = new byte[random.nextInt(40)];
+      for (int i = 0; i < data.length; i++) {
+        // mostly plain bytes, so that whole words get skipped
+        data[i] = random.nextInt(4) == 0 ?
+            alphabet[random.nextInt(alphabet.length)] : (byte) random.nextInt(256);
+      }
+      ByteBuffer buf = ByteBuffer.wrap(data);
+      int from = data.length == 0 ? 0 : random.nextInt(data.length);
+      int expected = -1;
+      for (int i = from; i < data.length; i++) {
+        if (data[i] == '\n' || data[i] == '\r') {
+          expected = i;
+          break;
+        }
+      }
+      Assert.assertEquals(Arrays.toString(data) + " from " + from, expected,
+          ResumableFileLineReader.indexOfLineTerminator(buf, from, data.length));
+    }
+  }
+
+  @Test
+  public void testLinesAcrossBufferRefills() throws IOException {
+    // the '\r' of the first line ends the 128K buffer, its '\n' starts the next
+    char[] first = new char[128 * 1024 - 1];
+    Arrays.fill(first, 'a');
+    char[] longest = new char[300 * 1024];
+    Arrays.fill(longest, 'b');
+    String[] lines = { new String(first), new String(longest), "", "tail" };
+    OutputStreamWriter osWriter = new OutputStreamWriter(new FileOutputStream(srcFile, false),
+        Charset.forName("UTF-8"));
+    osWriter.write(lines[0] + "\r\n" + lines[1] + "\n" + lines[2] + "\r" + lines[3]);
+    osWriter.close();
+
+    ResumableFileLineReader reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    for (String line : lines) {
+      Assert.assertEquals(line, new String(reader.readLine(), Charset.forName("UTF-8")));
+    }
+    Assert.assertNull(reader.readLine());
+    reader.commit();
+    reader.close();
+
+    // the committed position covers every byte, terminators included
+    reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    Assert.assertNull(reader.readLine());
+    reader.close();
+  }
+
+  @Test
+  public void testBufferShrinksAfterLongLine() throws IOException {
+    char[] longest = new char[300 * 1024];
+    Arrays.fill(longest, 'b');
+    StringBuilder data = new StringBuilder(new String(longest)).append('\n');
+    for (int i = 0; i < 40000; i++) {
+      data.append("line").append(i).append('\n');
+    }
+    Files.write(data.toString(), srcFile, Charset.forName("UTF-8"));
+
+    ResumableFileLineReader reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    Assert.assertEquals(longest.length, reader.readLine().length);
+    Assert.assertTrue(reader.getBufferCapacity() > 128 * 1024);
+    for (int i = 0; i < 40000; i++) {
+      Assert.assertEquals("line" + i,
+          new String(reader.readLine(), Charset.forName("UTF-8")));
+    }
+    Assert.assertEquals(128 * 1024, reader.getBufferCapacity());
+    Assert.assertNull(reader.readLine());
+
+    // a reset drops a grown buffer too
+    reader.reset();
+    Assert.assertEquals(longest.length, reader.readLine().length);
+    Assert.assertTrue(reader.getBufferCapacity() > 128 * 1024);
+    reader.reset();
+    Assert.assertEquals(128 * 1024, reader.getBufferCapacity());
+    Assert.assertEquals(longest.length, reader.readLine().length);
+    reader.close();
+  }
+
+  @Test
+  public void testResetRereadsFromCommit() throws IOException {
+    OutputStreamWriter osWriter = new OutputStreamWriter(new FileOutputStream(srcFile, false),
+        Charset.forName("UTF-8"));
+    osWriter.write("one\r\ntwo\rthree\nfour");
+    osWriter.close();
+
+    ResumableFileLineReader reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    Assert.assertEquals("one", new String(reader.readLine(), Charset.forName("UTF-8")));
+    reader.commit();
+    Assert.assertEquals("two", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertEquals("three", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertEquals("four", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readLine());
+    reader.reset();
+    Assert.assertEquals("two", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertEquals("three", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertEquals("four", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readLine());
+    reader.close();
+  }
+
+  @Test
+  public void testFollowHoldsUnterminatedLine() throws IOException {
+    Files.write("one\ntw", srcFile, Charset.forName("UTF-8"));
+    ResumableFileLineReader reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    reader.setFollow(true);
+    Assert.assertEquals("one", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readLine());
+    reader.commit();
+    Assert.assertFalse(reader.resume());
+
+    // a '\r' at the end may still be followed by '\n'
+    Files.append("o\r", srcFile, Charset.forName("UTF-8"));
+    Assert.assertTrue(reader.resume());
+    Assert.assertNull(reader.readLine());
+    Files.append("\nthree", srcFile, Charset.forName("UTF-8"));
+    Assert.assertTrue(reader.resume());
+    Assert.assertEquals("two", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readLine());
+    reader.commit();
+    Assert.assertEquals("one\ntwo\r\n".length(), reader.getCommittedPosition());
+
+    // once ended, the last line is complete
+    reader.setFileEnded(true);
+    Assert.assertTrue(reader.resume());
+    Assert.assertEquals("three", new String(reader.readLine(), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readLine());
+    reader.commit();
+    Assert.assertTrue(reader.isFinished());
+    reader.close();
+    new File(srcFile.getParent() + File.separator + "." + srcFile.getName() + ".FLUME-COMPLETED").delete();
+  }
+
+  @Test
+  public void testReadBlock() throws IOException {
+    Files.write("one\r\ntwo\nthree", srcFile, Charset.forName("UTF-8"));
+    ResumableFileLineReader reader = new ResumableFileLineReader(srcFile, false,
+        ".", ".FLUME-STATS", ".FLUME-COMPLETED");
+    reader.setFollow(true);
+    Assert.assertEquals("one\r\ntw", new String(reader.readBlock(7), Charset.forName("UTF-8")));
+    Assert.assertEquals(7, reader.getPosition());
+    // an unterminated end is not held back, blocks ignore lines
+    Assert.assertEquals("o\nthree", new String(reader.readBlock(7), Charset.forName("UTF-8")));
+    Assert.assertNull(reader.readBlock(7));
+    reader.commit();
+    Assert.assertEquals(14, reader.getCommittedPosition());
+
+    Files.append("!", srcFile, Charset.forName("UTF-8"));
+    Assert.assertTrue(reader.resume());
+    Assert.assertEquals("!", new String(reader.readBlock(7), Charset.forName("UTF-8")));
+    reader.reset();
+    Assert.assertEquals("!", new String(reader.readBlock(7), Charset.forName("UTF-8")));
+    reader.setFileEnded(true);
+    Assert.assertNull(reader.readBlock(7));
+    reader.commit();
+    Assert.assertTrue(reader.isFinished());
+    reader.close();
+    new File(srcFile.getParent() + File.separator + "." + srcFile.getName() + ".FLUME-COMPLETED").delete();
+  }
 }
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Clock;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.DedupInterceptor.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class TestDedupInterceptor {
+
+  private static class MockClock implements Clock {
+    private long time = 1000000L;
+
+    @Override
+    public long currentTimeMillis() {
+      return time;
+    }
+  }
+
+  private static List<Event> batch(String... bodies) {
+    List<Event> events = Lists.newArrayList();
+    for (String body : bodies) {
+      events.add(EventBuilder.withBody(body, Charsets.UTF_8));
+    }
+    return events;
+  }
+
+  private static DedupInterceptor build(Context context, Clock clock) {
+    DedupInterceptor.Builder builder = new DedupInterceptor.Builder();
+    builder.configure(context);
+    builder.setClock(clock);
+    return (DedupInterceptor) builder.build();
+  }
+
+  /** Intercepts like a ChannelProcessor whose channel accepts the events. */
+  private static List<Event> deliver(DedupInterceptor interceptor,
+      List<Event> events) {
+    List<Event> out = interceptor.intercept(events);
+    interceptor.afterCommit();
+    return out;
+  }
+
+  private static Event deliver(DedupInterceptor interceptor, Event event) {
+    Event out = interceptor.intercept(event);
+    interceptor.afterCommit();
+    return out;
+  }
+
+  @Test
+  public void testDropsRetriedBatch() {
+    Context context = new Context();
+    context.put(Constants.MAX_BYTES, "65536");
+    DedupInterceptor interceptor = build(context, new MockClock());
+
+    Assert.assertEquals(3, deliver(interceptor, batch("a", "b", "c")).size());
+    List<Event> retried = deliver(interceptor, batch("a", "b", "c", "d"));
+    Assert.assertEquals(1, retried.size());
+    Assert.assertEquals("d",
+        new String(retried.get(0).getBody(), Charsets.UTF_8));
+    // duplicates within one batch are dropped as well
+    Assert.assertEquals(1, deliver(interceptor, batch("e", "e")).size());
+
+    Assert.assertEquals(5, interceptor.getCounter().getEventUniqueCount());
+    Assert.assertEquals(4, interceptor.getCounter().getEventDuplicateCount());
+    Assert.assertTrue(interceptor.getCounter().getFalsePositivePpm() < 1000);
+  }
+
+  @Test
+  public void testHeaderKey() {
+    Context context = new Context();
+    context.put(Constants.HEADER, "id");
+    context.put(Constants.MAX_BYTES, "65536");
+    DedupInterceptor interceptor = build(context, new MockClock());
+
+    Event first = EventBuilder.withBody("x", Charsets.UTF_8);
+    first.getHeaders().put("id", "1");
+    Event second = EventBuilder.withBody("y", Charsets.UTF_8);
+    second.getHeaders().put("id", "1");
+    Event unkeyed = EventBuilder.withBody("x", Charsets.UTF_8);
+
+    Assert.assertSame(first, deliver(interceptor, first));
+    Assert.assertNull(deliver(interceptor, second));
+    Assert.assertSame(unkeyed, deliver(interceptor, unkeyed));
+    Assert.assertSame(unkeyed, deliver(interceptor, unkeyed));
+    Assert.assertEquals(2, interceptor.getCounter().getEventUnkeyedCount());
+  }
+
+  @Test
+  public void testWindowExpiry() {
+    MockClock clock = new MockClock();
+    Context context = new Context();
+    context.put(Constants.MAX_BYTES, "65536");
+    context.put(Constants.WINDOW_SECONDS, "40");
+    context.put(Constants.GENERATIONS, "4");
+    DedupInterceptor interceptor = build(context, clock);
+
+    Assert.assertNotNull(deliver(interceptor, batch("a").get(0)));
+    Assert.assertNotNull(deliver(interceptor, batch("c").get(0)));
+    clock.time += 25000;
+    Assert.assertNotNull(deliver(interceptor, batch("b").get(0)));
+    // seeing a key again keeps it in the newest generation
+    Assert.assertNull(deliver(interceptor, batch("c").get(0)));
+    clock.time += 20000;
+    Assert.assertNotNull(deliver(interceptor, batch("a").get(0)));
+    Assert.assertNull(deliver(interceptor, batch("b").get(0)));
+    Assert.assertNull(deliver(interceptor, batch("c").get(0)));
+    Assert.assertTrue(interceptor.getCounter().getFilterRotationCount() >= 4);
+  }
+
+  @Test
+  public void testFalsePositiveEstimate() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(1024, 2, 60000,
+        1000, new MockClock());
+    for (int i = 0; i < 5000; i++) {
+      filter.put(Integer.toString(i).getBytes(Charsets.UTF_8));
+    }
+    Assert.assertTrue(filter.getFalsePositiveProbability() > 0.5);
+  }
+
+  @Test
+  public void testUncommittedKeysAreNotRecorded() {
+    Context context = new Context();
+    context.put(Constants.MAX_BYTES, "65536");
+    DedupInterceptor interceptor = build(context, new MockClock());
+
+    Assert.assertEquals(2, interceptor.intercept(batch("a", "b")).size());
+    interceptor.afterRollback();
+    Assert.assertEquals(2, interceptor.intercept(batch("a", "b")).size());
+    interceptor.afterCommit();
+    Assert.assertEquals(0, interceptor.intercept(batch("a", "b")).size());
+  }
+
+  @Test
+  public void testBatchRetriedAfterFailedPut() {
+    MemoryChannel channel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("capacity", "3");
+    channelContext.put("transactionCapacity", "3");
+    channel.configure(channelContext);
+    channel.start();
+
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Lists.<Channel>newArrayList(channel));
+    ChannelProcessor processor = new ChannelProcessor(selector);
+    Context context = new Context();
+    context.put("interceptors", "d");
+    context.put("interceptors.d.type", "dedup");
+    context.put("interceptors.d." + Constants.MAX_BYTES, "65536");
+    processor.configure(context);
+    processor.initialize();
+
+    // the channel is full, so the put fails and the client retries
+    processor.processEventBatch(batch("x", "y", "z"));
+    try {
+      processor.processEventBatch(batch("a", "b", "c"));
+      Assert.fail("expected the full channel to reject the batch");
+    } catch (ChannelException e) {
+      // expected
+    }
+    Assert.assertEquals(3, take(channel).size());
+    processor.processEventBatch(batch("a", "b", "c"));
+    Assert.assertEquals(3, take(channel).size());
+
+    // once committed, the batch is a duplicate
+    processor.processEventBatch(batch("a", "b", "c"));
+    Assert.assertEquals(0, take(channel).size());
+
+    processor.close();
+    channel.stop();
+  }
+
+  /** Takes everything out of a channel of capacity 3. */
+  private static List<Event> take(Channel channel) {
+    List<Event> events = Lists.newArrayList();
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    // never more than the channel capacity, or the take list overflows
+    Event event;
+    while (events.size() < 3 && (event = channel.take()) != null) {
+      events.add(event);
+    }
+    tx.commit();
+    tx.close();
+    return events;
+  }
+
+  @Test
+  public void testCounterNamePerInstance() throws Exception {
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Lists.<Channel>newArrayList(new MemoryChannel()));
+    Context context = new Context();
+    context.put("interceptors", "d");
+    context.put("interceptors.d.type", "dedup");
+    context.put("interceptors.d." + Constants.MAX_BYTES, "65536");
+    List<ChannelProcessor> processors = Lists.newArrayList();
+    for (String source : new String[] { "src1", "src2" }) {
+      ChannelProcessor processor = new ChannelProcessor(selector);
+      processor.setName(source);
+      processor.configure(context);
+      processor.initialize();
+      processors.add(processor);
+    }
+
+    for (String source : new String[] { "src1", "src2" }) {
+      Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+          new ObjectName("org.apache.flume.interceptor:type=" + source +
+              ".d.dedup")));
+    }
+    for (ChannelProcessor processor : processors) {
+      processor.close();
+    }
+  }
+}
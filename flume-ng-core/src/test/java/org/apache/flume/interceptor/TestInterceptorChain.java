@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.instrumentation.InterceptorCounter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class TestInterceptorChain {
+
+  private static Interceptor buildInterceptor(InterceptorType type,
+      Context context) throws Exception {
+    Interceptor.Builder builder =
+        InterceptorBuilderFactory.newInstance(type.toString());
+    builder.configure(context);
+    return builder.build();
+  }
+
+  private static List<Interceptor> buildInterceptors() throws Exception {
+    Context staticCtx = new Context();
+    staticCtx.put(StaticInterceptor.Constants.KEY, "myKey");
+    staticCtx.put(StaticInterceptor.Constants.VALUE, "myVal");
+
+    Context filterCtx = new Context();
+    filterCtx.put(RegexFilteringInterceptor.Constants.REGEX, "drop");
+    filterCtx.put(RegexFilteringInterceptor.Constants.EXCLUDE_EVENTS, "true");
+
+    List<Interceptor> interceptors = Lists.newArrayList();
+    interceptors.add(buildInterceptor(InterceptorType.STATIC, staticCtx));
+    interceptors.add(buildInterceptor(InterceptorType.REGEX_FILTER,
+        filterCtx));
+    // not stateless, splits the chain into two fused runs
+    interceptors.add(new CensoringInterceptor.Builder().build());
+    interceptors.add(buildInterceptor(InterceptorType.TIMESTAMP,
+        new Context()));
+    return interceptors;
+  }
+
+  private static List<Event> buildEvents() {
+    List<Event> events = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      String body = (i % 3 == 0) ? "drop " + i : "keep " + i;
+      events.add(EventBuilder.withBody(body, Charsets.UTF_8));
+    }
+    return events;
+  }
+
+  @Test
+  public void testFusedMatchesSerial() throws Exception {
+    InterceptorChain serial = new InterceptorChain();
+    serial.setInterceptors(buildInterceptors());
+    List<Event> serialOut = serial.intercept(buildEvents());
+
+    InterceptorChain fused = new InterceptorChain();
+    fused.setInterceptors(buildInterceptors());
+    fused.setFused(true);
+    List<Event> fusedOut = fused.intercept(buildEvents());
+
+    Assert.assertEquals(6, serialOut.size());
+    Assert.assertEquals(serialOut.size(), fusedOut.size());
+    for (int i = 0; i < serialOut.size(); i++) {
+      Event expected = serialOut.get(i);
+      Event actual = fusedOut.get(i);
+      Assert.assertArrayEquals(expected.getBody(), actual.getBody());
+      Assert.assertEquals("myVal", actual.getHeaders().get("myKey"));
+      Assert.assertNotNull(actual.getHeaders().get(
+          TimestampInterceptor.Constants.TIMESTAMP));
+    }
+  }
+
+  @Test
+  public void testFusedFiltersInPlace() throws Exception {
+    InterceptorChain chain = new InterceptorChain();
+    chain.setInterceptors(buildInterceptors().subList(0, 2));
+    chain.setFused(true);
+
+    List<Event> events = buildEvents();
+    List<Event> out = chain.intercept(events);
+    Assert.assertSame(events, out);
+    Assert.assertEquals(6, out.size());
+    for (Event event : out) {
+      Assert.assertTrue(new String(event.getBody(), Charsets.UTF_8)
+          .startsWith("keep"));
+    }
+  }
+
+  @Test
+  public void testFusedWithLinkedList() throws Exception {
+    InterceptorChain chain = new InterceptorChain();
+    chain.setInterceptors(buildInterceptors().subList(0, 2));
+    chain.setFused(true);
+
+    List<Event> out = chain.intercept(Lists.newLinkedList(buildEvents()));
+    Assert.assertEquals(6, out.size());
+  }
+
+  @Test
+  public void testParallelPreservesOrder() throws Exception {
+    InterceptorChain chain = new InterceptorChain();
+    chain.setInterceptors(buildInterceptors());
+    chain.setParallelism(4);
+    chain.setParallelThreshold(5);
+    chain.initialize();
+    try {
+      List<Event> events = Lists.newArrayList();
+      for (int i = 0; i < 1000; i++) {
+        String body = (i % 3 == 0) ? "drop " + i : "keep " + i;
+        events.add(EventBuilder.withBody(body, Charsets.UTF_8));
+      }
+      List<Event> out = chain.intercept(events);
+      Assert.assertEquals(666, out.size());
+      int expected = 0;
+      for (Event event : out) {
+        if (expected % 3 == 0) {
+          expected++;
+        }
+        Assert.assertEquals("keep " + expected,
+            new String(event.getBody(), Charsets.UTF_8));
+        Assert.assertEquals("myVal", event.getHeaders().get("myKey"));
+        expected++;
+      }
+
+      // below the threshold the batch stays on the calling thread
+      Assert.assertEquals(6, chain.intercept(buildEvents()).size());
+    } finally {
+      chain.close();
+    }
+  }
+
+  @Test
+  public void testCounters() throws Exception {
+    List<Interceptor> interceptors = buildInterceptors();
+    List<InterceptorCounter> counters = Lists.newArrayList();
+    for (int i = 0; i < interceptors.size(); i++) {
+      counters.add(new InterceptorCounter("i" + i));
+    }
+    for (boolean fused : new boolean[] { false, true }) {
+      InterceptorChain chain = new InterceptorChain();
+      chain.setInterceptors(interceptors, counters);
+      chain.setFused(fused);
+      chain.intercept(buildEvents());
+    }
+
+    Assert.assertEquals(20, counters.get(0).getEventReceivedCount());
+    Assert.assertEquals(0, counters.get(0).getEventDroppedCount());
+    Assert.assertEquals(20, counters.get(1).getEventReceivedCount());
+    Assert.assertEquals(8, counters.get(1).getEventDroppedCount());
+    Assert.assertEquals(12, counters.get(2).getEventReceivedCount());
+    Assert.assertEquals(12, counters.get(3).getEventReceivedCount());
+    Assert.assertEquals(0, counters.get(3).getEventDroppedCount());
+    Assert.assertTrue(counters.get(1).getInterceptTimeNanos() > 0);
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.MultiRegexInterceptor.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class TestMultiRegexInterceptor {
+
+  private static Interceptor build(Context context) throws Exception {
+    Interceptor.Builder builder = InterceptorBuilderFactory.newInstance(
+        InterceptorType.MULTI_REGEX.toString());
+    builder.configure(context);
+    return builder.build();
+  }
+
+  private static Context rulesContext() {
+    Context context = new Context();
+    context.put(Constants.RULES, "noisy level user");
+    context.put("rules.noisy.regex", "DEBUG");
+    context.put("rules.noisy.action", "exclude");
+    context.put("rules.level.regex", "level=(\\w+)");
+    context.put("rules.level.serializers", "s1");
+    context.put("rules.level.serializers.s1.name", "level");
+    context.put("rules.user.regex", "user=(\\w+) id=(\\d+)");
+    context.put("rules.user.action", "extract");
+    context.put("rules.user.serializers", "s1 s2");
+    context.put("rules.user.serializers.s1.name", "user");
+    context.put("rules.user.serializers.s2.name", "id");
+    return context;
+  }
+
+  @Test
+  public void testLiteralPrefix() {
+    Assert.assertEquals("DEBUG", MultiRegexInterceptor.literalPrefix("DEBUG"));
+    Assert.assertEquals("level=",
+        MultiRegexInterceptor.literalPrefix("level=(\\w+)"));
+    Assert.assertEquals("abc", MultiRegexInterceptor.literalPrefix("^abc"));
+    Assert.assertEquals("a.b", MultiRegexInterceptor.literalPrefix("a\\.b.*"));
+    Assert.assertEquals("ab", MultiRegexInterceptor.literalPrefix("ab+c"));
+    Assert.assertEquals("ab", MultiRegexInterceptor.literalPrefix("abc?"));
+    Assert.assertEquals("a", MultiRegexInterceptor.literalPrefix("ab*"));
+    Assert.assertEquals("a", MultiRegexInterceptor.literalPrefix("ab{2}"));
+    Assert.assertEquals("", MultiRegexInterceptor.literalPrefix("WARN|ERROR"));
+    Assert.assertEquals("", MultiRegexInterceptor.literalPrefix("(?i)abc"));
+    Assert.assertEquals("", MultiRegexInterceptor.literalPrefix("\\d+abc"));
+    Assert.assertEquals("", MultiRegexInterceptor.literalPrefix(".*"));
+    // a quantifier applies to the whole supplementary character
+    Assert.assertEquals("a\ud83d\ude00b",
+        MultiRegexInterceptor.literalPrefix("a\ud83d\ude00b"));
+    Assert.assertEquals("",
+        MultiRegexInterceptor.literalPrefix("\ud83d\ude00*b"));
+    Assert.assertEquals("a",
+        MultiRegexInterceptor.literalPrefix("a\\\ud83d\ude00?"));
+  }
+
+  @Test
+  public void testSupplementaryCharacterQuantifier() throws Exception {
+    Context context = new Context();
+    context.put(Constants.RULES, "r1");
+    context.put("rules.r1.regex", "\ud83d\ude00*b");
+    context.put("rules.r1.action", "include");
+    Interceptor interceptor = build(context);
+
+    Assert.assertNotNull(interceptor.intercept(
+        EventBuilder.withBody("b", Charsets.UTF_8)));
+    Assert.assertNotNull(interceptor.intercept(
+        EventBuilder.withBody("\ud83d\ude00\ud83d\ude00b", Charsets.UTF_8)));
+    Assert.assertNull(interceptor.intercept(
+        EventBuilder.withBody("a", Charsets.UTF_8)));
+  }
+
+  @Test
+  public void testRules() throws Exception {
+    Interceptor interceptor = build(rulesContext());
+
+    Assert.assertNull(interceptor.intercept(
+        EventBuilder.withBody("DEBUG level=low", Charsets.UTF_8)));
+
+    Event event = interceptor.intercept(EventBuilder.withBody(
+        "INFO level=high user=bob id=42", Charsets.UTF_8));
+    Assert.assertNotNull(event);
+    Assert.assertEquals("high", event.getHeaders().get("level"));
+    Assert.assertEquals("bob", event.getHeaders().get("user"));
+    Assert.assertEquals("42", event.getHeaders().get("id"));
+
+    event = interceptor.intercept(EventBuilder.withBody("INFO nothing",
+        Charsets.UTF_8));
+    Assert.assertNotNull(event);
+    Assert.assertTrue(event.getHeaders().isEmpty());
+  }
+
+  @Test
+  public void testInclude() throws Exception {
+    Context context = new Context();
+    context.put(Constants.RULES, "r1");
+    context.put("rules.r1.regex", "ERROR|FATAL");
+    context.put("rules.r1.action", "include");
+    Interceptor interceptor = build(context);
+
+    List<Event> events = Lists.newArrayList();
+    events.add(EventBuilder.withBody("ERROR one", Charsets.UTF_8));
+    events.add(EventBuilder.withBody("INFO two", Charsets.UTF_8));
+    events.add(EventBuilder.withBody("FATAL three", Charsets.UTF_8));
+    List<Event> out = interceptor.intercept(events);
+    Assert.assertEquals(2, out.size());
+    Assert.assertSame(events.get(0), out.get(0));
+    Assert.assertSame(events.get(2), out.get(1));
+  }
+
+  @Test
+  public void testMatchesChainedInterceptors() throws Exception {
+    Context filter = new Context();
+    filter.put(RegexFilteringInterceptor.Constants.REGEX, "DEBUG");
+    filter.put(RegexFilteringInterceptor.Constants.EXCLUDE_EVENTS, "true");
+    Context level = new Context();
+    level.put(RegexExtractorInterceptor.REGEX, "level=(\\w+)");
+    level.put(RegexExtractorInterceptor.SERIALIZERS, "s1");
+    level.put(RegexExtractorInterceptor.SERIALIZERS + ".s1.name", "level");
+    Context user = new Context();
+    user.put(RegexExtractorInterceptor.REGEX, "user=(\\w+) id=(\\d+)");
+    user.put(RegexExtractorInterceptor.SERIALIZERS, "s1 s2");
+    user.put(RegexExtractorInterceptor.SERIALIZERS + ".s1.name", "user");
+    user.put(RegexExtractorInterceptor.SERIALIZERS + ".s2.name", "id");
+
+    List<Interceptor> chained = Lists.newArrayList();
+    for (Object[] spec : new Object[][] {
+        { InterceptorType.REGEX_FILTER, filter },
+        { InterceptorType.REGEX_EXTRACTOR, level },
+        { InterceptorType.REGEX_EXTRACTOR, user } }) {
+      Interceptor.Builder builder = InterceptorBuilderFactory.newInstance(
+          spec[0].toString());
+      builder.configure((Context) spec[1]);
+      chained.add(builder.build());
+    }
+    InterceptorChain chain = new InterceptorChain();
+    chain.setInterceptors(chained);
+
+    Interceptor multi = build(rulesContext());
+
+    String[] bodies = { "DEBUG x", "level=a", "user=u id=1 level=b",
+        "user=u id=x", "nothing", "DEBUG user=u id=1" };
+    for (String body : bodies) {
+      Event expected = chain.intercept(
+          EventBuilder.withBody(body, Charsets.UTF_8));
+      Event actual = multi.intercept(
+          EventBuilder.withBody(body, Charsets.UTF_8));
+      if (expected == null) {
+        Assert.assertNull(body, actual);
+      } else {
+        Assert.assertEquals(body, expected.getHeaders(), actual.getHeaders());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownAction() throws Exception {
+    Context context = new Context();
+    context.put(Constants.RULES, "r1");
+    context.put("rules.r1.regex", "x");
+    context.put("rules.r1.action", "bogus");
+    build(context);
+  }
+
+}
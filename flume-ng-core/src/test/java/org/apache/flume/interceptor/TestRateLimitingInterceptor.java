@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.flume.interceptor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.RateLimitingInterceptor.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+public class TestRateLimitingInterceptor {
+
+  private static class MockTicker extends Ticker {
+    private long nanos = 0;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  private static List<Event> batch(String key, int count) {
+    List<Event> events = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      Event event = EventBuilder.withBody(key + i, Charsets.UTF_8);
+      event.getHeaders().put("tenant", key);
+      events.add(event);
+    }
+    return events;
+  }
+
+  private static RateLimitingInterceptor build(Context context,
+      Ticker ticker) {
+    context.put(Constants.HEADER, "tenant");
+    RateLimitingInterceptor.Builder builder =
+        new RateLimitingInterceptor.Builder();
+    builder.configure(context);
+    builder.setTicker(ticker);
+    return (RateLimitingInterceptor) builder.build();
+  }
+
+  @Test
+  public void testDropPerKey() {
+    MockTicker ticker = new MockTicker();
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "10");
+    RateLimitingInterceptor interceptor = build(context, ticker);
+
+    List<Event> events = batch("a", 15);
+    events.addAll(batch("b", 5));
+    List<Event> out = interceptor.intercept(events);
+    Assert.assertEquals(15, out.size());
+    Assert.assertEquals("a9",
+        new String(out.get(9).getBody(), Charsets.UTF_8));
+    Assert.assertEquals("b0",
+        new String(out.get(10).getBody(), Charsets.UTF_8));
+
+    // half a second refills five tokens
+    ticker.nanos += 500000000L;
+    Assert.assertEquals(5, interceptor.intercept(batch("a", 10)).size());
+    Assert.assertEquals(20, interceptor.getCounter().getEventPassedCount());
+    Assert.assertEquals(10, interceptor.getCounter().getEventLimitedCount());
+    Assert.assertEquals("passed=15,limited=10",
+        interceptor.getKeyCounts().get("a"));
+    Assert.assertEquals(1, interceptor.getCounter().getKeyLimitedCount());
+  }
+
+  @Test
+  public void testTag() {
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "2");
+    context.put(Constants.POLICY, "tag");
+    RateLimitingInterceptor interceptor = build(context, new MockTicker());
+
+    List<Event> out = interceptor.intercept(batch("a", 3));
+    Assert.assertEquals(3, out.size());
+    Assert.assertNull(out.get(1).getHeaders().get(
+        Constants.DEFAULT_TAG_HEADER));
+    Assert.assertEquals("true", out.get(2).getHeaders().get(
+        Constants.DEFAULT_TAG_HEADER));
+  }
+
+  @Test
+  public void testReject() {
+    MockTicker ticker = new MockTicker();
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "10");
+    context.put(Constants.POLICY, "reject");
+    RateLimitingInterceptor interceptor = build(context, ticker);
+
+    Assert.assertEquals(8, interceptor.intercept(batch("a", 8)).size());
+    List<Event> events = batch("b", 5);
+    events.addAll(batch("a", 5));
+    try {
+      interceptor.intercept(events);
+      Assert.fail();
+    } catch (ChannelException e) {
+      // expected
+    }
+    Assert.assertEquals(1, interceptor.getCounter().getBatchRejectedCount());
+    // tokens taken for "b" were given back
+    Assert.assertEquals(10, interceptor.intercept(batch("b", 10)).size());
+    Assert.assertEquals(2, interceptor.intercept(batch("a", 2)).size());
+  }
+
+  @Test
+  public void testRolledBackBatchIsRefunded() {
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "10");
+    RateLimitingInterceptor interceptor = build(context, new MockTicker());
+
+    // a batch the channel refused is retried with the same tokens
+    Assert.assertEquals(10, interceptor.intercept(batch("a", 10)).size());
+    interceptor.afterRollback();
+    Assert.assertEquals(10, interceptor.intercept(batch("a", 10)).size());
+    interceptor.afterCommit();
+    Assert.assertEquals(0, interceptor.intercept(batch("a", 1)).size());
+  }
+
+  @Test
+  public void testLruEviction() {
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "1");
+    context.put(Constants.MAX_KEYS, "2");
+    RateLimitingInterceptor interceptor = build(context, new MockTicker());
+
+    Assert.assertEquals(1, interceptor.intercept(batch("a", 2)).size());
+    interceptor.intercept(batch("b", 1));
+    interceptor.intercept(batch("c", 1));
+    Assert.assertEquals(1, interceptor.getCounter().getKeyEvictedCount());
+    Assert.assertFalse(interceptor.getKeyCounts().containsKey("a"));
+    // the limited key is no longer counted once forgotten
+    Assert.assertEquals(0, interceptor.getCounter().getKeyLimitedCount());
+    // "a" starts over with a full bucket
+    Assert.assertEquals(1, interceptor.intercept(batch("a", 2)).size());
+  }
+
+  @Test
+  public void testSampling() {
+    Context context = new Context();
+    context.put(Constants.EVENTS_PER_SECOND, "1000000");
+    context.put(Constants.SAMPLE_RATE, "0.1");
+    RateLimitingInterceptor interceptor = build(context, new MockTicker());
+
+    int kept = interceptor.intercept(batch("a", 10000)).size();
+    Assert.assertTrue("kept " + kept, kept > 500 && kept < 1500);
+    Assert.assertEquals(10000 - kept,
+        interceptor.getCounter().getEventSampledOutCount());
+  }
+
+  @Test
+  public void testCounterNamePerInstance() throws Exception {
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Lists.<Channel>newArrayList(new MemoryChannel()));
+    Context context = new Context();
+    context.put("interceptors", "r");
+    context.put("interceptors.r.type", "rate_limit");
+    List<ChannelProcessor> processors = Lists.newArrayList();
+    for (String source : new String[] { "src1", "src2" }) {
+      ChannelProcessor processor = new ChannelProcessor(selector);
+      processor.setName(source);
+      processor.configure(context);
+      processor.initialize();
+      processors.add(processor);
+    }
+
+    for (String source : new String[] { "src1", "src2" }) {
+      Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+          new ObjectName("org.apache.flume.interceptor:type=" + source +
+              ".r.rate_limit")));
+    }
+    for (ChannelProcessor processor : processors) {
+      processor.close();
+    }
+  }
+
+}
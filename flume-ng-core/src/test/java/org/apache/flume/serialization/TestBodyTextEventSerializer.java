@@ -26,6 +26,7 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import org.apache.commons.io.FileUtils;
 import org.apache.flume.Context;
 import org.apache.flume.event.EventBuilder;
@@ -89,4 +90,31 @@ public class TestBodyTextEventSerializer {
     FileUtils.forceDelete(testFile);
   }
 
+  @Test
+  public void testBufferBackedBody() throws FileNotFoundException,
+      IOException {
+
+    OutputStream out = new FileOutputStream(testFile);
+    EventSerializer serializer =
+        EventSerializerFactory.getInstance("text", new Context(), out);
+    serializer.afterCreate();
+    ByteBuffer buf = ByteBuffer.wrap("event 1|event 2".getBytes(Charsets.UTF_8));
+    buf.limit(7);
+    serializer.write(EventBuilder.withBodyBuffer(buf.slice(), null));
+    buf.limit(15).position(8);
+    serializer.write(EventBuilder.withBodyBuffer(buf.slice(), null));
+    serializer.flush();
+    serializer.beforeClose();
+    out.flush();
+    out.close();
+
+    BufferedReader reader = new BufferedReader(new FileReader(testFile));
+    Assert.assertEquals("event 1", reader.readLine());
+    Assert.assertEquals("event 2", reader.readLine());
+    Assert.assertNull(reader.readLine());
+    reader.close();
+
+    FileUtils.forceDelete(testFile);
+  }
+
 }
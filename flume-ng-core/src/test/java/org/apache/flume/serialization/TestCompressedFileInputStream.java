@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.snappy.SnappyOutputStream;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestCompressedFileInputStream {
+
+  private static final File WORK_DIR =
+      new File("target/test/work").getAbsoluteFile();
+
+  private File file;
+  private File index;
+
+  @Before
+  public void setup() throws Exception {
+    Files.createParentDirs(new File(WORK_DIR, "dummy"));
+    file = File.createTempFile(getClass().getSimpleName(), ".gz", WORK_DIR);
+    index = new File(file.getPath() + ".index");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+    index.delete();
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+    writeLines(out, 0, 1000);
+    out.close();
+
+    readAndVerify(CompressedFileInputStream.Codec.GZIP, 1000);
+  }
+
+  @Test
+  public void testBzip2() throws IOException {
+    OutputStream out = new BZip2CompressorOutputStream(
+        new FileOutputStream(file));
+    writeLines(out, 0, 1000);
+    out.close();
+
+    readAndVerify(CompressedFileInputStream.Codec.BZIP2, 1000);
+  }
+
+  @Test
+  public void testSnappy() throws IOException {
+    OutputStream out = new SnappyOutputStream(new FileOutputStream(file));
+    writeLines(out, 0, 10000);
+    out.close();
+
+    readAndVerify(CompressedFileInputStream.Codec.SNAPPY, 10000);
+  }
+
+  /**
+   * Resume a multi-member gzip file from a tracked position, starting from
+   * the recorded restart point closest to it.
+   */
+  @Test
+  public void testResumeFromRestartPoint() throws IOException {
+    FileOutputStream raw = new FileOutputStream(file);
+    for (int member = 0; member < 10; member++) {
+      OutputStream out = new GZIPOutputStream(raw) {
+        @Override
+        public void close() throws IOException {
+          finish(); // keep the underlying file open
+        }
+      };
+      writeLines(out, member * 100, 100);
+      out.close();
+    }
+    raw.close();
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    CompressedFileInputStream in = new CompressedFileInputStream(file,
+        tracker, CompressedFileInputStream.Codec.GZIP, Charsets.UTF_8, index,
+        1000);
+    for (int i = 0; i < 550; i++) {
+      assertEquals(line(i), readLine(in));
+    }
+    in.mark();
+    assertEquals(line(550), readLine(in));
+    in.reset();
+    assertEquals(line(550), readLine(in));
+    in.close();
+
+    // member starts passed so far were recorded as restart points
+    assertTrue(index.length() >= 5 * 16);
+    assertEquals(0, index.length() % 16);
+
+    in = new CompressedFileInputStream(file, tracker,
+        CompressedFileInputStream.Codec.GZIP, Charsets.UTF_8, index, 1000);
+    for (int i = 550; i < 1000; i++) {
+      assertEquals(line(i), readLine(in));
+    }
+    assertNull(in.readLine(100));
+    in.close();
+  }
+
+  @Test
+  public void testReadChar() throws IOException {
+    String data = "abc\u00e9\ud83d\ude00\n";
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+    out.write(data.getBytes(Charsets.UTF_8));
+    out.close();
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    CompressedFileInputStream in = new CompressedFileInputStream(file,
+        tracker, CompressedFileInputStream.Codec.GZIP, Charsets.UTF_8, index,
+        1000);
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.readChar()) != -1) {
+      sb.append((char) c);
+    }
+    assertEquals(data, sb.toString());
+    in.close();
+  }
+
+  @Test
+  public void testCodecForFileName() {
+    assertEquals(CompressedFileInputStream.Codec.GZIP,
+        CompressedFileInputStream.Codec.forFileName("access.log.gz"));
+    assertEquals(CompressedFileInputStream.Codec.BZIP2,
+        CompressedFileInputStream.Codec.forFileName("access.log.BZ2"));
+    assertEquals(CompressedFileInputStream.Codec.SNAPPY,
+        CompressedFileInputStream.Codec.forFileName("access.snappy"));
+    assertNull(CompressedFileInputStream.Codec.forFileName("access.log"));
+  }
+
+  private void readAndVerify(CompressedFileInputStream.Codec codec,
+      int numLines) throws IOException {
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    CompressedFileInputStream in = new CompressedFileInputStream(file,
+        tracker, codec, Charsets.UTF_8, index,
+        CompressedFileInputStream.DEFAULT_CHECKPOINT_INTERVAL);
+    for (int i = 0; i < numLines; i++) {
+      assertEquals(line(i), readLine(in));
+    }
+    assertNull(in.readLine(100));
+    in.close();
+  }
+
+  private static void writeLines(OutputStream out, int first, int count)
+      throws IOException {
+    for (int i = first; i < first + count; i++) {
+      out.write((line(i) + "\n").getBytes(Charsets.UTF_8));
+    }
+  }
+
+  private static String line(int i) {
+    return String.format("%05d: The quick brown fox jumps over the lazy dog",
+        i);
+  }
+
+  private static String readLine(CompressedFileInputStream in)
+      throws IOException {
+    byte[] line = in.readLine(100);
+    return line == null ? null : new String(line, Charsets.UTF_8);
+  }
+
+}
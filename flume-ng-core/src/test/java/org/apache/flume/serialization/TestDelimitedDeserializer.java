@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.conf.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class TestDelimitedDeserializer {
+
+  private static final File WORK_DIR =
+      new File("target/test/work").getAbsoluteFile();
+
+  private File file;
+
+  @Before
+  public void setup() throws Exception {
+    Files.createParentDirs(new File(WORK_DIR, "dummy"));
+    file = File.createTempFile(getClass().getSimpleName(), ".bin", WORK_DIR);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private ResettableInputStream open(String content) throws IOException {
+    Files.write(content, file, Charsets.UTF_8);
+    return new ResettableFileInputStream(file,
+        new TransientPositionTracker(file.getPath()));
+  }
+
+  private static void assertEventBodyEquals(String expected, Event event) {
+    String bodyStr = new String(event.getBody(), Charsets.UTF_8);
+    Assert.assertEquals(expected, bodyStr);
+  }
+
+  @Test
+  public void testSimpleViaFactory() throws IOException {
+    EventDeserializer des = EventDeserializerFactory.getInstance(
+        "DELIMITED", new Context(), open("line 1\n\nline 3"));
+    List<Event> events = des.readEvents(10);
+    Assert.assertEquals(3, events.size());
+    assertEventBodyEquals("line 1", events.get(0));
+    assertEventBodyEquals("", events.get(1));
+    assertEventBodyEquals("line 3", events.get(2));
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMultiByteDelimiter() throws IOException {
+    Context ctx = new Context();
+    ctx.put(DelimitedDeserializer.DELIMITER_KEY, "2d2d2d");
+    // keep the buffer small so that delimiters straddle refills
+    ctx.put(DelimitedDeserializer.MAX_RECORD_LENGTH_KEY, "8");
+    EventDeserializer des = new DelimitedDeserializer(ctx,
+        open("abc---de-f---g--h---ijklm---"));
+    assertEventBodyEquals("abc", des.readEvent());
+    assertEventBodyEquals("de-f", des.readEvent());
+    assertEventBodyEquals("g--h", des.readEvent());
+    assertEventBodyEquals("ijklm", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMarkReset() throws IOException {
+    EventDeserializer des = new DelimitedDeserializer(new Context(),
+        open("one\ntwo\nthree\n"));
+    assertEventBodyEquals("one", des.readEvent());
+    des.mark();
+    assertEventBodyEquals("two", des.readEvent());
+    assertEventBodyEquals("three", des.readEvent());
+    des.reset();
+    assertEventBodyEquals("two", des.readEvent());
+    des.mark();
+    des.close();
+
+    // the mark excludes the bytes read ahead of the last record
+    ResettableInputStream in = new ResettableFileInputStream(file,
+        new TransientPositionTracker(file.getPath()));
+    in.seek(8);
+    des = new DelimitedDeserializer(new Context(), in);
+    assertEventBodyEquals("three", des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMarkPositionAfterReadAhead() throws IOException {
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    Files.write("one\ntwo\nthree\n", file, Charsets.UTF_8);
+    EventDeserializer des = new DelimitedDeserializer(new Context(),
+        new ResettableFileInputStream(file, tracker));
+    assertEventBodyEquals("one", des.readEvent());
+    des.mark();
+    Assert.assertEquals(4, tracker.getPosition());
+    assertEventBodyEquals("two", des.readEvent());
+    des.mark();
+    Assert.assertEquals(8, tracker.getPosition());
+    des.close();
+  }
+
+  @Test
+  public void testMaxRecordLength() throws IOException {
+    Context ctx = new Context();
+    ctx.put(DelimitedDeserializer.MAX_RECORD_LENGTH_KEY, "10");
+    EventDeserializer des = new DelimitedDeserializer(ctx,
+        open("abcdefghijklmnopqrstuvwxyz\n"));
+    assertEventBodyEquals("abcdefghij", des.readEvent());
+    assertEventBodyEquals("klmnopqrst", des.readEvent());
+    assertEventBodyEquals("uvwxyz", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMaxLengthRecordAcrossRefill() throws IOException {
+    Context ctx = new Context();
+    ctx.put(DelimitedDeserializer.DELIMITER_KEY, "2d2d");
+    ctx.put(DelimitedDeserializer.MAX_RECORD_LENGTH_KEY, "8");
+    // four bytes per read, so the delimiters arrive after their records
+    EventDeserializer des = new DelimitedDeserializer(ctx,
+        new TrickleInputStream(open("abcdefgh--ijklmnop--qr")));
+    assertEventBodyEquals("abcdefgh", des.readEvent());
+    assertEventBodyEquals("ijklmnop", des.readEvent());
+    assertEventBodyEquals("qr", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testInvalidDelimiter() throws IOException {
+    Context ctx = new Context();
+    ctx.put(DelimitedDeserializer.DELIMITER_KEY, "0g");
+    new DelimitedDeserializer(ctx, open(""));
+  }
+
+  /** Returns at most four bytes per bulk read. */
+  private static class TrickleInputStream extends ResettableInputStream {
+    private final ResettableInputStream in;
+
+    TrickleInputStream(ResettableInputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return in.read(b, off, Math.min(len, 4));
+    }
+
+    @Override
+    public int readChar() throws IOException {
+      return in.readChar();
+    }
+
+    @Override
+    public void mark() throws IOException {
+      in.mark();
+    }
+
+    @Override
+    public void reset() throws IOException {
+      in.reset();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+      in.seek(position);
+    }
+
+    @Override
+    public long tell() throws IOException {
+      return in.tell();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+}
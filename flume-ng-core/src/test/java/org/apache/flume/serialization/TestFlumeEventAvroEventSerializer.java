@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharsetDecoder;
+import java.util.Map;
 
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.generic.GenericData;
@@ -33,12 +34,14 @@ import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumReader;
 import org.apache.commons.io.FileUtils;
 import org.apache.flume.Context;
+import org.apache.flume.Event;
 import org.apache.flume.event.EventBuilder;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 
 public class TestFlumeEventAvroEventSerializer {
 
@@ -84,6 +87,49 @@ public class TestFlumeEventAvroEventSerializer {
     FileUtils.forceDelete(TESTFILE);
   }
 
+  @Test
+  public void testHeadersAndBufferBackedBody() throws IOException {
+    if (TESTFILE.exists()) {
+      FileUtils.forceDelete(TESTFILE);
+    }
+    OutputStream out = new FileOutputStream(TESTFILE);
+    EventSerializer serializer =
+        new FlumeEventAvroEventSerializer.Builder().build(new Context(), out);
+    serializer.afterCreate();
+    ByteBuffer buf = ByteBuffer.wrap("[body]".getBytes(Charsets.UTF_8));
+    buf.position(1);
+    buf.limit(5);
+    Event event = EventBuilder.withBodyBuffer(buf,
+        ImmutableMap.of("host", "h1", "topic", "t1"));
+    serializer.write(event);
+    serializer.write(EventBuilder.withBody("plain", Charsets.UTF_8));
+    serializer.flush();
+    serializer.beforeClose();
+    out.flush();
+    out.close();
+
+    DatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>();
+    DataFileReader<GenericRecord> fileReader =
+        new DataFileReader<GenericRecord>(TESTFILE, reader);
+    GenericRecord record = fileReader.next();
+    Map<?, ?> headers = (Map<?, ?>) record.get("headers");
+    Assert.assertEquals(2, headers.size());
+    for (Map.Entry<?, ?> entry : headers.entrySet()) {
+      Assert.assertEquals(event.getHeaders().get(entry.getKey().toString()),
+          entry.getValue().toString());
+    }
+    CharsetDecoder decoder = Charsets.UTF_8.newDecoder();
+    Assert.assertEquals("body",
+        decoder.decode((ByteBuffer) record.get("body")).toString());
+    record = fileReader.next(record);
+    Assert.assertTrue(((Map<?, ?>) record.get("headers")).isEmpty());
+    Assert.assertEquals("plain",
+        decoder.decode((ByteBuffer) record.get("body")).toString());
+    Assert.assertFalse(fileReader.hasNext());
+    fileReader.close();
+    FileUtils.forceDelete(TESTFILE);
+  }
+
   public void createAvroFile(File file, String codec)
       throws FileNotFoundException, IOException {
 
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TestInPlacePositionTracker {
+
+  private File metaFile;
+  private File dataFile;
+
+  @Before
+  public void setup() throws IOException {
+    metaFile = File.createTempFile(getClass().getName(), ".pos");
+    metaFile.delete();
+    dataFile = File.createTempFile(getClass().getName(), ".data");
+    Files.write("line 1\nline2\n", dataFile, Charsets.UTF_8);
+  }
+
+  @After
+  public void tearDown() {
+    metaFile.delete();
+    dataFile.delete();
+  }
+
+  @Test
+  public void testBasicTracker() throws IOException {
+    final long NEW_POS = 7;
+
+    PositionTracker tracker;
+    tracker = new InPlacePositionTracker(metaFile, dataFile.toString(), 0);
+    Assert.assertEquals(0, tracker.getPosition());
+    tracker.storePosition(NEW_POS);
+    Assert.assertEquals(NEW_POS, tracker.getPosition());
+    tracker.close();
+
+    // target only gets updated if the file did not exist
+    tracker = new InPlacePositionTracker(metaFile, "foobar", 0);
+    Assert.assertEquals(NEW_POS, tracker.getPosition());
+    Assert.assertEquals(dataFile.getAbsolutePath(), tracker.getTarget());
+    tracker.close();
+  }
+
+  @Test
+  public void testFileSizeIsConstant() throws IOException {
+    PositionTracker tracker =
+        new InPlacePositionTracker(metaFile, dataFile.toString(), -1);
+    long size = metaFile.length();
+    for (long pos = 1; pos <= 1000; pos++) {
+      tracker.storePosition(pos);
+    }
+    tracker.close();
+    Assert.assertEquals(size, metaFile.length());
+
+    tracker = new InPlacePositionTracker(metaFile, dataFile.toString(), -1);
+    Assert.assertEquals(1000, tracker.getPosition());
+    tracker.close();
+  }
+
+  // a torn write to the newest slot falls back to the previous position
+  @Test
+  public void testTornWrite() throws IOException {
+    PositionTracker tracker =
+        new InPlacePositionTracker(metaFile, dataFile.toString(), 0);
+    tracker.storePosition(5);
+    tracker.storePosition(9);
+    tracker.close();
+
+    // sequence 2 lives in the first slot, which follows the header
+    long slotOffset = 12 + dataFile.toString().getBytes(Charsets.UTF_8).length;
+    RandomAccessFile raf = new RandomAccessFile(metaFile, "rw");
+    raf.seek(slotOffset + 8);
+    raf.writeLong(123456789L);
+    raf.close();
+
+    tracker = new InPlacePositionTracker(metaFile, dataFile.toString(), 0);
+    Assert.assertEquals(5, tracker.getPosition());
+    tracker.storePosition(11);
+    tracker.close();
+
+    tracker = new InPlacePositionTracker(metaFile, dataFile.toString(), 0);
+    Assert.assertEquals(11, tracker.getPosition());
+    tracker.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotATrackerFile() throws IOException {
+    Files.write("garbage that is not a tracker", metaFile, Charsets.UTF_8);
+    new InPlacePositionTracker(metaFile, dataFile.toString(), 0);
+  }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class TestLengthPrefixedDeserializer {
+
+  private static final File WORK_DIR =
+      new File("target/test/work").getAbsoluteFile();
+
+  private File file;
+
+  @Before
+  public void setup() throws Exception {
+    Files.createParentDirs(new File(WORK_DIR, "dummy"));
+    file = File.createTempFile(getClass().getSimpleName(), ".bin", WORK_DIR);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private static void writeRecord(ByteArrayOutputStream out, int fieldSize,
+      String body) {
+    byte[] bytes = body.getBytes(Charsets.UTF_8);
+    for (int i = fieldSize - 1; i >= 0; i--) {
+      out.write(bytes.length >>> (8 * i));
+    }
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private ResettableInputStream open() throws IOException {
+    return new ResettableFileInputStream(file,
+        new TransientPositionTracker(file.getPath()));
+  }
+
+  private static void assertEventBodyEquals(String expected, Event event) {
+    String bodyStr = new String(event.getBody(), Charsets.UTF_8);
+    Assert.assertEquals(expected, bodyStr);
+  }
+
+  @Test
+  public void testSimpleViaFactory() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeRecord(out, 4, "record 1");
+    writeRecord(out, 4, "");
+    writeRecord(out, 4, "record\n3");
+    Files.write(out.toByteArray(), file);
+
+    EventDeserializer des = EventDeserializerFactory.getInstance(
+        "LENGTH_PREFIXED", new Context(), open());
+    List<Event> events = des.readEvents(10);
+    Assert.assertEquals(3, events.size());
+    assertEventBodyEquals("record 1", events.get(0));
+    assertEventBodyEquals("", events.get(1));
+    assertEventBodyEquals("record\n3", events.get(2));
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testShortLengthField() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeRecord(out, 2, "first");
+    writeRecord(out, 2, "second");
+    Files.write(out.toByteArray(), file);
+
+    Context ctx = new Context();
+    ctx.put(LengthPrefixedDeserializer.LENGTH_FIELD_SIZE_KEY, "2");
+    EventDeserializer des = new LengthPrefixedDeserializer(ctx, open());
+    assertEventBodyEquals("first", des.readEvent());
+    assertEventBodyEquals("second", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMarkReset() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeRecord(out, 4, "one");
+    writeRecord(out, 4, "two");
+    writeRecord(out, 4, "three");
+    Files.write(out.toByteArray(), file);
+
+    EventDeserializer des = new LengthPrefixedDeserializer(new Context(),
+        open());
+    assertEventBodyEquals("one", des.readEvent());
+    des.mark();
+    assertEventBodyEquals("two", des.readEvent());
+    assertEventBodyEquals("three", des.readEvent());
+    des.reset();
+    assertEventBodyEquals("two", des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testMaxRecordLength() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeRecord(out, 4, "abcdefghijklmnopqrstuvwxyz");
+    writeRecord(out, 4, "next");
+    Files.write(out.toByteArray(), file);
+
+    Context ctx = new Context();
+    ctx.put(LengthPrefixedDeserializer.MAX_RECORD_LENGTH_KEY, "10");
+    EventDeserializer des = new LengthPrefixedDeserializer(ctx, open());
+    // the rest of an oversized record is skipped
+    assertEventBodyEquals("abcdefghij", des.readEvent());
+    assertEventBodyEquals("next", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+  @Test
+  public void testTruncatedRecord() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeRecord(out, 4, "complete");
+    out.write(new byte[] { 0, 0, 0, 10, 'p', 'a', 'r' }, 0, 7);
+    Files.write(out.toByteArray(), file);
+
+    EventDeserializer des = new LengthPrefixedDeserializer(new Context(),
+        open());
+    assertEventBodyEquals("complete", des.readEvent());
+    assertEventBodyEquals("par", des.readEvent());
+    Assert.assertNull(des.readEvent());
+    des.close();
+  }
+
+}
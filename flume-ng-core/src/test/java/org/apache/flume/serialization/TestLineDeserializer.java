@@ -18,13 +18,17 @@
 package org.apache.flume.serialization;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import junit.framework.Assert;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.MalformedInputException;
 import java.util.List;
 
 public class TestLineDeserializer {
@@ -96,6 +100,42 @@ public class TestLineDeserializer {
     Assert.assertNull(des.readEvent());
   }
 
+  @Test
+  public void testCarriageReturnLineFeed() throws IOException {
+    ResettableInputStream in =
+        new ResettableTestStringInputStream("line 1\r\nline 2\n");
+    EventDeserializer des = new LineDeserializer(new Context(), in);
+    assertEventBodyEquals("line 1", des.readEvent());
+    assertEventBodyEquals("line 2", des.readEvent());
+    Assert.assertNull(des.readEvent());
+  }
+
+  @Test
+  public void testMalformedInputOnBulkPath() throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    data.write("ok\n\u00e9t\u00e9\n".getBytes(Charsets.UTF_8));
+    data.write(new byte[] { 'b', 'a', 'd', (byte) 0xc3, '\n' });
+    File dir = Files.createTempDir();
+    File file = new File(dir, "malformed.txt");
+    Files.write(data.toByteArray(), file);
+
+    ResettableFileInputStream in = new ResettableFileInputStream(file,
+        new TransientPositionTracker(file.getPath()), 16, Charsets.UTF_8);
+    Assert.assertTrue(in.isLineReadable());
+    EventDeserializer des = new LineDeserializer(new Context(), in);
+    assertEventBodyEquals("ok", des.readEvent());
+    assertEventBodyEquals("\u00e9t\u00e9", des.readEvent());
+    try {
+      des.readEvent();
+      Assert.fail("malformed input not reported");
+    } catch (MalformedInputException e) {
+      // expected, as when the line is decoded
+    }
+    des.close();
+    file.delete();
+    dir.delete();
+  }
+
   /*
    * TODO: need test for output charset
   @Test
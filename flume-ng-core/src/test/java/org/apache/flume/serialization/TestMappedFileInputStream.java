@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestMappedFileInputStream {
+
+  private static final File WORK_DIR =
+      new File("target/test/work").getAbsoluteFile();
+
+  private File file;
+
+  @Before
+  public void setup() throws Exception {
+    Files.createParentDirs(new File(WORK_DIR, "dummy"));
+    file = File.createTempFile(getClass().getSimpleName(), ".txt", WORK_DIR);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+  /**
+   * Read characters across region boundaries, including a surrogate pair
+   * that straddles one.
+   */
+  @Test
+  public void testReadChar() throws IOException {
+    String data = "abcdef\u00e9\ud83d\ude00xyz\n";
+    Files.write(data.getBytes(Charsets.UTF_8), file);
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    MappedFileInputStream in = new MappedFileInputStream(file, tracker, 9,
+        Charsets.UTF_8);
+
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.readChar()) != -1) {
+      sb.append((char) c);
+    }
+    assertEquals(data, sb.toString());
+    assertEquals(file.length(), in.tell());
+    in.close();
+  }
+
+  @Test
+  public void testReadLineAndReset() throws IOException {
+    String longLine = Strings.repeat("\u00e9\ud83d\ude00x", 20);
+    String data = "ascii\r\n" + longLine + "\n\nlast";
+    Files.write(data.getBytes(Charsets.UTF_8), file);
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    MappedFileInputStream in = new MappedFileInputStream(file, tracker, 16,
+        Charsets.UTF_8);
+    assertTrue(in.isLineReadable());
+
+    assertEquals("ascii", readLine(in, 1000));
+    in.mark();
+    assertEquals(longLine, readLine(in, 1000));
+    assertEquals("", readLine(in, 1000));
+    assertEquals("last", readLine(in, 1000));
+    assertNull(in.readLine(1000));
+
+    in.reset();
+    assertEquals(longLine, readLine(in, 1000));
+    in.close();
+  }
+
+  @Test
+  public void testSeekAndRead() throws IOException {
+    Files.write("0123456789".getBytes(Charsets.UTF_8), file);
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    MappedFileInputStream in = new MappedFileInputStream(file, tracker, 4,
+        Charsets.UTF_8);
+    assertEquals(10, in.length());
+
+    in.seek(7);
+    assertEquals('7', in.read());
+    in.seek(2);
+    byte[] buf = new byte[10];
+    int n = in.read(buf, 0, buf.length);
+    // reads stop at the end of the mapped region
+    assertEquals("2345", new String(buf, 0, n, Charsets.UTF_8));
+    assertEquals(6, in.tell());
+
+    in.seek(10);
+    assertEquals(-1, in.read());
+    assertEquals(-1, in.readChar());
+    in.close();
+  }
+
+  private static String readLine(MappedFileInputStream in, int maxLength)
+      throws IOException {
+    byte[] line = in.readLine(maxLength);
+    return line == null ? null : new String(line, in.getCharset());
+  }
+
+}
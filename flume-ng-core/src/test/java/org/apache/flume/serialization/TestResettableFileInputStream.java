@@ -18,6 +18,7 @@
 package org.apache.flume.serialization;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import junit.framework.Assert;
@@ -229,6 +230,61 @@ public class TestResettableFileInputStream {
     assertEquals(11, Integer.parseInt(readLine(in, LINE_LEN).substring(0, 10)));
   }
 
+  /**
+   * Ensure the bulk line path handles multi-byte characters, "\r\n"
+   * terminators and lines spanning several buffer refills, and that the
+   * mark is only advanced past whole lines.
+   */
+  @Test
+  public void testReadLine() throws IOException {
+    String longLine = Strings.repeat("\u00e9\ud83d\ude00x", 20);
+    String data = "ascii\r\n" + longLine + "\n\nlast";
+    Files.write(data.getBytes(Charsets.UTF_8), file);
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    ResettableFileInputStream in = new ResettableFileInputStream(file,
+        tracker, 16, Charsets.UTF_8);
+    assertTrue(in.isLineReadable());
+
+    assertEquals("ascii", readBulkLine(in, 1000));
+    in.mark();
+    assertEquals(longLine, readBulkLine(in, 1000));
+    assertEquals("", readBulkLine(in, 1000));
+    assertEquals("last", readBulkLine(in, 1000));
+    assertNull(in.readLine(1000));
+
+    in.reset();
+    assertEquals(longLine, readBulkLine(in, 1000));
+    byte[] consumed = ("ascii\r\n" + longLine + "\n").getBytes(Charsets.UTF_8);
+    assertEquals(consumed.length, in.tell());
+    in.close();
+  }
+
+  /**
+   * Ensure truncation counts UTF-16 chars like readChar() does, and never
+   * splits a multi-byte character.
+   */
+  @Test
+  public void testReadLineTruncation() throws IOException {
+    Files.write("a\u00e9\ud83d\ude00b\n".getBytes(Charsets.UTF_8), file);
+
+    PositionTracker tracker = new TransientPositionTracker(file.getPath());
+    ResettableFileInputStream in = new ResettableFileInputStream(file,
+        tracker, 16, Charsets.UTF_8);
+
+    assertEquals("a\u00e9", readBulkLine(in, 3));
+    assertEquals("\ud83d\ude00b", readBulkLine(in, 3));
+    assertEquals("", readBulkLine(in, 3));
+    assertNull(in.readLine(3));
+    in.close();
+  }
+
+  private static String readBulkLine(ResettableFileInputStream in,
+      int maxLength) throws IOException {
+    byte[] line = in.readLine(maxLength);
+    return line == null ? null : new String(line, in.getCharset());
+  }
+
   /**
    * Helper function to read a line from a character stream.
    * @param in
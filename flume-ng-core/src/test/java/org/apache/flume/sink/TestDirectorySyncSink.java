@@ -0,0 +1,243 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.sink;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.instrumentation.SinkCounter;
+import org.apache.flume.source.DirectorySyncSourceConfigurationConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestDirectorySyncSink {
+  private File tmpDir;
+  private Channel channel;
+  private DirectorySyncSink sink;
+
+  @Before
+  public void setUp() {
+    tmpDir = Files.createTempDir();
+    channel = new MemoryChannel();
+    Configurables.configure(channel, new Context());
+    sink = new DirectorySyncSink();
+    sink.setChannel(channel);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  private void configure(int maxOpenFiles) {
+    configure(maxOpenFiles, 1);
+  }
+
+  private void configure(int maxOpenFiles, int writerThreads) {
+    Context context = new Context();
+    context.put("directory", tmpDir.getPath());
+    context.put("sink.maxOpenFiles", String.valueOf(maxOpenFiles));
+    context.put("sink.writerThreads", String.valueOf(writerThreads));
+    Configurables.configure(sink, context);
+  }
+
+  /** puts lines that alternate between the given files in one transaction */
+  private void putInterleaved(int lines, String... files) {
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    for (int i = 0; i < lines; i++) {
+      for (String file : files) {
+        channel.put(EventBuilder.withBody(file + " " + i, Charsets.UTF_8,
+            ImmutableMap.of(
+                DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY,
+                file)));
+      }
+    }
+    tx.commit();
+    tx.close();
+  }
+
+  private void assertContent(int lines, String file) throws IOException {
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      expected.append(file).append(' ').append(i).append('\n');
+    }
+    Assert.assertEquals(expected.toString(),
+        Files.toString(new File(tmpDir, file), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testInterleavedFiles() throws EventDeliveryException, IOException {
+    configure(8);
+    sink.start();
+    putInterleaved(25, "a.log", "sub/dir/b.log");
+    while (sink.process() == Sink.Status.READY) {
+      continue;
+    }
+
+    // written on commit, while the writers stay open
+    assertContent(25, "a.log");
+    assertContent(25, "sub/dir/b.log");
+    SinkCounter counter = sink.getSinkCounter();
+    Assert.assertEquals(2, counter.getWriterCacheMissCount());
+    Assert.assertEquals(48, counter.getWriterCacheHitCount());
+    Assert.assertEquals(2, counter.getWriterOpenCount());
+    Assert.assertEquals(2, counter.getConnectionCreatedCount());
+    Assert.assertEquals(0, counter.getConnectionClosedCount());
+    Assert.assertEquals(50, counter.getEventDrainSuccessCount());
+
+    sink.stop();
+    Assert.assertEquals(0, counter.getWriterOpenCount());
+    Assert.assertEquals(2, counter.getConnectionClosedCount());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedWriter()
+      throws EventDeliveryException, IOException {
+    configure(2);
+    sink.start();
+    putInterleaved(10, "a.log", "b.log", "c.log");
+    while (sink.process() == Sink.Status.READY) {
+      continue;
+    }
+
+    assertContent(10, "a.log");
+    assertContent(10, "b.log");
+    assertContent(10, "c.log");
+    SinkCounter counter = sink.getSinkCounter();
+    // round robin over three files with two handles always misses
+    Assert.assertEquals(30, counter.getWriterCacheMissCount());
+    Assert.assertEquals(0, counter.getWriterCacheHitCount());
+    Assert.assertEquals(2, counter.getWriterOpenCount());
+    Assert.assertEquals(28, counter.getConnectionClosedCount());
+    sink.stop();
+  }
+
+  @Test
+  public void testParallelWriters() throws EventDeliveryException, IOException {
+    configure(64, 4);
+    sink.start();
+    String[] files = new String[16];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = "dir" + (i % 3) + "/file" + i + ".log";
+    }
+    putInterleaved(6, files);
+    while (sink.process() == Sink.Status.READY) {
+      continue;
+    }
+
+    for (String file : files) {
+      assertContent(6, file);
+    }
+    SinkCounter counter = sink.getSinkCounter();
+    Assert.assertEquals(16, counter.getWriterCacheMissCount());
+    Assert.assertEquals(16 * 5, counter.getWriterCacheHitCount());
+    Assert.assertEquals(16, counter.getWriterOpenCount());
+    Assert.assertEquals(96, counter.getEventDrainSuccessCount());
+    sink.stop();
+    Assert.assertEquals(0, counter.getWriterOpenCount());
+  }
+
+  @Test
+  public void testFailedPartitionRollsBack() throws IOException {
+    configure(64, 4);
+    sink.start();
+    // a directory in the way of the destination file
+    Assert.assertTrue(new File(tmpDir, "blocked.log").mkdir());
+    putInterleaved(5, "a.log", "b.log", "blocked.log");
+    try {
+      sink.process();
+      Assert.fail("expected the blocked partition to fail the transaction");
+    } catch (EventDeliveryException e) {
+      // expected
+    }
+
+    // the whole batch is still in the channel
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    int remaining = 0;
+    while (channel.take() != null) {
+      remaining++;
+    }
+    tx.commit();
+    tx.close();
+    Assert.assertEquals(15, remaining);
+    Assert.assertEquals(0, sink.getSinkCounter().getEventDrainSuccessCount());
+    sink.stop();
+  }
+
+  private void putBlock(String file, byte[] content, int offset, int length) {
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    channel.put(EventBuilder.withBody(
+        Arrays.copyOfRange(content, offset, offset + length),
+        ImmutableMap.of(
+            DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY, file,
+            DirectorySyncSourceConfigurationConstants.OFFSET_HEADER_KEY,
+            String.valueOf(offset),
+            DirectorySyncSourceConfigurationConstants.LENGTH_HEADER_KEY,
+            String.valueOf(length))));
+    tx.commit();
+    tx.close();
+  }
+
+  @Test
+  public void testBlockWritesAreIdempotent()
+      throws EventDeliveryException, IOException {
+    configure(8, 2);
+    sink.start();
+    byte[] content = new byte[5000];
+    new Random(3).nextBytes(content);
+    // out of order, with a redelivered block
+    putBlock("bin/data", content, 2048, 2048);
+    putBlock("bin/data", content, 0, 1024);
+    putBlock("bin/data", content, 1024, 1024);
+    putBlock("bin/data", content, 0, 1024);
+    putBlock("bin/data", content, 4096, 904);
+    while (sink.process() == Sink.Status.READY) {
+      continue;
+    }
+    Assert.assertArrayEquals(content,
+        Files.toByteArray(new File(tmpDir, "bin/data")));
+
+    // the whole file again changes nothing
+    putBlock("bin/data", content, 0, 5000);
+    while (sink.process() == Sink.Status.READY) {
+      continue;
+    }
+    Assert.assertArrayEquals(content,
+        Files.toByteArray(new File(tmpDir, "bin/data")));
+    Assert.assertEquals(1, sink.getSinkCounter().getWriterCacheMissCount());
+    sink.stop();
+  }
+}
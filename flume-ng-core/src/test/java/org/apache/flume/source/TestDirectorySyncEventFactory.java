@@ -0,0 +1,89 @@
+/*
+   Copyright 2013 Vincent.Gu
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package org.apache.flume.source;
+
+import org.apache.flume.Event;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestDirectorySyncEventFactory {
+  private static final String PATH =
+      DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY;
+  private static final String OFFSET =
+      DirectorySyncSourceConfigurationConstants.OFFSET_HEADER_KEY;
+  private static final String LENGTH =
+      DirectorySyncSourceConfigurationConstants.LENGTH_HEADER_KEY;
+
+  private final File dir = new File("/sync/root");
+
+  @Test
+  public void testLineEvents() {
+    DirectorySyncEventFactory factory =
+        new DirectorySyncEventFactory(dir, "mirror");
+    File file = new File(dir, "sub/a.log");
+    byte[] first = "one".getBytes();
+    List<Event> events = factory.createEvents(file,
+        Arrays.asList(first, "two".getBytes(), "three".getBytes()));
+
+    Assert.assertEquals("sub/a.log", factory.getRelativePath(file));
+    Assert.assertEquals(3, events.size());
+    Assert.assertSame(first, events.get(0).getBody());
+    for (Event event : events) {
+      Assert.assertEquals(1, event.getHeaders().size());
+      Assert.assertEquals("mirror" + File.separator + "sub/a.log",
+          event.getHeaders().get(PATH));
+    }
+
+    // the shared headers are copied on write, e.g. by an interceptor
+    events.get(0).getHeaders().put("host", "h1");
+    events.get(1).getHeaders().put(PATH, "other");
+    Assert.assertEquals("h1", events.get(0).getHeaders().get("host"));
+    Assert.assertEquals("other", events.get(1).getHeaders().get(PATH));
+    Assert.assertNull(events.get(2).getHeaders().get("host"));
+    Assert.assertEquals("mirror" + File.separator + "sub/a.log",
+        events.get(2).getHeaders().get(PATH));
+    Assert.assertEquals("mirror" + File.separator + "sub/a.log",
+        factory.createEvents(file, Arrays.asList(first)).get(0)
+            .getHeaders().get(PATH));
+
+    // moving on to another file
+    File other = new File(dir, "b.log");
+    Assert.assertEquals("mirror" + File.separator + "b.log",
+        factory.createEvents(other, Arrays.asList(first)).get(0)
+            .getHeaders().get(PATH));
+  }
+
+  @Test
+  public void testBlockEvents() {
+    DirectorySyncEventFactory factory = new DirectorySyncEventFactory(dir, "");
+    List<Event> events = factory.createBlockEvents(new File(dir, "data.bin"),
+        Arrays.asList(new byte[4], new byte[4], new byte[2]), 100L);
+
+    Assert.assertEquals(3, events.size());
+    String[] offsets = { "100", "104", "108" };
+    String[] lengths = { "4", "4", "2" };
+    for (int i = 0; i < events.size(); i++) {
+      Assert.assertEquals("data.bin", events.get(i).getHeaders().get(PATH));
+      Assert.assertEquals(offsets[i], events.get(i).getHeaders().get(OFFSET));
+      Assert.assertEquals(lengths[i], events.get(i).getHeaders().get(LENGTH));
+    }
+  }
+}
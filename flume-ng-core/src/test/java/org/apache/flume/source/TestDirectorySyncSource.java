@@ -28,13 +28,19 @@ import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.channel.ReplicatingChannelSelector;
 import org.apache.flume.conf.Configurables;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 public class TestDirectorySyncSource {
   static DirectorySyncSource source;
@@ -48,6 +54,7 @@ public class TestDirectorySyncSource {
 
     Context memContext = new Context();
     memContext.put("capacity", "5000");
+    memContext.put("transactionCapacity", "1000");
     Configurables.configure(channel, memContext);
 
     List<Channel> channels = new ArrayList<Channel>();
@@ -92,4 +99,84 @@ public class TestDirectorySyncSource {
     txn.close();
   }
 
+  @Test
+  public void testConcurrentReaders() throws IOException, InterruptedException {
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < 10; i++) {
+      StringBuilder content = new StringBuilder();
+      for (int j = 0; j < 20; j++) {
+        String line = "file" + i + "line" + j;
+        content.append(line).append('\n');
+        expected.add(line);
+      }
+      Files.write(content.toString().getBytes("UTF-8"), new File(tmpDir, "file" + i));
+    }
+
+    Context context = new Context();
+    context.put(DirectorySyncSourceConfigurationConstants.SYNC_DIRECTORY,
+        tmpDir.toString());
+    context.put(DirectorySyncSourceConfigurationConstants.BATCH_SIZE, "7");
+    context.put(DirectorySyncSourceConfigurationConstants.READER_THREADS, "4");
+    Configurables.configure(source, context);
+    source.start();
+    Thread.sleep(1000);
+    source.stop();
+
+    Set<String> received = new HashSet<String>();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    Event e;
+    while ((e = channel.take()) != null) {
+      Assert.assertTrue(received.add(new String(e.getBody(), "UTF-8")));
+    }
+    txn.commit();
+    txn.close();
+
+    Assert.assertEquals(expected, received);
+    Assert.assertEquals(200, source.getSourceCounter().getLinesReadCount());
+    Assert.assertEquals(0, source.getSourceCounter().getMaxSyncLag());
+  }
+
+  @Test
+  public void testBlockMode() throws IOException, InterruptedException {
+    // binary content, line terminators included
+    byte[] content = new byte[10000];
+    new Random(7).nextBytes(content);
+    Files.write(content, new File(tmpDir, "data.bin"));
+    Files.touch(new File(tmpDir, "data.bin.done"));
+
+    Context context = new Context();
+    context.put(DirectorySyncSourceConfigurationConstants.SYNC_DIRECTORY,
+        tmpDir.toString());
+    context.put(DirectorySyncSourceConfigurationConstants.BATCH_SIZE, "3");
+    context.put(DirectorySyncSourceConfigurationConstants.TRANSFER_MODE,
+        DirectorySyncSourceConfigurationConstants.TRANSFER_MODE_BLOCK);
+    context.put(DirectorySyncSourceConfigurationConstants.BLOCK_SIZE, "1024");
+    Configurables.configure(source, context);
+    source.start();
+    Thread.sleep(1000);
+    source.stop();
+
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    Event e;
+    while ((e = channel.take()) != null) {
+      Map<String, String> headers = e.getHeaders();
+      Assert.assertEquals("data.bin", headers.get(
+          DirectorySyncSourceConfigurationConstants.FILENAME_HEADER_KEY));
+      Assert.assertEquals(String.valueOf(received.size()), headers.get(
+          DirectorySyncSourceConfigurationConstants.OFFSET_HEADER_KEY));
+      Assert.assertEquals(String.valueOf(e.getBody().length), headers.get(
+          DirectorySyncSourceConfigurationConstants.LENGTH_HEADER_KEY));
+      received.write(e.getBody());
+    }
+    txn.commit();
+    txn.close();
+
+    Assert.assertArrayEquals(content, received.toByteArray());
+    Assert.assertEquals(10, source.getSourceCounter().getBlocksReadCount());
+    Assert.assertEquals(0, source.getSourceCounter().getLinesReadCount());
+    Assert.assertTrue(new File(tmpDir, ".data.bin.FLUME-COMPLETED").exists());
+  }
 }
@@ -20,7 +20,9 @@ package org.apache.flume.source;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.flume.Channel;
 import org.apache.flume.ChannelSelector;
@@ -132,4 +134,58 @@ public class TestSpoolDirectorySource {
           source.getLifecycleState());
     }
   }
+
+  @Test
+  public void testParallelReaders() throws IOException, InterruptedException {
+    Context context = new Context();
+    int numFiles = 5;
+    int numLines = 10;
+    for (int i = 0; i < numFiles; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < numLines; j++) {
+        sb.append("file").append(i).append("line").append(j).append('\n');
+      }
+      Files.write(sb.toString(), new File(tmpDir, "file" + i), Charsets.UTF_8);
+    }
+
+    context.put(SpoolDirectorySourceConfigurationConstants.SPOOL_DIRECTORY,
+        tmpDir.getAbsolutePath());
+    context.put(SpoolDirectorySourceConfigurationConstants.READER_THREADS,
+        "3");
+    context.put(SpoolDirectorySourceConfigurationConstants.BATCH_SIZE, "2");
+
+    Configurables.configure(source, context);
+    source.start();
+
+    // every file is completed by exactly one reader
+    for (int i = 0; i < 100 && countCompleted() < numFiles; i++) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(numFiles, countCompleted());
+
+    Set<String> bodies = new HashSet<String>();
+    Transaction txn = channel.getTransaction();
+    txn.begin();
+    Event e;
+    while ((e = channel.take()) != null) {
+      Assert.assertTrue("Duplicate event",
+          bodies.add(new String(e.getBody(), Charsets.UTF_8)));
+    }
+    txn.commit();
+    txn.close();
+    Assert.assertEquals(numFiles * numLines, bodies.size());
+
+    source.stop();
+  }
+
+  private int countCompleted() {
+    int completed = 0;
+    for (File f : tmpDir.listFiles()) {
+      if (f.getName().endsWith(
+          SpoolDirectorySourceConfigurationConstants.DEFAULT_SPOOLED_FILE_SUFFIX)) {
+        completed++;
+      }
+    }
+    return completed;
+  }
 }
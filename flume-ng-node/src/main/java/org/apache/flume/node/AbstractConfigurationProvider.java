@@ -298,6 +298,7 @@ public abstract class AbstractConfigurationProvider implements
               sourceChannels, selectorConfig);
 
           ChannelProcessor channelProcessor = new ChannelProcessor(selector);
+          channelProcessor.setName(sourceName);
           Configurables.configure(channelProcessor, config);
 
           source.setChannelProcessor(channelProcessor);
@@ -350,6 +351,7 @@ public abstract class AbstractConfigurationProvider implements
               sourceChannels, selectorConfig);
 
           ChannelProcessor channelProcessor = new ChannelProcessor(selector);
+          channelProcessor.setName(sourceName);
           Configurables.configure(channelProcessor, context);
           source.setChannelProcessor(channelProcessor);
           sourceRunnerMap.put(sourceName,
@@ -22,7 +22,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 import java.util.HashMap;
@@ -58,6 +57,7 @@ import org.apache.avro.ipc.specific.SpecificRequestor;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
+import org.apache.flume.event.ByteBufferEvent;
 import org.apache.flume.source.avro.AvroFlumeEvent;
 import org.apache.flume.source.avro.AvroSourceProtocol;
 import org.apache.flume.source.avro.Status;
@@ -238,7 +238,7 @@ implements RpcClient {
     final CallFuture<Status> callFuture = new CallFuture<Status>();
 
     final AvroFlumeEvent avroEvent = new AvroFlumeEvent();
-    avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
+    avroEvent.setBody(ByteBufferEvent.bodyBuffer(event));
     avroEvent.setHeaders(toCharSeqMap(event.getHeaders()));
 
     Future<Void> handshake;
@@ -310,7 +310,7 @@ implements RpcClient {
       for (int i = 0; i < batchSize && iter.hasNext(); i++) {
         Event event = iter.next();
         AvroFlumeEvent avroEvent = new AvroFlumeEvent();
-        avroEvent.setBody(ByteBuffer.wrap(event.getBody()));
+        avroEvent.setBody(ByteBufferEvent.bodyBuffer(event));
         avroEvent.setHeaders(toCharSeqMap(event.getHeaders()));
         avroEvents.add(avroEvent);
       }
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.event;
+
+import java.nio.ByteBuffer;
+
+import org.apache.flume.Event;
+
+/**
+ * An {@link Event} whose body is held in a {@link ByteBuffer}, typically a
+ * slice of a larger buffer that was received or read in one piece.
+ * <p>
+ * Components that know about this interface can read the body through
+ * {@link #getBodyBuffer()} without copying it. {@link #getBody()} still
+ * works for everyone else, but may have to copy the body into a new array.
+ */
+public interface BufferBackedEvent extends Event {
+
+  /**
+   * Returns a new view of the body, from its first byte (the view's
+   * position) to its last (the view's limit). The caller may move the
+   * view's position and limit, but must not modify the bytes.
+   */
+  public ByteBuffer getBodyBuffer();
+
+  /**
+   * Returns the length of the body in bytes.
+   */
+  public int getBodyLength();
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.event;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.apache.flume.Event;
+
+/**
+ * A {@link BufferBackedEvent} over the remaining bytes of a
+ * {@link ByteBuffer}. The buffer is not copied, so it must not be modified
+ * or reused while the event is in flight.
+ * <p>
+ * {@link #getBody()} returns the buffer's backing array as is when the
+ * buffer spans all of it, and otherwise copies the body once and keeps the
+ * copy.
+ */
+public class ByteBufferEvent implements BufferBackedEvent {
+
+  private static final ByteBuffer EMPTY = ByteBuffer.wrap(new byte[0]);
+
+  private Map<String, String> headers;
+  private ByteBuffer body;
+  private byte[] bodyArray;
+
+  public ByteBufferEvent() {
+    this(EMPTY);
+  }
+
+  /**
+   * @param body the body, from the buffer's position to its limit
+   */
+  public ByteBufferEvent(ByteBuffer body) {
+    headers = new CompactHeaderMap();
+    setBodyBuffer(body);
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  @Override
+  public void setHeaders(Map<String, String> headers) {
+    this.headers = headers;
+  }
+
+  @Override
+  public byte[] getBody() {
+    if (bodyArray == null) {
+      if (body.hasArray() && body.arrayOffset() == 0 &&
+          body.position() == 0 && body.limit() == body.array().length) {
+        bodyArray = body.array();
+      } else {
+        bodyArray = new byte[body.remaining()];
+        body.duplicate().get(bodyArray);
+      }
+    }
+    return bodyArray;
+  }
+
+  @Override
+  public void setBody(byte[] body) {
+    if (body == null) {
+      body = new byte[0];
+    }
+    this.body = ByteBuffer.wrap(body);
+    this.bodyArray = body;
+  }
+
+  @Override
+  public ByteBuffer getBodyBuffer() {
+    return body.duplicate();
+  }
+
+  @Override
+  public int getBodyLength() {
+    return body.remaining();
+  }
+
+  /**
+   * Replaces the body with the remaining bytes of the given buffer, without
+   * copying them.
+   */
+  public void setBodyBuffer(ByteBuffer body) {
+    if (body == null) {
+      body = EMPTY;
+    }
+    this.body = body.slice();
+    this.bodyArray = null;
+  }
+
+  /**
+   * Returns the body of any event as a buffer, without copying it when the
+   * event is a {@link BufferBackedEvent}.
+   */
+  public static ByteBuffer bodyBuffer(Event event) {
+    if (event instanceof BufferBackedEvent) {
+      return ((BufferBackedEvent) event).getBodyBuffer();
+    }
+    return ByteBuffer.wrap(event.getBody());
+  }
+
+  @Override
+  public String toString() {
+    return "[Event headers = " + headers + ", body.length = " +
+        body.remaining() + " ]";
+  }
+
+}
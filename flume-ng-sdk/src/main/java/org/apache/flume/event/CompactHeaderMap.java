@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.event;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A small, array-backed map for event headers.
+ * <p>
+ * Events typically carry a handful of headers whose keys repeat from one
+ * event to the next. This map stores keys and values in two arrays, in
+ * insertion order, and interns keys in a process-wide table so that every
+ * event shares the same key instances. Lookups are a linear scan, which is
+ * faster than hashing for the few entries an event has.
+ * <p>
+ * Copying a {@code CompactHeaderMap} is constant time: the copy shares the
+ * arrays of the original, and whichever of the two is modified first makes
+ * its own copy of them. A source can thus fill in a set of base headers
+ * once and hand a copy of it to every event.
+ * <p>
+ * Like {@link java.util.HashMap}, this map permits {@code null} values and
+ * is not thread-safe.
+ */
+public class CompactHeaderMap extends AbstractMap<String, String> {
+
+  private static final int DEFAULT_CAPACITY = 4;
+
+  /** Beyond this many distinct keys, new keys are no longer interned */
+  private static final int MAX_INTERNED_KEYS = 4096;
+  private static final ConcurrentHashMap<String, String> KEYS =
+      new ConcurrentHashMap<String, String>();
+
+  private String[] keys;
+  private String[] values;
+  private int size;
+  /** whether the arrays may be referenced by another map */
+  private boolean shared;
+  private int modCount;
+
+  private Set<Map.Entry<String, String>> entrySet;
+
+  public CompactHeaderMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public CompactHeaderMap(int initialCapacity) {
+    keys = new String[Math.max(initialCapacity, 1)];
+    values = new String[keys.length];
+  }
+
+  /**
+   * Creates a map with the same entries as {@code m}. If {@code m} is a
+   * {@code CompactHeaderMap} its arrays are shared until either map is
+   * modified.
+   */
+  public CompactHeaderMap(Map<String, String> m) {
+    if (m instanceof CompactHeaderMap) {
+      CompactHeaderMap other = (CompactHeaderMap) m;
+      keys = other.keys;
+      values = other.values;
+      size = other.size;
+      shared = true;
+      other.shared = true;
+    } else {
+      keys = new String[Math.max(m.size(), DEFAULT_CAPACITY)];
+      values = new String[keys.length];
+      for (Map.Entry<String, String> entry : m.entrySet()) {
+        keys[size] = intern(entry.getKey());
+        values[size] = entry.getValue();
+        size++;
+      }
+    }
+  }
+
+  /**
+   * @return the interned instance of {@code key}
+   */
+  static String intern(String key) {
+    if (key == null) {
+      return null;
+    }
+    String interned = KEYS.get(key);
+    if (interned != null) {
+      return interned;
+    }
+    if (KEYS.size() >= MAX_INTERNED_KEYS) {
+      return key;
+    }
+    interned = KEYS.putIfAbsent(key, key);
+    return interned == null ? key : interned;
+  }
+
+  private int indexOf(Object key) {
+    if (key == null) {
+      for (int i = 0; i < size; i++) {
+        if (keys[i] == null) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    // interned keys usually match by reference
+    for (int i = 0; i < size; i++) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    int hash = key.hashCode();
+    for (int i = 0; i < size; i++) {
+      String k = keys[i];
+      if (k != null && k.hashCode() == hash && k.equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Make sure the arrays are ours alone and can hold {@code capacity} */
+  private void ensureWritable(int capacity) {
+    if (shared || capacity > keys.length) {
+      int length = keys.length;
+      if (capacity > length) {
+        length = Math.max(capacity, length * 2);
+      }
+      keys = Arrays.copyOf(keys, length);
+      values = Arrays.copyOf(values, length);
+      shared = false;
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    int i = indexOf(key);
+    return i < 0 ? null : values[i];
+  }
+
+  @Override
+  public String put(String key, String value) {
+    int i = indexOf(key);
+    if (i >= 0) {
+      String old = values[i];
+      if (old != value) {
+        ensureWritable(size);
+        values[i] = value;
+      }
+      return old;
+    }
+    ensureWritable(size + 1);
+    keys[size] = intern(key);
+    values[size] = value;
+    size++;
+    modCount++;
+    return null;
+  }
+
+  @Override
+  public String remove(Object key) {
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    String old = values[i];
+    removeAt(i);
+    return old;
+  }
+
+  private void removeAt(int i) {
+    ensureWritable(size);
+    int moved = size - i - 1;
+    if (moved > 0) {
+      System.arraycopy(keys, i + 1, keys, i, moved);
+      System.arraycopy(values, i + 1, values, i, moved);
+    }
+    size--;
+    keys[size] = null;
+    values[size] = null;
+    modCount++;
+  }
+
+  @Override
+  public void clear() {
+    if (shared) {
+      keys = new String[DEFAULT_CAPACITY];
+      values = new String[DEFAULT_CAPACITY];
+      shared = false;
+    } else {
+      Arrays.fill(keys, 0, size, null);
+      Arrays.fill(values, 0, size, null);
+    }
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<String, String>>() {
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public void clear() {
+          CompactHeaderMap.this.clear();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    private int next;
+    private int last = -1;
+    private int expectedModCount = modCount;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new Entry(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedModCount = modCount;
+    }
+  }
+
+  private class Entry implements Map.Entry<String, String> {
+    private final int index;
+
+    Entry(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getKey() {
+      return keys[index];
+    }
+
+    @Override
+    public String getValue() {
+      return values[index];
+    }
+
+    @Override
+    public String setValue(String value) {
+      String old = values[index];
+      ensureWritable(size);
+      values[index] = value;
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      String k = getKey();
+      String v = getValue();
+      return (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+  private static boolean eq(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+}
@@ -19,8 +19,8 @@
 
 package org.apache.flume.event;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.flume.Event;
@@ -43,7 +43,7 @@ public class EventBuilder {
     event.setBody(body);
 
     if (headers != null) {
-      event.setHeaders(new HashMap<String, String>(headers));
+      event.setHeaders(new CompactHeaderMap(headers));
     }
 
     return event;
@@ -53,6 +53,25 @@ public class EventBuilder {
     return withBody(body, null);
   }
 
+  /**
+   * Instantiate an Event instance whose body is the remaining bytes of the
+   * provided buffer. The bytes are not copied; see {@link ByteBufferEvent}.
+   * If <code>headers</code> is <code>null</code>, then it is ignored.
+   * @param body
+   * @param headers
+   * @return
+   */
+  public static Event withBodyBuffer(ByteBuffer body,
+      Map<String, String> headers) {
+    ByteBufferEvent event = new ByteBufferEvent(body);
+
+    if (headers != null) {
+      event.setHeaders(new CompactHeaderMap(headers));
+    }
+
+    return event;
+  }
+
   public static Event withBody(String body, Charset charset,
       Map<String, String> headers) {
 
@@ -19,7 +19,6 @@
 
 package org.apache.flume.event;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.flume.Event;
@@ -30,10 +29,19 @@ public class SimpleEvent implements Event {
   private byte[] body;
 
   public SimpleEvent() {
-    headers = new HashMap<String, String>();
+    headers = new CompactHeaderMap();
     body = new byte[0];
   }
 
+  /**
+   * Creates an event with the given body and headers, which are used as is
+   * rather than copied.
+   */
+  public SimpleEvent(byte[] body, Map<String, String> headers) {
+    this.headers = headers;
+    setBody(body);
+  }
+
   @Override
   public Map<String, String> getHeaders() {
     return headers;
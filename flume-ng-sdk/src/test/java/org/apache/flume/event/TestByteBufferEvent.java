@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.event;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.flume.Event;
+import org.junit.Test;
+
+public class TestByteBufferEvent {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Test
+  public void testSliceIsNotCopied() {
+    byte[] backing = "[header]body[trailer]".getBytes(UTF_8);
+    ByteBuffer buf = ByteBuffer.wrap(backing);
+    buf.position(8);
+    buf.limit(12);
+
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put("one", "1");
+    Event event = EventBuilder.withBodyBuffer(buf, headers);
+    Assert.assertTrue(event instanceof BufferBackedEvent);
+    Assert.assertEquals("1", event.getHeaders().get("one"));
+
+    BufferBackedEvent bufferEvent = (BufferBackedEvent) event;
+    Assert.assertEquals(4, bufferEvent.getBodyLength());
+    ByteBuffer body = bufferEvent.getBodyBuffer();
+    Assert.assertSame(backing, body.array());
+    Assert.assertEquals(8, body.arrayOffset() + body.position());
+
+    // each view is independent
+    body.get();
+    Assert.assertEquals(4, bufferEvent.getBodyBuffer().remaining());
+
+    Assert.assertEquals("body", new String(event.getBody(), UTF_8));
+    Assert.assertSame(event.getBody(), event.getBody());
+  }
+
+  @Test
+  public void testWholeArrayIsReturnedAsIs() {
+    byte[] backing = "body".getBytes(UTF_8);
+    Event event = new ByteBufferEvent(ByteBuffer.wrap(backing));
+    Assert.assertSame(backing, event.getBody());
+  }
+
+  @Test
+  public void testDirectBuffer() {
+    ByteBuffer direct = ByteBuffer.allocateDirect(4);
+    direct.put("body".getBytes(UTF_8));
+    direct.flip();
+    Event event = new ByteBufferEvent(direct);
+    Assert.assertEquals("body", new String(event.getBody(), UTF_8));
+  }
+
+  @Test
+  public void testSetBody() {
+    ByteBufferEvent event = new ByteBufferEvent();
+    Assert.assertEquals(0, event.getBody().length);
+    event.setBody("new".getBytes(UTF_8));
+    Assert.assertEquals(3, event.getBodyLength());
+    Assert.assertEquals("new", new String(event.getBody(), UTF_8));
+    event.setBody(null);
+    Assert.assertEquals(0, event.getBodyLength());
+  }
+
+  @Test
+  public void testBodyBufferOfPlainEvent() {
+    Event event = EventBuilder.withBody("plain".getBytes(UTF_8));
+    ByteBuffer body = ByteBufferEvent.bodyBuffer(event);
+    Assert.assertSame(event.getBody(), body.array());
+    Assert.assertEquals(5, body.remaining());
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.flume.event;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.flume.Event;
+import org.junit.Test;
+
+public class TestCompactHeaderMap {
+
+  @Test
+  public void testPutGetRemove() {
+    Map<String, String> map = new CompactHeaderMap(1);
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertNull(map.put("timestamp", "1"));
+    Assert.assertNull(map.put("host", "a"));
+    Assert.assertNull(map.put("file", "f"));
+    Assert.assertEquals("1", map.put("timestamp", "2"));
+    Assert.assertEquals(3, map.size());
+    Assert.assertEquals("2", map.get(new String("timestamp")));
+    Assert.assertTrue(map.containsKey("host"));
+    Assert.assertFalse(map.containsKey("topic"));
+
+    Assert.assertEquals("a", map.remove("host"));
+    Assert.assertNull(map.remove("host"));
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals("f", map.get("file"));
+
+    map.put(null, "nullkey");
+    map.put("nullvalue", null);
+    Assert.assertEquals("nullkey", map.get(null));
+    Assert.assertTrue(map.containsKey("nullvalue"));
+    Assert.assertNull(map.get("nullvalue"));
+  }
+
+  @Test
+  public void testEqualsHashMap() {
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put("a", "1");
+    expected.put("b", "2");
+    Map<String, String> map = new CompactHeaderMap(expected);
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(map, expected);
+    Assert.assertEquals(expected.hashCode(), map.hashCode());
+  }
+
+  @Test
+  public void testKeysAreInterned() {
+    Map<String, String> first = new CompactHeaderMap();
+    Map<String, String> second = new CompactHeaderMap();
+    first.put(new String("topic"), "x");
+    second.put(new String("topic"), "y");
+    Assert.assertSame(first.keySet().iterator().next(),
+        second.keySet().iterator().next());
+  }
+
+  @Test
+  public void testCopyOnWrite() {
+    CompactHeaderMap base = new CompactHeaderMap();
+    base.put("host", "a");
+    base.put("topic", "t");
+
+    Map<String, String> copy = new CompactHeaderMap(base);
+    copy.put("timestamp", "1");
+    copy.put("host", "b");
+    Assert.assertEquals(2, base.size());
+    Assert.assertEquals("a", base.get("host"));
+    Assert.assertEquals("b", copy.get("host"));
+
+    // modifying the original leaves earlier copies alone too
+    Map<String, String> other = new CompactHeaderMap(base);
+    base.remove("topic");
+    Assert.assertEquals("t", other.get("topic"));
+    base.clear();
+    Assert.assertEquals(2, other.size());
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    Map<String, String> map = new CompactHeaderMap();
+    map.put("a", "1");
+    map.put("b", "2");
+    map.put("c", "3");
+    Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, String> entry = it.next();
+      if (entry.getKey().equals("b")) {
+        it.remove();
+      } else {
+        entry.setValue(entry.getValue() + "!");
+      }
+    }
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals("1!", map.get("a"));
+    Assert.assertEquals("3!", map.get("c"));
+  }
+
+  @Test
+  public void testEventBuilderSharesBaseHeaders() {
+    CompactHeaderMap base = new CompactHeaderMap();
+    base.put("host", "a");
+    Event first = EventBuilder.withBody(new byte[0], base);
+    Event second = EventBuilder.withBody(new byte[0], base);
+    first.getHeaders().put("file", "f");
+    Assert.assertEquals(1, second.getHeaders().size());
+    Assert.assertEquals(1, base.size());
+    Assert.assertTrue(new SimpleEvent().getHeaders()
+        instanceof CompactHeaderMap);
+  }
+
+}
@@ -31,6 +31,7 @@ import org.apache.flume.Event;
 import org.apache.flume.FlumeException;
 import org.apache.flume.event.EventBuilder;
 import org.apache.flume.interceptor.Interceptor;
+import org.apache.flume.interceptor.StatelessInterceptor;
 
 import com.cloudera.cdk.morphline.api.Command;
 import com.cloudera.cdk.morphline.api.Record;
@@ -43,8 +44,11 @@ import com.google.common.io.ByteStreams;
  * 
  * Currently, there is a restriction in that the morphline must not generate more than one output
  * record for each input event.
+ * 
+ * Each thread borrows its own morphline from a pool, so the interceptor may be run in parallel by
+ * the interceptor chain.
  */
-public class MorphlineInterceptor implements Interceptor {
+public class MorphlineInterceptor implements StatelessInterceptor {
 
   private final Context context;
   private final BlockingQueue<LocalMorphlineInterceptor> pool = new LinkedBlockingQueue();